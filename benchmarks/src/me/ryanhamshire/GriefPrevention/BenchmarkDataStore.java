@@ -0,0 +1,138 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+//a data store which keeps everything in memory and writes nothing, so the benchmarks measure lookups instead of disk access
+//filled with a synthetic grid of claims, laid out so benchmarks can pick points inside, between, or around claims without searching
+class BenchmarkDataStore extends DataStore
+{
+	//each claim sits in its own square cell, with a gap to the next claim
+	static final int cellSize = 32;
+	static final int claimOffset = 4;
+	static final int claimWidth = 20;
+	
+	//claims per row of the grid
+	final int gridSide;
+	
+	//the claims, by position in the grid (row major), which isn't the order the data store keeps them in
+	final Claim [] gridClaims;
+	
+	BenchmarkDataStore(World world, int claimCount) throws Exception
+	{
+		this.gridSide = (int)Math.ceil(Math.sqrt(claimCount));
+		this.gridClaims = new Claim[claimCount];
+		
+		//load the claims the way FlatFileDataStore does at startup: index each claim, then sort the whole list once
+		ArrayList<Claim> loadedClaims = new ArrayList<Claim>(claimCount);
+		for(int i = 0; i < claimCount; i++)
+		{
+			int lesserX = (i % this.gridSide) * cellSize + claimOffset;
+			int lesserZ = (i / this.gridSide) * cellSize + claimOffset;
+			
+			//a few trusted players on every claim, like a typical server
+			Claim claim = new Claim(
+				new Location(world, lesserX, 0, lesserZ),
+				new Location(world, lesserX + claimWidth - 1, 0, lesserZ + claimWidth - 1),
+				ownerName(i),
+				new String [] { "builder" + i, "friend" },
+				new String [] { "chestuser" + i },
+				new String [] { "visitor" + i },
+				new String [] {},
+				(long)i);
+			
+			this.gridClaims[i] = claim;
+			loadedClaims.add(claim);
+			this.addClaimToIndex(claim);
+			claim.inDataStore = true;
+		}
+		
+		Collections.sort(loadedClaims, Claim.claimOrder);
+		this.claims.addAll(loadedClaims);
+		this.nextClaimID = (long)claimCount;
+		
+		this.initialize();
+	}
+	
+	//a thousand owners with many claims each, since the owner index matters too
+	static String ownerName(int claimIndex)
+	{
+		return "owner" + (claimIndex % 1000);
+	}
+	
+	//lesser corner of a claim's cell in the grid
+	int cellX(int claimIndex)
+	{
+		return (claimIndex % this.gridSide) * cellSize;
+	}
+	
+	int cellZ(int claimIndex)
+	{
+		return (claimIndex / this.gridSide) * cellSize;
+	}
+	
+	@Override
+	void saveGroupBonusBlocks(String groupName, int amount)
+	{
+		//nothing is stored
+	}
+	
+	@Override
+	void writeClaimToStorage(Claim claim)
+	{
+		//nothing is stored
+	}
+	
+	@Override
+	void writeNextClaimIDToStorage(long nextClaimID)
+	{
+		//nothing is stored
+	}
+	
+	@Override
+	PlayerData getPlayerDataFromStorage(String playerName)
+	{
+		PlayerData playerData = new PlayerData();
+		playerData.playerName = playerName;
+		return playerData;
+	}
+	
+	@Override
+	void deleteClaimFromSecondaryStorage(Claim claim)
+	{
+		//nothing is stored
+	}
+	
+	@Override
+	void writePlayerDataToStorage(String playerName, PlayerData playerData)
+	{
+		//nothing is stored
+	}
+	
+	@Override
+	void closeStorage()
+	{
+		//nothing is stored
+	}
+}
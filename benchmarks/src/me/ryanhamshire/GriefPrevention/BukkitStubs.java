@@ -0,0 +1,99 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import org.bukkit.World;
+import org.bukkit.World.Environment;
+import org.bukkit.entity.Player;
+
+//stand-ins for the parts of a server the benchmarks need, without starting one
+//World and Player are huge interfaces, so these are proxies which answer the few calls claims make and fail loudly on anything else
+//Location is a plain class in Bukkit, so the benchmarks use real Locations pointing at a stub world
+class BukkitStubs
+{
+	//a normal overworld with the given name
+	static World world(final String name)
+	{
+		final UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+		return (World)Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?> [] { World.class }, new StubHandler("World " + name)
+		{
+			@Override
+			Object answer(String methodName)
+			{
+				if(methodName.equals("getName")) return name;
+				if(methodName.equals("getUID")) return uid;
+				if(methodName.equals("getEnvironment")) return Environment.NORMAL;
+				if(methodName.equals("getMaxHeight")) return 256;
+				if(methodName.equals("getSeaLevel")) return 64;
+				return unanswered;
+			}
+		});
+	}
+	
+	//an online player with no permissions at all
+	static Player player(final String name)
+	{
+		return (Player)Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?> [] { Player.class }, new StubHandler("Player " + name)
+		{
+			@Override
+			Object answer(String methodName)
+			{
+				if(methodName.equals("getName")) return name;
+				if(methodName.equals("isOnline")) return true;
+				if(methodName.equals("hasPermission")) return false;
+				if(methodName.equals("isOp")) return false;
+				return unanswered;
+			}
+		});
+	}
+	
+	//identity equality like the real server objects, plus whatever answer() knows
+	private static abstract class StubHandler implements InvocationHandler
+	{
+		static final Object unanswered = new Object();
+		
+		private final String description;
+		
+		StubHandler(String description)
+		{
+			this.description = description;
+		}
+		
+		abstract Object answer(String methodName);
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object [] args)
+		{
+			String methodName = method.getName();
+			if(methodName.equals("equals") && args != null && args.length == 1) return proxy == args[0];
+			if(methodName.equals("hashCode") && args == null) return System.identityHashCode(proxy);
+			if(methodName.equals("toString") && args == null) return this.description;
+			
+			Object answer = this.answer(methodName);
+			if(answer != unanswered) return answer;
+			
+			throw new UnsupportedOperationException(this.description + " stub doesn't support " + methodName + "()");
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//per-message cost of ChatScanner, next to the separate checks it replaced, over a few kinds of chat
+//stringsAreSimilar() isn't included in either, since it still runs separately against the player's previous message
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatScannerBenchmark
+{
+	//everyday chat, where nothing matches
+	private static final String [] casualChat = new String []
+	{
+		"hi all",
+		"anyone want to trade diamonds for iron?",
+		"lol",
+		"brb dinner",
+		"nice house!",
+		"where is the nether portal",
+		"gg",
+		"can someone tp me to spawn please",
+		"I found a village at -340, 1200",
+		"who wants to go mining with me later today",
+		"ok",
+		"thanks for the help earlier, the farm works great now",
+		"is pvp on in this world?",
+		"wb",
+		"my internet is so slow tonight",
+		"does anyone have spare wool? need 12 red and 4 white",
+	};
+	
+	//new players asking for help, where the tutorial and /trapped checks match
+	private static final String [] questionChat = new String []
+	{
+		"how do i claim land?",
+		"How do I protect my house from griefers",
+		"help im stuck in a hole",
+		"how can i lock my chest",
+		"I'm trapped under the ocean",
+		"how does claiming work here",
+		"hey how do you claim",
+		"stuck in the nether, portal broke",
+		"how do i get more claim blocks",
+		"somehow my claim disappeared?",
+		"how to lock doors",
+		"i am trapped pls help",
+	};
+	
+	//advertising and junk, where the IP address and gibberish checks match
+	private static final String [] spamChat = new String []
+	{
+		"JOIN MY SERVER 123.45.67.89 BEST SERVER EVER",
+		"play.example.com:25565 or 98.76.54.32:25565 free op",
+		"!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!",
+		"asdfghjklasdfghjklasdfghjkl",
+		"10 . 0 . 0 . 1 come join",
+		"=========================[ SALE ]=========================",
+		"my ip is 1.2.3.4",
+		"lkjhgfdsaqwertyuiopzxcvbnmlkjhgfdsa",
+		"vote for us 111.222.33.44 111.222.33.45 111.222.33.46",
+		"??????????",
+	};
+	
+	@Param({"casual", "questions", "spam"})
+	public String corpus;
+	
+	private String [] messages;
+	private ChatScanner scanner;
+	
+	//chat handling still lower cases each message for the spam detector, with or without the scanner, so that isn't counted here
+	private String [] lowerCaseMessages;
+	
+	//what the old checks needed, as the plugin set them up
+	private Pattern howToClaimPattern;
+	private Pattern ipAddressPattern;
+	private String trappedKeyword;
+	private String allowedIpAddresses;
+	
+	private int next = 0;
+	
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		if(this.corpus.equals("casual")) this.messages = casualChat;
+		else if(this.corpus.equals("questions")) this.messages = questionChat;
+		else this.messages = spamChat;
+		
+		this.lowerCaseMessages = new String[this.messages.length];
+		for(int i = 0; i < this.messages.length; i++)
+		{
+			this.lowerCaseMessages[i] = this.messages[i].toLowerCase();
+		}
+		
+		//defaults from messages.yml and config.yml
+		this.trappedKeyword = "trapped";
+		this.allowedIpAddresses = "1.2.3.4; 5.6.7.8";
+		this.scanner = new ChatScanner(ChatScanner.defaultHowToClaimRegex, new String [] { "trapped", "stuck", this.trappedKeyword }, this.allowedIpAddresses);
+		this.howToClaimPattern = Pattern.compile(ChatScanner.defaultHowToClaimRegex, Pattern.CASE_INSENSITIVE);
+		this.ipAddressPattern = Pattern.compile("\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}");
+	}
+	
+	//moves on to the next message in the corpus
+	private int nextMessage()
+	{
+		this.next = (this.next + 1) % this.messages.length;
+		return this.next;
+	}
+	
+	@Benchmark
+	public ChatScanner.ChatScanResult scan()
+	{
+		return this.scanner.scan(this.messages[this.nextMessage()]);
+	}
+	
+	//the checks chat went through before ChatScanner, from the old PlayerEventHandler and SpamDetector
+	@Benchmark
+	public void separateChecks(Blackhole blackhole)
+	{
+		int i = this.nextMessage();
+		String message = this.messages[i];
+		
+		blackhole.consume(this.howToClaimPattern.matcher(message).matches());
+		blackhole.consume(message.contains("trapped") || message.contains("stuck") || message.contains(this.trappedKeyword));
+		
+		//the spam checks ran on the lower case message
+		message = this.lowerCaseMessages[i];
+		
+		String blockedIpAddress = null;
+		Matcher matcher = this.ipAddressPattern.matcher(message);
+		while(matcher.find())
+		{
+			String address = matcher.group();
+			if(!this.allowedIpAddresses.contains(address))
+			{
+				blockedIpAddress = address;
+				break;
+			}
+		}
+		blackhole.consume(blockedIpAddress);
+		
+		int symbolsCount = 0;
+		int whitespaceCount = 0;
+		for(int j = 0; j < message.length(); j++)
+		{
+			char character = message.charAt(j);
+			if(!(Character.isLetterOrDigit(character))) symbolsCount++;
+			if(Character.isWhitespace(character)) whitespaceCount++;
+		}
+		blackhole.consume(message.length() > 5 && (symbolsCount > message.length() / 2 || (message.length() > 15 && whitespaceCount < message.length() / 10)));
+	}
+}
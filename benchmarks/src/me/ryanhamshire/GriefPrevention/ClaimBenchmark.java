@@ -0,0 +1,209 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//claim lookups, claim creation and permission checks against 1k, 10k and 100k claims
+//every input comes from a fixed seed, so runs on the same machine are comparable across changes to the index or the locking
+//each call takes the next of a few thousand precomputed inputs, so the lookups don't all hit the same chunk
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClaimBenchmark
+{
+	@Param({"1000", "10000", "100000"})
+	public int claimCount;
+	
+	//how many precomputed inputs each benchmark cycles through.  a power of two, see nextSample()
+	private static final int sampleCount = 4096;
+	private int sample = 0;
+	
+	private World world;
+	private BenchmarkDataStore dataStore;
+	
+	//block columns anywhere in the claimed area, about 40% of them inside a claim
+	private Location [] lookupLocations;
+	
+	//new claims which overlap an existing claim.  small ones sit inside a single claim, large ones (100x100) span several chunks and claims
+	//they all overlap something, so createClaim() never actually adds one and the data store stays the same size
+	private int [] smallClaimX;
+	private int [] smallClaimZ;
+	private int [] largeClaimX;
+	private int [] largeClaimZ;
+	
+	//claims to check permissions and boundaries on, with a player of each kind for each claim
+	private Claim [] sampleClaims;
+	private Player [] owners;
+	private Player [] builders;
+	private Player stranger;
+	private PlayerData [] ownerData;
+	private PlayerData [] builderData;
+	private PlayerData strangerData;
+	
+	//block columns in or near the sample claim with the same index
+	private Location [] containsLocations;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		//claims look up messages and config through the plugin instance
+		GriefPrevention plugin = new GriefPrevention();
+		GriefPrevention.instance = plugin;
+		
+		this.world = BukkitStubs.world("world");
+		this.dataStore = new BenchmarkDataStore(this.world, this.claimCount);
+		plugin.dataStore = this.dataStore;
+		
+		Random random = new Random(20130101L);
+		int claimedWidth = this.dataStore.gridSide * BenchmarkDataStore.cellSize;
+		
+		//only complete rows of the grid are guaranteed to have claims under a large new claim
+		int completeRows = this.claimCount / this.dataStore.gridSide;
+		int largeClaimWidth = 100;
+		int largeClaimRangeX = claimedWidth - largeClaimWidth;
+		int largeClaimRangeZ = completeRows * BenchmarkDataStore.cellSize - largeClaimWidth;
+		
+		this.lookupLocations = new Location[sampleCount];
+		this.smallClaimX = new int[sampleCount];
+		this.smallClaimZ = new int[sampleCount];
+		this.largeClaimX = new int[sampleCount];
+		this.largeClaimZ = new int[sampleCount];
+		this.sampleClaims = new Claim[sampleCount];
+		this.owners = new Player[sampleCount];
+		this.builders = new Player[sampleCount];
+		this.ownerData = new PlayerData[sampleCount];
+		this.builderData = new PlayerData[sampleCount];
+		this.containsLocations = new Location[sampleCount];
+		
+		for(int i = 0; i < sampleCount; i++)
+		{
+			this.lookupLocations[i] = new Location(this.world, random.nextInt(claimedWidth), 64, random.nextInt(claimedWidth));
+			
+			int claimIndex = random.nextInt(this.claimCount);
+			int cellX = this.dataStore.cellX(claimIndex);
+			int cellZ = this.dataStore.cellZ(claimIndex);
+			
+			this.smallClaimX[i] = cellX + BenchmarkDataStore.claimOffset + random.nextInt(BenchmarkDataStore.claimWidth - 10);
+			this.smallClaimZ[i] = cellZ + BenchmarkDataStore.claimOffset + random.nextInt(BenchmarkDataStore.claimWidth - 10);
+			
+			this.largeClaimX[i] = random.nextInt(largeClaimRangeX);
+			this.largeClaimZ[i] = random.nextInt(largeClaimRangeZ);
+			
+			Claim claim = this.dataStore.gridClaims[claimIndex];
+			this.sampleClaims[i] = claim;
+			this.owners[i] = BukkitStubs.player(claim.getOwnerName());
+			this.ownerData[i] = new PlayerData();
+			this.builders[i] = BukkitStubs.player("builder" + claimIndex);
+			this.builderData[i] = new PlayerData();
+			
+			this.containsLocations[i] = new Location(this.world, cellX + random.nextInt(BenchmarkDataStore.cellSize), 64, cellZ + random.nextInt(BenchmarkDataStore.cellSize));
+		}
+		
+		this.stranger = BukkitStubs.player("stranger");
+		this.strangerData = new PlayerData();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		this.dataStore.close();
+		GriefPrevention.instance = null;
+	}
+	
+	//moves on to the next precomputed input
+	private int nextSample()
+	{
+		this.sample = (this.sample + 1) & (sampleCount - 1);
+		return this.sample;
+	}
+	
+	@Benchmark
+	public Claim getClaimAt()
+	{
+		return this.dataStore.getClaimAt(this.lookupLocations[this.nextSample()], true, null);
+	}
+	
+	@Benchmark
+	public CreateClaimResult createClaimOverlappingSmall()
+	{
+		int i = this.nextSample();
+		int x = this.smallClaimX[i];
+		int z = this.smallClaimZ[i];
+		return this.dataStore.createClaim(this.world, x, x + 9, 0, 0, z, z + 9, "newcomer", null, null);
+	}
+	
+	@Benchmark
+	public CreateClaimResult createClaimOverlappingLarge()
+	{
+		int i = this.nextSample();
+		int x = this.largeClaimX[i];
+		int z = this.largeClaimZ[i];
+		return this.dataStore.createClaim(this.world, x, x + 99, 0, 0, z, z + 99, "newcomer", null, null);
+	}
+	
+	@Benchmark
+	public String allowBuildOwner()
+	{
+		int i = this.nextSample();
+		return this.sampleClaims[i].allowBuild(this.owners[i], this.ownerData[i]);
+	}
+	
+	@Benchmark
+	public String allowBuildTrusted()
+	{
+		int i = this.nextSample();
+		return this.sampleClaims[i].allowBuild(this.builders[i], this.builderData[i]);
+	}
+	
+	//denied, so this includes looking up and formatting the denial message
+	@Benchmark
+	public String allowBuildStranger()
+	{
+		return this.sampleClaims[this.nextSample()].allowBuild(this.stranger, this.strangerData);
+	}
+	
+	@Benchmark
+	public boolean contains()
+	{
+		int i = this.nextSample();
+		return this.sampleClaims[i].contains(this.containsLocations[i], true, false);
+	}
+}
@@ -0,0 +1,712 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.bukkit.Location;
+
+//binary claim storage for the flat file data store, an alternative to one text file per claim
+//all claims live in one compacted snapshot file, and changes since the snapshot are appended to a journal
+//on startup the snapshot is read into memory in one go and parsed in one pass, then the journal is replayed on top of it
+//once the journal grows large enough, a new snapshot is written and the journal starts over
+class BinaryClaimStore
+{
+	//file names start with an underscore so the text format loader skips them
+	private final static String snapshotFileName = "_claims.snapshot";
+	private final static String journalFileName = "_claims.journal";
+
+	private final static int snapshotMagic = 0x47505353;  //"GPSS"
+	private final static int journalMagic = 0x4750534A;   //"GPSJ"
+	private final static int formatVersion = 1;
+
+	//journal record types
+	private final static byte journalWriteClaim = 1;
+	private final static byte journalDeleteClaim = 2;
+
+	//the journal is compacted into a new snapshot once it's at least this big, and at least half the size of the snapshot
+	private final static long minimumCompactionSize = 1024 * 1024;
+
+	private File snapshotFile;
+	private File journalFile;
+
+	//while a new snapshot is swapped in, it's written to the temporary file and the previous one is kept as the backup
+	//if the server dies part way through, load() picks up whichever of them is complete, see recoverSnapshot()
+	private File temporarySnapshotFile;
+	private File backupSnapshotFile;
+
+	//the latest version of every stored claim, by claim ID.  this is what the next snapshot is built from
+	private LinkedHashMap<Long, ClaimRecord> records = new LinkedHashMap<Long, ClaimRecord>();
+
+	//open journal, null until the first change after loading
+	private DataOutputStream journalStream = null;
+	private long journalSize = 0;
+	private long snapshotSize = 0;
+
+	BinaryClaimStore(String folderPath)
+	{
+		this.snapshotFile = new File(folderPath + File.separator + snapshotFileName);
+		this.journalFile = new File(folderPath + File.separator + journalFileName);
+		this.temporarySnapshotFile = new File(this.snapshotFile.getPath() + ".tmp");
+		this.backupSnapshotFile = new File(this.snapshotFile.getPath() + ".old");
+	}
+
+	//whether there are any binary claim data on disk
+	boolean exists()
+	{
+		return this.snapshotFile.exists() || this.journalFile.exists() || this.backupSnapshotFile.exists() || this.temporarySnapshotFile.exists();
+	}
+
+	//reads the snapshot and replays the journal.  returns the stored claims in the order they were first written
+	synchronized ArrayList<ClaimRecord> load() throws IOException
+	{
+		this.records.clear();
+
+		if(!this.snapshotFile.exists())
+		{
+			this.recoverSnapshot();
+		}
+
+		if(this.snapshotFile.exists())
+		{
+			this.readSnapshot();
+		}
+
+		if(this.journalFile.exists())
+		{
+			this.replayJournal();
+		}
+
+		return new ArrayList<ClaimRecord>(this.records.values());
+	}
+
+	//replaces everything stored with the provided claims, and starts an empty journal
+	//used when converting from the text format, and after loading to fold the journal into the snapshot
+	synchronized void replaceAll(List<Claim> claims) throws IOException
+	{
+		this.records.clear();
+		for(int i = 0; i < claims.size(); i++)
+		{
+			ClaimRecord record = toRecord(claims.get(i));
+			this.records.put(record.id, record);
+		}
+
+		this.compact();
+	}
+
+	//records a new version of a top level claim and its subdivisions
+	synchronized void writeClaim(Claim claim) throws IOException
+	{
+		ClaimRecord record = toRecord(claim);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream recordStream = new DataOutputStream(bytes);
+		recordStream.writeByte(journalWriteClaim);
+		writeJournalClaim(recordStream, record, true);
+		recordStream.flush();
+
+		this.appendToJournal(bytes.toByteArray());
+
+		this.records.remove(record.id);
+		this.records.put(record.id, record);
+
+		this.compactIfNeeded();
+	}
+
+	//records the deletion of a top level claim
+	synchronized void deleteClaim(long claimID) throws IOException
+	{
+		if(!this.records.containsKey(claimID)) return;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream recordStream = new DataOutputStream(bytes);
+		recordStream.writeByte(journalDeleteClaim);
+		recordStream.writeLong(claimID);
+		recordStream.flush();
+
+		this.appendToJournal(bytes.toByteArray());
+
+		this.records.remove(claimID);
+
+		this.compactIfNeeded();
+	}
+
+	//writes a final snapshot and closes the journal
+	synchronized void close() throws IOException
+	{
+		if(this.journalStream != null || this.journalSize > 0)
+		{
+			this.compact();
+		}
+
+		this.closeJournal();
+	}
+
+	//renames the binary files out of the way, after converting back to the text format
+	synchronized void retire()
+	{
+		this.closeJournal();
+
+		retireFile(this.snapshotFile);
+		retireFile(this.journalFile);
+
+		//leftovers from an interrupted compaction would otherwise bring the binary data back next time
+		this.temporarySnapshotFile.delete();
+		this.backupSnapshotFile.delete();
+	}
+
+	//puts a snapshot back in place after a compaction was interrupted while swapping files
+	//the backup is the snapshot the journal was written against, so it's preferred.  the temporary file is only used when
+	//there was no earlier snapshot, and it's only ever complete at that point because it's written out before any renaming
+	private void recoverSnapshot() throws IOException
+	{
+		File recoveredFile;
+		if(this.backupSnapshotFile.exists())
+		{
+			recoveredFile = this.backupSnapshotFile;
+		}
+		else if(this.temporarySnapshotFile.exists())
+		{
+			recoveredFile = this.temporarySnapshotFile;
+		}
+		else
+		{
+			return;
+		}
+
+		if(!recoveredFile.renameTo(this.snapshotFile))
+		{
+			throw new IOException("Unable to restore claim snapshot from \"" + recoveredFile.getPath() + "\".");
+		}
+
+		GriefPrevention.AddLogEntry("Restored claim snapshot from \"" + recoveredFile.getPath() + "\" after an interrupted save.");
+	}
+
+	private static void retireFile(File file)
+	{
+		if(!file.exists()) return;
+
+		File backupFile = new File(file.getPath() + ".bak");
+		backupFile.delete();
+		if(!file.renameTo(backupFile))
+		{
+			GriefPrevention.AddLogEntry("Unable to rename \"" + file.getPath() + "\" to \"" + backupFile.getPath() + "\".  Please delete it, or it will be loaded again next time.");
+		}
+	}
+
+	private void compactIfNeeded() throws IOException
+	{
+		if(this.journalSize >= minimumCompactionSize && this.journalSize >= this.snapshotSize / 2)
+		{
+			this.compact();
+		}
+	}
+
+	//writes all current claims to a new snapshot, then empties the journal
+	synchronized void compact() throws IOException
+	{
+		this.closeJournal();
+
+		//build the tables of world names and player names
+		HashMap<String, Integer> worldIndexes = new HashMap<String, Integer>();
+		ArrayList<String> worldNames = new ArrayList<String>();
+		HashMap<String, Integer> nameIndexes = new HashMap<String, Integer>();
+		ArrayList<String> names = new ArrayList<String>();
+		for(ClaimRecord record : this.records.values())
+		{
+			addToTables(record, worldIndexes, worldNames, nameIndexes, names);
+			for(int i = 0; i < record.children.size(); i++)
+			{
+				addToTables(record.children.get(i), worldIndexes, worldNames, nameIndexes, names);
+			}
+		}
+
+		//write to a temporary file first, so a failure part way through doesn't damage the existing snapshot
+		File tempFile = this.temporarySnapshotFile;
+		FileOutputStream fileStream = new FileOutputStream(tempFile);
+		DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+		try
+		{
+			outStream.writeInt(snapshotMagic);
+			outStream.writeInt(formatVersion);
+
+			outStream.writeInt(worldNames.size());
+			for(int i = 0; i < worldNames.size(); i++)
+			{
+				writeString(outStream, worldNames.get(i));
+			}
+
+			outStream.writeInt(names.size());
+			for(int i = 0; i < names.size(); i++)
+			{
+				writeString(outStream, names.get(i));
+			}
+
+			outStream.writeInt(this.records.size());
+			for(ClaimRecord record : this.records.values())
+			{
+				outStream.writeLong(record.id);
+				writeSnapshotClaim(outStream, record, worldIndexes, nameIndexes);
+
+				outStream.writeInt(record.children.size());
+				for(int i = 0; i < record.children.size(); i++)
+				{
+					writeSnapshotClaim(outStream, record.children.get(i), worldIndexes, nameIndexes);
+				}
+			}
+
+			//make sure the new snapshot is really on disk before the old one is moved out of the way
+			outStream.flush();
+			fileStream.getFD().sync();
+		}
+		finally
+		{
+			outStream.close();
+		}
+
+		//swap in the new snapshot, keeping the old one as a backup until the new one is in place
+		//at every point, either the snapshot or the backup (plus the journal) holds every claim
+		this.backupSnapshotFile.delete();
+		if(this.snapshotFile.exists() && !this.snapshotFile.renameTo(this.backupSnapshotFile))
+		{
+			throw new IOException("Unable to move claim snapshot \"" + this.snapshotFile.getPath() + "\" out of the way.");
+		}
+
+		if(!tempFile.renameTo(this.snapshotFile))
+		{
+			//put the old snapshot back, the journal still has everything since then
+			this.backupSnapshotFile.renameTo(this.snapshotFile);
+			throw new IOException("Unable to replace claim snapshot \"" + this.snapshotFile.getPath() + "\".");
+		}
+
+		this.snapshotSize = this.snapshotFile.length();
+
+		//only once the new snapshot is in place is it safe to throw away the journal, and then the backup
+		this.journalFile.delete();
+		this.journalSize = 0;
+		this.backupSnapshotFile.delete();
+	}
+
+	private static void addToTables(ClaimRecord record, HashMap<String, Integer> worldIndexes, ArrayList<String> worldNames, HashMap<String, Integer> nameIndexes, ArrayList<String> names)
+	{
+		addToTable(record.worldName, worldIndexes, worldNames);
+		addToTable(record.ownerName, nameIndexes, names);
+		addToTable(record.builders, nameIndexes, names);
+		addToTable(record.containers, nameIndexes, names);
+		addToTable(record.accessors, nameIndexes, names);
+		addToTable(record.managers, nameIndexes, names);
+	}
+
+	private static void addToTable(String [] values, HashMap<String, Integer> indexes, ArrayList<String> table)
+	{
+		for(int i = 0; i < values.length; i++)
+		{
+			addToTable(values[i], indexes, table);
+		}
+	}
+
+	private static void addToTable(String value, HashMap<String, Integer> indexes, ArrayList<String> table)
+	{
+		if(indexes.containsKey(value)) return;
+
+		indexes.put(value, table.size());
+		table.add(value);
+	}
+
+	//snapshot claim layout: world index, six coordinates, owner index, modified date, then four name index lists
+	private static void writeSnapshotClaim(DataOutputStream outStream, ClaimRecord record, HashMap<String, Integer> worldIndexes, HashMap<String, Integer> nameIndexes) throws IOException
+	{
+		outStream.writeInt(worldIndexes.get(record.worldName));
+		outStream.writeInt(record.lesserX);
+		outStream.writeInt(record.lesserY);
+		outStream.writeInt(record.lesserZ);
+		outStream.writeInt(record.greaterX);
+		outStream.writeInt(record.greaterY);
+		outStream.writeInt(record.greaterZ);
+		outStream.writeInt(nameIndexes.get(record.ownerName));
+		outStream.writeLong(record.modifiedDate);
+		writeIndexList(outStream, record.builders, nameIndexes);
+		writeIndexList(outStream, record.containers, nameIndexes);
+		writeIndexList(outStream, record.accessors, nameIndexes);
+		writeIndexList(outStream, record.managers, nameIndexes);
+	}
+
+	private static void writeIndexList(DataOutputStream outStream, String [] values, HashMap<String, Integer> indexes) throws IOException
+	{
+		outStream.writeInt(values.length);
+		for(int i = 0; i < values.length; i++)
+		{
+			outStream.writeInt(indexes.get(values[i]));
+		}
+	}
+
+	//reads the whole snapshot onto the heap rather than memory-mapping it
+	//a mapping stays open until it's garbage collected, and on Windows an open mapping keeps compact() from replacing the file
+	private void readSnapshot() throws IOException
+	{
+		byte [] snapshot = new byte[(int)this.snapshotFile.length()];
+		DataInputStream fileStream = new DataInputStream(new FileInputStream(this.snapshotFile));
+		try
+		{
+			fileStream.readFully(snapshot);
+		}
+		finally
+		{
+			fileStream.close();
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(snapshot);
+
+		if(buffer.getInt() != snapshotMagic) throw new IOException("\"" + this.snapshotFile.getPath() + "\" isn't a claim snapshot.");
+		int version = buffer.getInt();
+		if(version != formatVersion) throw new IOException("Unsupported claim snapshot version " + version + ".");
+
+		String [] worldNames = new String[buffer.getInt()];
+		for(int i = 0; i < worldNames.length; i++)
+		{
+			worldNames[i] = readString(buffer);
+		}
+
+		String [] names = new String[buffer.getInt()];
+		for(int i = 0; i < names.length; i++)
+		{
+			names[i] = readString(buffer);
+		}
+
+		int claimCount = buffer.getInt();
+		for(int i = 0; i < claimCount; i++)
+		{
+			long id = buffer.getLong();
+			ClaimRecord record = readSnapshotClaim(buffer, worldNames, names);
+			record.id = id;
+
+			int childCount = buffer.getInt();
+			for(int j = 0; j < childCount; j++)
+			{
+				record.children.add(readSnapshotClaim(buffer, worldNames, names));
+			}
+
+			this.records.put(id, record);
+		}
+
+		this.snapshotSize = snapshot.length;
+	}
+
+	private static ClaimRecord readSnapshotClaim(ByteBuffer buffer, String [] worldNames, String [] names)
+	{
+		ClaimRecord record = new ClaimRecord();
+		record.worldName = worldNames[buffer.getInt()];
+		record.lesserX = buffer.getInt();
+		record.lesserY = buffer.getInt();
+		record.lesserZ = buffer.getInt();
+		record.greaterX = buffer.getInt();
+		record.greaterY = buffer.getInt();
+		record.greaterZ = buffer.getInt();
+		record.ownerName = names[buffer.getInt()];
+		record.modifiedDate = buffer.getLong();
+		record.builders = readIndexList(buffer, names);
+		record.containers = readIndexList(buffer, names);
+		record.accessors = readIndexList(buffer, names);
+		record.managers = readIndexList(buffer, names);
+		return record;
+	}
+
+	private static String [] readIndexList(ByteBuffer buffer, String [] names)
+	{
+		String [] values = new String[buffer.getInt()];
+		for(int i = 0; i < values.length; i++)
+		{
+			values[i] = names[buffer.getInt()];
+		}
+
+		return values;
+	}
+
+	//applies every complete journal record on top of what the snapshot held
+	//a record cut off part way through (for example by a crash) is dropped, along with anything after it
+	private void replayJournal() throws IOException
+	{
+		byte [] journal = new byte[(int)this.journalFile.length()];
+		DataInputStream fileStream = new DataInputStream(new FileInputStream(this.journalFile));
+		try
+		{
+			fileStream.readFully(journal);
+		}
+		finally
+		{
+			fileStream.close();
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(journal);
+		if(journal.length < 8 || buffer.getInt() != journalMagic || buffer.getInt() != formatVersion)
+		{
+			throw new IOException("\"" + this.journalFile.getPath() + "\" isn't a claim journal.");
+		}
+
+		int validLength = buffer.position();
+		while(buffer.remaining() >= 4)
+		{
+			int recordLength = buffer.getInt();
+			if(recordLength <= 0 || recordLength > buffer.remaining()) break;
+
+			ByteBuffer recordBuffer = ByteBuffer.wrap(journal, buffer.position(), recordLength);
+			try
+			{
+				byte type = recordBuffer.get();
+				if(type == journalWriteClaim)
+				{
+					ClaimRecord record = readJournalClaim(recordBuffer, true);
+					this.records.remove(record.id);
+					this.records.put(record.id, record);
+				}
+				else if(type == journalDeleteClaim)
+				{
+					this.records.remove(recordBuffer.getLong());
+				}
+				else
+				{
+					break;
+				}
+			}
+			catch(RuntimeException e)
+			{
+				break;
+			}
+
+			buffer.position(buffer.position() + recordLength);
+			validLength = buffer.position();
+		}
+
+		if(validLength < journal.length)
+		{
+			GriefPrevention.AddLogEntry("Ignoring " + (journal.length - validLength) + " bytes of incomplete data at the end of the claim journal.");
+		}
+
+		this.journalSize = validLength;
+	}
+
+	private void appendToJournal(byte [] record) throws IOException
+	{
+		if(this.journalStream == null)
+		{
+			//drop any incomplete record left at the end by a crash, so new records follow the last complete one
+			if(this.journalFile.exists() && this.journalSize > 0)
+			{
+				RandomAccessFile journal = new RandomAccessFile(this.journalFile, "rw");
+				try
+				{
+					journal.setLength(this.journalSize);
+				}
+				finally
+				{
+					journal.close();
+				}
+
+				this.journalStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, true)));
+			}
+			else
+			{
+				this.journalStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.journalFile, false)));
+				this.journalStream.writeInt(journalMagic);
+				this.journalStream.writeInt(formatVersion);
+				this.journalSize = 8;
+			}
+		}
+
+		this.journalStream.writeInt(record.length);
+		this.journalStream.write(record);
+		this.journalStream.flush();
+		this.journalSize += 4 + record.length;
+	}
+
+	private void closeJournal()
+	{
+		if(this.journalStream == null) return;
+
+		try
+		{
+			this.journalStream.close();
+		}
+		catch(IOException e) {}
+
+		this.journalStream = null;
+	}
+
+	//journal claim layout: names are written inline, since the journal has no name tables
+	private static void writeJournalClaim(DataOutputStream outStream, ClaimRecord record, boolean topLevel) throws IOException
+	{
+		if(topLevel) outStream.writeLong(record.id);
+		writeString(outStream, record.worldName);
+		outStream.writeInt(record.lesserX);
+		outStream.writeInt(record.lesserY);
+		outStream.writeInt(record.lesserZ);
+		outStream.writeInt(record.greaterX);
+		outStream.writeInt(record.greaterY);
+		outStream.writeInt(record.greaterZ);
+		writeString(outStream, record.ownerName);
+		outStream.writeLong(record.modifiedDate);
+		writeStringList(outStream, record.builders);
+		writeStringList(outStream, record.containers);
+		writeStringList(outStream, record.accessors);
+		writeStringList(outStream, record.managers);
+
+		if(topLevel)
+		{
+			outStream.writeInt(record.children.size());
+			for(int i = 0; i < record.children.size(); i++)
+			{
+				writeJournalClaim(outStream, record.children.get(i), false);
+			}
+		}
+	}
+
+	private static ClaimRecord readJournalClaim(ByteBuffer buffer, boolean topLevel)
+	{
+		ClaimRecord record = new ClaimRecord();
+		if(topLevel) record.id = buffer.getLong();
+		record.worldName = readString(buffer);
+		record.lesserX = buffer.getInt();
+		record.lesserY = buffer.getInt();
+		record.lesserZ = buffer.getInt();
+		record.greaterX = buffer.getInt();
+		record.greaterY = buffer.getInt();
+		record.greaterZ = buffer.getInt();
+		record.ownerName = readString(buffer);
+		record.modifiedDate = buffer.getLong();
+		record.builders = readStringList(buffer);
+		record.containers = readStringList(buffer);
+		record.accessors = readStringList(buffer);
+		record.managers = readStringList(buffer);
+
+		if(topLevel)
+		{
+			int childCount = buffer.getInt();
+			for(int i = 0; i < childCount; i++)
+			{
+				record.children.add(readJournalClaim(buffer, false));
+			}
+		}
+
+		return record;
+	}
+
+	private static void writeStringList(DataOutputStream outStream, String [] values) throws IOException
+	{
+		outStream.writeInt(values.length);
+		for(int i = 0; i < values.length; i++)
+		{
+			writeString(outStream, values[i]);
+		}
+	}
+
+	private static String [] readStringList(ByteBuffer buffer)
+	{
+		String [] values = new String[buffer.getInt()];
+		for(int i = 0; i < values.length; i++)
+		{
+			values[i] = readString(buffer);
+		}
+
+		return values;
+	}
+
+	//strings are a length followed by UTF-8 bytes
+	private static void writeString(DataOutputStream outStream, String value) throws IOException
+	{
+		byte [] bytes = value.getBytes("UTF-8");
+		outStream.writeInt(bytes.length);
+		outStream.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte [] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		try
+		{
+			return new String(bytes, "UTF-8");
+		}
+		catch(UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	//captures what's stored for a top level claim and its subdivisions
+	private static ClaimRecord toRecord(Claim claim)
+	{
+		ClaimRecord record = toRecordWithoutChildren(claim);
+		record.id = claim.id;
+
+		for(int i = 0; i < claim.children.size(); i++)
+		{
+			record.children.add(toRecordWithoutChildren(claim.children.get(i)));
+		}
+
+		return record;
+	}
+
+	private static ClaimRecord toRecordWithoutChildren(Claim claim)
+	{
+		ClaimRecord record = new ClaimRecord();
+
+		Location lesserCorner = claim.getLesserBoundaryCorner();
+		Location greaterCorner = claim.getGreaterBoundaryCorner();
+		record.worldName = lesserCorner.getWorld().getName();
+		record.lesserX = lesserCorner.getBlockX();
+		record.lesserY = lesserCorner.getBlockY();
+		record.lesserZ = lesserCorner.getBlockZ();
+		record.greaterX = greaterCorner.getBlockX();
+		record.greaterY = greaterCorner.getBlockY();
+		record.greaterZ = greaterCorner.getBlockZ();
+		record.ownerName = claim.ownerName;
+		record.modifiedDate = claim.modifiedDate.getTime();
+
+		ArrayList<String> builders = new ArrayList<String>();
+		ArrayList<String> containers = new ArrayList<String>();
+		ArrayList<String> accessors = new ArrayList<String>();
+		ArrayList<String> managers = new ArrayList<String>();
+		claim.getPermissions(builders, containers, accessors, managers);
+
+		record.builders = builders.toArray(new String [builders.size()]);
+		record.containers = containers.toArray(new String [containers.size()]);
+		record.accessors = accessors.toArray(new String [accessors.size()]);
+		record.managers = managers.toArray(new String [managers.size()]);
+
+		return record;
+	}
+
+	//everything stored for one claim or subdivision, with plain coordinates instead of locations
+	static class ClaimRecord
+	{
+		long id;
+		String worldName;
+		int lesserX, lesserY, lesserZ;
+		int greaterX, greaterY, greaterZ;
+		String ownerName;
+		long modifiedDate;
+		String [] builders;
+		String [] containers;
+		String [] accessors;
+		String [] managers;
+		ArrayList<ClaimRecord> children = new ArrayList<ClaimRecord>();
+	}
+}
@@ -105,7 +105,7 @@ public class BlockEventHandler implements Listener
 			PlayerData playerData = this.dataStore.getPlayerData(event.getPlayer().getName());
 
 			//only care if the chest is in a claim, and the player does not have access to the chest
-			Claim claim = this.dataStore.getClaimAt(block.getLocation(), false, null);
+			Claim claim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), null);
 			if(claim == null || claim.allowContainers(player, playerData) == null) return;
 			
 			//if the player is under siege, he can't give away items
@@ -188,6 +188,14 @@ public class BlockEventHandler implements Listener
 		// }
 	}
 	
+	//after a block is broken, visualizations in that chunk have to look at the terrain again
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockBroken(BlockBreakEvent breakEvent)
+	{
+		Block block = breakEvent.getBlock();
+		Visualization.surfaceHeightCache.invalidateChunk(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+	}
+	
 	//when a player places a sign...
 	@EventHandler(ignoreCancelled = true)
 	public void onSignChanged(SignChangeEvent event)
@@ -251,7 +259,7 @@ public class BlockEventHandler implements Listener
 		}
 		
 		//if the block is being placed within an existing claim
-		Claim claim = this.dataStore.getClaimAt(block.getLocation(), true, playerData.lastClaim);
+		Claim claim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), playerData.lastClaim);
 		if(claim != null)
 		{
 			//if the player has permission for the claim and he's placing UNDER the claim
@@ -308,7 +316,7 @@ public class BlockEventHandler implements Listener
 					GriefPrevention.sendMessage(player, TextMode.Success, Messages.AutomaticClaimNotification);
 					
 					//show the player the protected area
-					Claim newClaim = this.dataStore.getClaimAt(block.getLocation(), false, null);
+					Claim newClaim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), null);
 					Visualization visualization = Visualization.FromClaim(newClaim, block.getY(), VisualizationType.Claim, player.getLocation());
 					Visualization.Apply(player, visualization);
 				}
@@ -324,7 +332,7 @@ public class BlockEventHandler implements Listener
 			}
 			
 			//check to see if this chest is in a claim, and warn when it isn't
-			if(GriefPrevention.instance.config_claims_preventTheft && this.dataStore.getClaimAt(block.getLocation(), false, playerData.lastClaim) == null)
+			if(GriefPrevention.instance.config_claims_preventTheft && this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), playerData.lastClaim) == null)
 			{
 				GriefPrevention.sendMessage(player, TextMode.Warn, Messages.UnprotectedChestWarning);				
 			}
@@ -361,6 +369,14 @@ public class BlockEventHandler implements Listener
 		}
 	}
 	
+	//after a block is placed, visualizations in that chunk have to look at the terrain again
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onBlockPlaced(BlockPlaceEvent placeEvent)
+	{
+		Block block = placeEvent.getBlock();
+		Visualization.surfaceHeightCache.invalidateChunk(block.getWorld().getName(), block.getX() >> 4, block.getZ() >> 4);
+	}
+	
 	//blocks "pushing" other players' blocks around (pistons)
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.LOWEST)
 	public void onBlockPistonExtend (BlockPistonExtendEvent event)
@@ -374,8 +390,8 @@ public class BlockEventHandler implements Listener
 			Block pistonBlock = event.getBlock();
 			Block invadedBlock = pistonBlock.getRelative(event.getDirection());
 			
-			if(	this.dataStore.getClaimAt(pistonBlock.getLocation(), false, null) == null && 
-				this.dataStore.getClaimAt(invadedBlock.getLocation(), false, null) != null)
+			Claim [] claims = this.dataStore.getClaimsAt(pistonBlock.getWorld(), new int [] { pistonBlock.getX(), invadedBlock.getX() }, new int [] { pistonBlock.getZ(), invadedBlock.getZ() });
+			if(claims[0] == null && claims[1] != null)
 			{
 				event.setCancelled(true);				
 			}
@@ -383,27 +399,6 @@ public class BlockEventHandler implements Listener
 			return;
 		}
 		
-		//who owns the piston, if anyone?
-		String pistonClaimOwnerName = "_";
-		Claim claim = this.dataStore.getClaimAt(event.getBlock().getLocation(), false, null);
-		if(claim != null) pistonClaimOwnerName = claim.getOwnerName();
-		
-		//which blocks are being pushed?
-		for(int i = 0; i < blocks.size(); i++)
-		{
-			//if ANY of the pushed blocks are owned by someone other than the piston owner, cancel the event
-			Block block = blocks.get(i);
-			claim = this.dataStore.getClaimAt(block.getLocation(), false, null);
-			if(claim != null && !claim.getOwnerName().equals(pistonClaimOwnerName))
-			{
-				event.setCancelled(true);
-				event.getBlock().getWorld().createExplosion(event.getBlock().getLocation(), 0);
-				event.getBlock().getWorld().dropItem(event.getBlock().getLocation(), new ItemStack(event.getBlock().getType()));
-				event.getBlock().setType(Material.AIR);
-				return;
-			}
-		}
-		
 		//which direction?  note we're ignoring vertical push
 		int xchange = 0;
 		int zchange = 0;
@@ -428,20 +423,55 @@ public class BlockEventHandler implements Listener
 			zchange = -1; 
 		}
 		
+		//look up all the claims involved at once: the piston, then each pushed block where it is now, then where it's going
+		int blockCount = blocks.size();
+		int [] x = new int[1 + blockCount * 2];
+		int [] z = new int[1 + blockCount * 2];
+		x[0] = piston.getX();
+		z[0] = piston.getZ();
+		for(int i = 0; i < blockCount; i++)
+		{
+			Block block = blocks.get(i);
+			x[1 + i] = block.getX();
+			z[1 + i] = block.getZ();
+			x[1 + blockCount + i] = block.getX() + xchange;
+			z[1 + blockCount + i] = block.getZ() + zchange;
+		}
+		
+		Claim [] claims = this.dataStore.getClaimsAt(piston.getWorld(), x, z);
+		
+		//who owns the piston, if anyone?
+		String pistonClaimOwnerName = "_";
+		if(claims[0] != null) pistonClaimOwnerName = claims[0].getOwnerName();
+		
+		//which blocks are being pushed?
+		for(int i = 0; i < blockCount; i++)
+		{
+			//if ANY of the pushed blocks are owned by someone other than the piston owner, cancel the event
+			Claim claim = claims[1 + i];
+			if(claim != null && !claim.getOwnerName().equals(pistonClaimOwnerName))
+			{
+				event.setCancelled(true);
+				event.getBlock().getWorld().createExplosion(event.getBlock().getLocation(), 0);
+				event.getBlock().getWorld().dropItem(event.getBlock().getLocation(), new ItemStack(event.getBlock().getType()));
+				event.getBlock().setType(Material.AIR);
+				return;
+			}
+		}
+		
 		//if horizontal movement
 		if(xchange != 0 || zchange != 0)
 		{
-			for(int i = 0; i < blocks.size(); i++)
+			for(int i = 0; i < blockCount; i++)
 			{
-				Block block = blocks.get(i);
-				Claim originalClaim = this.dataStore.getClaimAt(block.getLocation(), false, null);
+				Claim originalClaim = claims[1 + i];
 				String originalOwnerName = "";
 				if(originalClaim != null)
 				{
 					originalOwnerName = originalClaim.getOwnerName();
 				}
 				
-				Claim newClaim = this.dataStore.getClaimAt(block.getLocation().add(xchange, 0, zchange), false, null);
+				Claim newClaim = claims[1 + blockCount + i];
 				String newOwnerName = "";
 				if(newClaim != null)
 				{
@@ -545,8 +575,9 @@ public class BlockEventHandler implements Listener
 		
 		Block toBlock = fromBlock.getRelative(xChange, 0, zChange);
 		
-		Claim fromClaim = this.dataStore.getClaimAt(fromBlock.getLocation(), false, null);
-		Claim toClaim = this.dataStore.getClaimAt(toBlock.getLocation(), false, fromClaim);
+		Claim [] claims = this.dataStore.getClaimsAt(fromBlock.getWorld(), new int [] { fromBlock.getX(), toBlock.getX() }, new int [] { fromBlock.getZ(), toBlock.getZ() });
+		Claim fromClaim = claims[0];
+		Claim toClaim = claims[1];
 		
 		//into wilderness is NOT OK when surface buckets are limited
 		Material materialDispensed = dispenseEvent.getItem().getType();
@@ -590,7 +621,7 @@ public class BlockEventHandler implements Listener
 		for(int i = 0; i < growEvent.getBlocks().size(); i++)
 		{
 			BlockState block = growEvent.getBlocks().get(i);
-			Claim blockClaim = this.dataStore.getClaimAt(block.getLocation(), false, rootClaim);
+			Claim blockClaim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), rootClaim);
 			
 			//if it's growing into a claim
 			if(blockClaim != null)
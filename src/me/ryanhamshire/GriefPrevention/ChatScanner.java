@@ -0,0 +1,325 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.regex.Pattern;
+
+//examines a chat message in a single pass for everything the chat features care about:
+//"how do i claim" questions, /trapped keywords, IP addresses, and symbol-heavy gibberish
+//built once from messages.yml and the config, then shared by all chat threads (it holds no mutable state)
+class ChatScanner
+{
+	//the out-of-the-box HowToClaimRegex message, which the scanner recognizes without running the regex
+	static final String defaultHowToClaimRegex = "(^|.*\\W)how\\W.*\\W(claim|protect|lock)(\\W.*|$)";
+	
+	//words which may follow "how" in a question about claiming land
+	private static final String [] claimWords = new String [] { "claim", "protect", "lock" };
+	
+	//only set when an admin has customized HowToClaimRegex, in which case it's checked the slow way
+	private Pattern customHowToClaimPattern = null;
+	
+	//IP addresses which will not be censored, as written in the config
+	private String allowedIpAddresses;
+	
+	//keyword automaton (Aho-Corasick) over the lower case trapped keywords
+	//node 0 is the root.  for each node, parallel arrays of outgoing characters and target nodes
+	private char [][] transitionCharacters;
+	private int [][] transitionTargets;
+	private int [] failureLinks;
+	private boolean [] matchesKeyword;
+	
+	ChatScanner(String howToClaimRegex, String [] trappedKeywords, String allowedIpAddresses)
+	{
+		if(!defaultHowToClaimRegex.equals(howToClaimRegex))
+		{
+			this.customHowToClaimPattern = Pattern.compile(howToClaimRegex, Pattern.CASE_INSENSITIVE);
+		}
+		
+		this.allowedIpAddresses = allowedIpAddresses;
+		
+		this.buildKeywordAutomaton(trappedKeywords);
+	}
+	
+	//scans a message, never returns null
+	ChatScanResult scan(String message)
+	{
+		ChatScanResult result = new ChatScanResult();
+		
+		int length = message.length();
+		
+		//keyword automaton state
+		int keywordNode = 0;
+		
+		//"how ... claim" word tracking, see defaultHowToClaimRegex
+		//howSeparatorIndex is the position of the non-word character right after the first "how"
+		int howSeparatorIndex = -1;
+		int wordStart = -1;
+		
+		//alternating runs of digits and non-digits, for the IP address tokenizer
+		int [] runStarts = new int [length + 1];
+		int runCount = 0;
+		boolean previousWasDigit = false;
+		
+		int symbolsCount = 0;
+		int whitespaceCount = 0;
+		
+		for(int i = 0; i <= length; i++)
+		{
+			//one step past the end lets words and runs close naturally
+			boolean atEnd = i == length;
+			char character = atEnd ? ' ' : message.charAt(i);
+			
+			if(!atEnd)
+			{
+				//trapped keywords
+				if(!result.mentionsTrapped)
+				{
+					keywordNode = this.nextKeywordNode(keywordNode, Character.toLowerCase(character));
+					if(this.matchesKeyword[keywordNode]) result.mentionsTrapped = true;
+				}
+				
+				//gibberish counts
+				if(!Character.isLetterOrDigit(character)) symbolsCount++;
+				if(Character.isWhitespace(character)) whitespaceCount++;
+				
+				//digit runs
+				boolean isDigit = character >= '0' && character <= '9';
+				if(i == 0 || isDigit != previousWasDigit)
+				{
+					runStarts[runCount++] = i;
+				}
+				previousWasDigit = isDigit;
+			}
+			
+			//words, as java regular expressions define \w
+			boolean isWordCharacter = !atEnd && ((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z') || (character >= '0' && character <= '9') || character == '_');
+			if(isWordCharacter)
+			{
+				if(wordStart == -1) wordStart = i;
+			}
+			else if(wordStart != -1)
+			{
+				int wordLength = i - wordStart;
+				if(howSeparatorIndex == -1)
+				{
+					//"how" must be followed by a separator, so it can't be the very last word
+					if(!atEnd && wordLength == 3 && message.regionMatches(true, wordStart, "how", 0, 3))
+					{
+						howSeparatorIndex = i;
+					}
+				}
+				
+				//the claim word needs its own separator in front, distinct from the one after "how"
+				else if(!result.asksHowToClaim && wordStart >= howSeparatorIndex + 2)
+				{
+					for(int j = 0; j < claimWords.length; j++)
+					{
+						String claimWord = claimWords[j];
+						if(wordLength == claimWord.length() && message.regionMatches(true, wordStart, claimWord, 0, wordLength))
+						{
+							result.asksHowToClaim = true;
+							break;
+						}
+					}
+				}
+				
+				wordStart = -1;
+			}
+		}
+		
+		if(this.customHowToClaimPattern != null)
+		{
+			result.asksHowToClaim = this.customHowToClaimPattern.matcher(message).matches();
+		}
+		
+		//if the message was mostly non-alpha-numerics or doesn't include much whitespace, consider it gibberish (probably ansi art or random text)
+		result.looksLikeGibberish = length > 5 && (symbolsCount > length / 2 || (length > 15 && whitespaceCount < length / 10));
+		
+		runStarts[runCount] = length;
+		result.blockedIpAddress = this.findBlockedIpAddress(message, runStarts, runCount, message.length() > 0 && message.charAt(0) >= '0' && message.charAt(0) <= '9');
+		
+		return result;
+	}
+	
+	//finds the first IP-looking chunk of the message which isn't explicitly allowed, or null if there isn't one
+	//matches exactly what \d{1,4}\D{1,3}\d{1,4}\D{1,3}\d{1,4}\D{1,3}\d{1,4} would find, but works on runs of digits and non-digits instead of characters
+	//run i spans runStarts[i] to runStarts[i + 1], and runs alternate between digits and non-digits
+	private String findBlockedIpAddress(String message, int [] runStarts, int runCount, boolean firstRunIsDigits)
+	{
+		//where the next search may begin, like Matcher.find()
+		int searchStart = 0;
+		
+		int i = firstRunIsDigits ? 0 : 1;
+		while(i + 6 < runCount)
+		{
+			//the first group takes the last (up to) four digits of its run, since a non-digit must follow it
+			int matchStart = Math.max(Math.max(runStarts[i], searchStart), runStarts[i + 1] - 4);
+			
+			boolean matched =
+				runLength(runStarts, i + 1) <= 3 &&
+				runLength(runStarts, i + 2) <= 4 &&
+				runLength(runStarts, i + 3) <= 3 &&
+				runLength(runStarts, i + 4) <= 4 &&
+				runLength(runStarts, i + 5) <= 3;
+			
+			if(!matched)
+			{
+				i += 2;
+				continue;
+			}
+			
+			//the last group takes the first (up to) four digits of its run
+			int matchEnd = Math.min(runStarts[i + 6] + 4, runStarts[i + 7]);
+			
+			String address = message.substring(matchStart, matchEnd).toLowerCase();
+			if(!this.allowedIpAddresses.contains(address)) return address;
+			
+			//keep looking after this match, possibly in the rest of the last group's run
+			searchStart = matchEnd;
+			if(matchEnd < runStarts[i + 7])
+			{
+				i += 6;
+			}
+			else
+			{
+				i += 8;
+			}
+		}
+		
+		return null;
+	}
+	
+	private static int runLength(int [] runStarts, int runIndex)
+	{
+		return runStarts[runIndex + 1] - runStarts[runIndex];
+	}
+	
+	//follows the keyword automaton from a node for one (lower case) character
+	private int nextKeywordNode(int node, char character)
+	{
+		while(true)
+		{
+			char [] characters = this.transitionCharacters[node];
+			for(int i = 0; i < characters.length; i++)
+			{
+				if(characters[i] == character) return this.transitionTargets[node][i];
+			}
+			
+			if(node == 0) return 0;
+			node = this.failureLinks[node];
+		}
+	}
+	
+	//builds the keyword automaton: a trie of the keywords, then failure links computed breadth-first
+	private void buildKeywordAutomaton(String [] keywords)
+	{
+		ArrayList<StringBuilder> nodeCharacters = new ArrayList<StringBuilder>();
+		ArrayList<ArrayList<Integer>> nodeTargets = new ArrayList<ArrayList<Integer>>();
+		ArrayList<Boolean> nodeMatches = new ArrayList<Boolean>();
+		
+		nodeCharacters.add(new StringBuilder());
+		nodeTargets.add(new ArrayList<Integer>());
+		nodeMatches.add(false);
+		
+		for(int i = 0; i < keywords.length; i++)
+		{
+			//an empty keyword would match everything
+			if(keywords[i] == null || keywords[i].length() == 0) continue;
+			
+			String keyword = keywords[i].toLowerCase();
+			int node = 0;
+			for(int j = 0; j < keyword.length(); j++)
+			{
+				char character = keyword.charAt(j);
+				int index = nodeCharacters.get(node).indexOf(String.valueOf(character));
+				if(index != -1)
+				{
+					node = nodeTargets.get(node).get(index);
+				}
+				else
+				{
+					int newNode = nodeCharacters.size();
+					nodeCharacters.add(new StringBuilder());
+					nodeTargets.add(new ArrayList<Integer>());
+					nodeMatches.add(false);
+					
+					nodeCharacters.get(node).append(character);
+					nodeTargets.get(node).add(newNode);
+					node = newNode;
+				}
+			}
+			
+			nodeMatches.set(node, true);
+		}
+		
+		int nodeCount = nodeCharacters.size();
+		this.transitionCharacters = new char [nodeCount][];
+		this.transitionTargets = new int [nodeCount][];
+		this.failureLinks = new int [nodeCount];
+		this.matchesKeyword = new boolean [nodeCount];
+		
+		for(int node = 0; node < nodeCount; node++)
+		{
+			this.transitionCharacters[node] = nodeCharacters.get(node).toString().toCharArray();
+			ArrayList<Integer> targets = nodeTargets.get(node);
+			this.transitionTargets[node] = new int [targets.size()];
+			for(int i = 0; i < targets.size(); i++)
+			{
+				this.transitionTargets[node][i] = targets.get(i);
+			}
+			
+			this.matchesKeyword[node] = nodeMatches.get(node);
+		}
+		
+		//breadth-first, so every node's failure link is final before its children need it
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		for(int i = 0; i < this.transitionTargets[0].length; i++)
+		{
+			queue.add(this.transitionTargets[0][i]);
+		}
+		
+		while(!queue.isEmpty())
+		{
+			int node = queue.removeFirst();
+			for(int i = 0; i < this.transitionTargets[node].length; i++)
+			{
+				int child = this.transitionTargets[node][i];
+				int failure = this.nextKeywordNode(this.failureLinks[node], this.transitionCharacters[node][i]);
+				
+				//the root's children fail back to the root, not to themselves
+				if(failure == child) failure = 0;
+				
+				this.failureLinks[child] = failure;
+				if(this.matchesKeyword[failure]) this.matchesKeyword[child] = true;
+				queue.add(child);
+			}
+		}
+	}
+	
+	//what the scanner found in a message
+	static class ChatScanResult
+	{
+		boolean asksHowToClaim = false;		//looks like "how do I claim land?"
+		boolean mentionsTrapped = false;		//mentions one of the /trapped keywords
+		boolean looksLikeGibberish = false;		//mostly symbols, or hardly any whitespace
+		String blockedIpAddress = null;		//first IP address in the message which isn't allowed
+	}
+}
@@ -20,11 +20,11 @@ package me.ryanhamshire.GriefPrevention;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 import org.bukkit.*;
 import org.bukkit.World.Environment;
@@ -42,6 +42,12 @@ public class Claim
 	Location lesserBoundaryCorner;
 	Location greaterBoundaryCorner;
 	
+	//the same boundaries as plain numbers, plus the world's name, so containment checks don't need to allocate anything
+	//claims never move sideways once created (resizing makes a new claim), so these never change
+	String worldName;
+	int lesserX, lesserZ;
+	int greaterX, greaterZ;
+	
 	//modification date.  this comes from the file timestamp during load, and is updated with runtime changes
 	public Date modifiedDate;
 	
@@ -58,6 +64,11 @@ public class Claim
 	//permissions for this claim, see ClaimPermission class
 	private HashMap<String, ClaimPermission> playerNameToClaimPermissionMap = new HashMap<String, ClaimPermission>();
 	
+	//the permissions map above, resolved for quick lookups, or null until needed
+	//never changed once built, so any number of threads can read it while sharing the claims read lock
+	//thrown away whenever permissions or ownership change, see clearPermissionCache()
+	private volatile PermissionTable permissionTable = null;
+	
 	//whether or not this claim is in the data store
 	//if a claim instance isn't in the data store, it isn't "active" - players can't interract with it 
 	//why keep this?  so that claims which have been removed from the data store can be correctly 
@@ -72,6 +83,18 @@ public class Claim
 	//note subdivisions themselves never have children
 	public ArrayList<Claim> children = new ArrayList<Claim>();
 	
+	//index of the subdivisions above by chunk (see DataStore.getChunkKey()), each list in the same order as the children list
+	//only used for claims with lots of subdivisions, like towns made of plots.  built the first time it's needed,
+	//and thrown away whenever subdivisions are added or removed, see clearSubdivisionIndex()
+	private volatile HashMap<Long, ArrayList<Claim>> subdivisionIndex = null;
+	
+	//below this many subdivisions, checking each one is as quick as using an index
+	private final static int minimumIndexedSubdivisions = 16;
+	
+	//the last outline built for this claim (including its subdivisions) by Visualization.FromClaim
+	//resizing makes a new claim, so only adding or removing subdivisions has to throw it away, see clearVisualizationCache()
+	Visualization cachedVisualization = null;
+	
 	//information about a siege involving this claim.  null means no siege is impacting this claim
 	// public SiegeData siegeData = null;
 	
@@ -206,6 +229,11 @@ public class Claim
 		//store corners
 		this.lesserBoundaryCorner = lesserBoundaryCorner;
 		this.greaterBoundaryCorner = greaterBoundaryCorner;
+		this.worldName = lesserBoundaryCorner.getWorld().getName();
+		this.lesserX = lesserBoundaryCorner.getBlockX();
+		this.lesserZ = lesserBoundaryCorner.getBlockZ();
+		this.greaterX = greaterBoundaryCorner.getBlockX();
+		this.greaterZ = greaterBoundaryCorner.getBlockZ();
 		
 		//owner
 		this.ownerName = ownerName;
@@ -251,31 +279,34 @@ public class Claim
 	//measurements.  all measurements are in blocks
 	public int getArea()
 	{
-		int claimWidth = this.greaterBoundaryCorner.getBlockX() - this.lesserBoundaryCorner.getBlockX() + 1;
-		int claimHeight = this.greaterBoundaryCorner.getBlockZ() - this.lesserBoundaryCorner.getBlockZ() + 1;
+		int claimWidth = this.greaterX - this.lesserX + 1;
+		int claimHeight = this.greaterZ - this.lesserZ + 1;
 		
 		return claimWidth * claimHeight;		
 	}
 	
 	public int getWidth()
 	{
-		return this.greaterBoundaryCorner.getBlockX() - this.lesserBoundaryCorner.getBlockX() + 1;		
+		return this.greaterX - this.lesserX + 1;		
 	}
 	
 	public int getHeight()
 	{
-		return this.greaterBoundaryCorner.getBlockZ() - this.lesserBoundaryCorner.getBlockZ() + 1;		
+		return this.greaterZ - this.lesserZ + 1;		
 	}
 	
 	//distance check for claims, distance in this case is a band around the outside of the claim rather then euclidean distance
 	public boolean isNear(Location location, int howNear)
 	{
-		Claim claim = new Claim
-			(new Location(this.lesserBoundaryCorner.getWorld(), this.lesserBoundaryCorner.getBlockX() - howNear, this.lesserBoundaryCorner.getBlockY(), this.lesserBoundaryCorner.getBlockZ() - howNear),
-			 new Location(this.greaterBoundaryCorner.getWorld(), this.greaterBoundaryCorner.getBlockX() + howNear, this.greaterBoundaryCorner.getBlockY(), this.greaterBoundaryCorner.getBlockZ() + howNear),
-			 "", new String[] {}, new String[] {}, new String[] {}, new String[] {}, null);
+		if(!this.worldName.equals(location.getWorld().getName())) return false;
 		
-		return claim.contains(location, false, true);
+		int x = location.getBlockX();
+		int z = location.getBlockZ();
+		
+		return	x >= this.lesserX - howNear &&
+				x <= this.greaterX + howNear &&
+				z >= this.lesserZ - howNear &&
+				z <= this.greaterZ + howNear;
 	}
 	
 	//permissions.  note administrative "public" claims have different rules than other claims
@@ -346,15 +377,11 @@ public class Claim
 			return GriefPrevention.instance.dataStore.getMessage(Messages.NoBuildPvP);			
 		}
 		
-		//owners can make changes, or admins with ignore claims mode enabled
-		if(this.ownerName.equals(player.getName()) || playerData.ignoreClaims) return null;
-		
-		//anyone with explicit build permission can make changes
-		if(this.hasExplicitPermission(player, ClaimPermission.Build)) return null;
+		//admins with ignore claims mode enabled can make changes
+		if(playerData.ignoreClaims) return null;
 		
-		//also everyone is a member of the "public", so check for public permission
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel) return null;
+		//so can owners, anyone with explicit build permission, and everyone if the "public" has build permission
+		if(this.hasPermission(player, ClaimPermission.Build)) return null;
 		
 		//subdivision permission inheritance
 		if(this.parent != null)
@@ -364,30 +391,88 @@ public class Claim
 		return GriefPrevention.instance.dataStore.getMessage(Messages.NoBuildPermission, this.getOwnerName());
 	}
 	
-	private boolean hasExplicitPermission(Player player, ClaimPermission level)
+	//whether a player has at least the specified permission level here, not counting parent claims
+	//ownership counts as build permission.  the permission levels are ordered Build, Inventory, Access, strongest first
+	private boolean hasPermission(Player player, ClaimPermission level)
 	{
 		String playerName = player.getName();
-		Set<String> keys = this.playerNameToClaimPermissionMap.keySet();
-		Iterator<String> iterator = keys.iterator();
-		while(iterator.hasNext())
+		
+		//owners can do anything
+		if(this.ownerName.equals(playerName)) return true;
+		
+		PermissionTable table = this.permissionTable;
+		if(table == null)
 		{
-			String identifier = iterator.next();
-			if(playerName.equalsIgnoreCase(identifier) && this.playerNameToClaimPermissionMap.get(identifier) == level) return true;
+			//two threads may both build it, which is harmless since they build the same thing
+			table = new PermissionTable(this.playerNameToClaimPermissionMap);
+			this.permissionTable = table;
+		}
+		
+		//players without a trust entry of their own get whatever the public has
+		ClaimPermission effectiveLevel = table.playerNameToLevelMap.get(playerName.toLowerCase());
+		if(effectiveLevel == null) effectiveLevel = table.publicLevel;
+		
+		if(effectiveLevel != null && effectiveLevel.ordinal() <= level.ordinal()) return true;
+		
+		//permission nodes in brackets, like "[essentials.vip]", grant trust to any player with that permission
+		for(int i = 0; i < table.permissionNodeIdentifiers.size(); i++)
+		{
+			String identifier = table.permissionNodeIdentifiers.get(i);
+			if(table.permissionNodeLevels.get(i).ordinal() <= level.ordinal() && player.hasPermission(identifier.substring(1, identifier.length() - 1))) return true;
+		}
+		
+		return false;
+	}
+	
+	//forgets resolved permissions, must be called after any change to permissions or ownership
+	void clearPermissionCache()
+	{
+		this.permissionTable = null;
+	}
+	
+	//the permissions map of a claim, resolved for lookups by player name
+	//only names with a trust entry get one here, so this never grows beyond the permissions map itself
+	//only the constructor fills it in, and the volatile permissionTable field publishes it safely to other threads
+	private static class PermissionTable
+	{
+		//lower case player name -> the stronger of that player's own trust and public trust
+		final HashMap<String, ClaimPermission> playerNameToLevelMap = new HashMap<String, ClaimPermission>();
+		
+		//what everyone else gets, null for nothing
+		final ClaimPermission publicLevel;
+		
+		//the "[permission.node]" entries and their levels, in the same order
+		//these depend on the player's current Bukkit permissions, so they're checked every time rather than resolved here
+		final ArrayList<String> permissionNodeIdentifiers = new ArrayList<String>();
+		final ArrayList<ClaimPermission> permissionNodeLevels = new ArrayList<ClaimPermission>();
+		
+		PermissionTable(HashMap<String, ClaimPermission> playerNameToClaimPermissionMap)
+		{
+			this.publicLevel = playerNameToClaimPermissionMap.get("public");
 			
-			else if(identifier.startsWith("[") && identifier.endsWith("]"))
+			Iterator<Map.Entry<String, ClaimPermission>> mappingsIterator = playerNameToClaimPermissionMap.entrySet().iterator(); 
+			while(mappingsIterator.hasNext())
 			{
-				//drop the brackets
-				String permissionIdentifier = identifier.substring(1, identifier.length() - 1);
+				Map.Entry<String, ClaimPermission> entry = mappingsIterator.next();
+				String identifier = entry.getKey();
+				ClaimPermission level = entry.getValue();
 				
-				//defensive coding
-				if(permissionIdentifier == null || permissionIdentifier.isEmpty()) continue;
+				//defensive coding, "[]" isn't a permission node
+				if(identifier.startsWith("[") && identifier.endsWith("]") && identifier.length() > 2)
+				{
+					this.permissionNodeIdentifiers.add(identifier);
+					this.permissionNodeLevels.add(level);
+					continue;
+				}
 				
-				//check permission
-				if(player.hasPermission(permissionIdentifier) && this.playerNameToClaimPermissionMap.get(identifier) == level) return true;
+				//names are matched without regard to case, so keep the strongest level among differently cased entries
+				String playerName = identifier.toLowerCase();
+				ClaimPermission strongestLevel = this.playerNameToLevelMap.get(playerName);
+				if(strongestLevel == null) strongestLevel = this.publicLevel;
+				if(strongestLevel == null || level.ordinal() < strongestLevel.ordinal()) strongestLevel = level;
+				this.playerNameToLevelMap.put(playerName, strongestLevel);
 			}
 		}
-		
-		return false;			
 	}
 	
 	//break permission check
@@ -440,17 +525,11 @@ public class Claim
 			if(player.hasPermission("griefprevention.adminclaims")) return null;
 		}
 		
-		//claim owner and admins in ignoreclaims mode have access
-		if(this.ownerName.equals(player.getName()) || playerData.ignoreClaims) return null;
-		
-		//look for explicit individual access, inventory, or build permission
-		if(this.hasExplicitPermission(player, ClaimPermission.Access)) return null;
-		if(this.hasExplicitPermission(player, ClaimPermission.Inventory)) return null;
-		if(this.hasExplicitPermission(player, ClaimPermission.Build)) return null;
+		//admins in ignoreclaims mode have access
+		if(playerData.ignoreClaims) return null;
 		
-		//also check for public permission
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel || ClaimPermission.Access == permissionLevel) return null;		
+		//so does the claim owner, and anyone with individual or public access, inventory, or build permission
+		if(this.hasPermission(player, ClaimPermission.Access)) return null;
 		
 		//permission inheritance for subdivisions
 		if(this.parent != null)
@@ -475,8 +554,8 @@ public class Claim
 			// return GriefPrevention.instance.dataStore.getMessage(Messages.NoContainersSiege, siegeData.attacker.getName());
 		// }
 		
-		//owner and administrators in ignoreclaims mode have access
-		if(this.ownerName.equals(player.getName()) || playerData.ignoreClaims) return null;
+		//administrators in ignoreclaims mode have access
+		if(playerData.ignoreClaims) return null;
 		
 		//admin claims need adminclaims permission only.
 		if(this.isAdminClaim())
@@ -484,13 +563,8 @@ public class Claim
 			if(player.hasPermission("griefprevention.adminclaims")) return null;
 		}
 		
-		//check for explicit individual container or build permission 
-		if(this.hasExplicitPermission(player, ClaimPermission.Inventory)) return null;
-		if(this.hasExplicitPermission(player, ClaimPermission.Build)) return null;
-		
-		//check for public container or build permission
-		ClaimPermission permissionLevel = this.playerNameToClaimPermissionMap.get("public");
-		if(ClaimPermission.Build == permissionLevel || ClaimPermission.Inventory == permissionLevel) return null;
+		//check for ownership, or individual or public container or build permission
+		if(this.hasPermission(player, ClaimPermission.Inventory)) return null;
 		
 		//permission inheritance for subdivisions
 		if(this.parent != null)
@@ -535,18 +609,21 @@ public class Claim
 	public void setPermission(String playerName, ClaimPermission permissionLevel)
 	{
 		this.playerNameToClaimPermissionMap.put(playerName.toLowerCase(),  permissionLevel);
+		this.clearPermissionCache();
 	}
 	
 	//revokes a permission for a player or the public
 	public void dropPermission(String playerName)
 	{
 		this.playerNameToClaimPermissionMap.remove(playerName.toLowerCase());
+		this.clearPermissionCache();
 	}
 	
 	//clears all permissions (except owner of course)
 	public void clearPermissions()
 	{
 		this.playerNameToClaimPermissionMap.clear();
+		this.clearPermissionCache();
 	}
 	
 	//gets ALL permissions
@@ -612,20 +689,21 @@ public class Claim
 	public boolean contains(Location location, boolean ignoreHeight, boolean excludeSubdivisions)
 	{
         // HACKHACK: All claims are bedrock to sky.  ignoreHeight is treated as if it's always true
-    
+		return this.contains(location.getWorld().getName(), location.getBlockX(), location.getBlockZ(), excludeSubdivisions);
+	}
+	
+	//whether or not a block column is in a claim.  same as above, without needing a Location
+	public boolean contains(String worldName, int x, int z, boolean excludeSubdivisions)
+	{
 		//not in the same world implies false
-		if(!location.getWorld().equals(this.lesserBoundaryCorner.getWorld())) return false;
-		
-		int x = location.getBlockX();
-		//int y = location.getBlockY();
-		int z = location.getBlockZ();
+		if(!this.worldName.equals(worldName)) return false;
 		
 		//main check
-		boolean inClaim = //(ignoreHeight || y >= this.lesserBoundaryCorner.getBlockY()) &&
-				x >= this.lesserBoundaryCorner.getBlockX() &&
-				x <= this.greaterBoundaryCorner.getBlockX() &&
-				z >= this.lesserBoundaryCorner.getBlockZ() &&
-				z <= this.greaterBoundaryCorner.getBlockZ();
+		boolean inClaim = 
+				x >= this.lesserX &&
+				x <= this.greaterX &&
+				z >= this.lesserZ &&
+				z <= this.greaterZ;
 				
 		if(!inClaim) return false;
 				
@@ -635,71 +713,139 @@ public class Claim
 		//a subdivision can reach outside of its parent's boundaries.  so this check is important!
 		if(this.parent != null)
 	    {
-	    	return this.parent.contains(location, ignoreHeight, false);
+	    	return this.parent.contains(worldName, x, z, false);
 	    }
 		
 		//code to exclude subdivisions in this check
 		else if(excludeSubdivisions)
 		{
-			//search all subdivisions to see if the location is in any of them
+			//if the location is in any subdivision, return false
+			if(this.getSubdivisionAt(worldName, x, z) != null)
+			{
+				return false;
+			}
+		}
+		
+		//otherwise yes
+		return true;				
+	}
+	
+	//returns the subdivision of this claim containing a block column, or null if there isn't one
+	Claim getSubdivisionAt(String worldName, int x, int z)
+	{
+		ArrayList<Claim> candidates = this.children;
+		if(candidates.size() >= minimumIndexedSubdivisions)
+		{
+			candidates = this.getSubdivisionIndex().get(DataStore.getChunkKey(x >> 4, z >> 4));
+			if(candidates == null) return null;
+		}
+		
+		for(int i = 0; i < candidates.size(); i++)
+		{
+			Claim subdivision = candidates.get(i);
+			if(subdivision.contains(worldName, x, z, false)) return subdivision;
+		}
+		
+		return null;
+	}
+	
+	//returns a subdivision of this claim which overlaps the specified claim, or null if there isn't one
+	Claim getOverlappingSubdivision(Claim otherClaim)
+	{
+		int lesserChunkX = otherClaim.lesserX >> 4;
+		int lesserChunkZ = otherClaim.lesserZ >> 4;
+		int greaterChunkX = otherClaim.greaterX >> 4;
+		int greaterChunkZ = otherClaim.greaterZ >> 4;
+		long chunkCount = (long)(greaterChunkX - lesserChunkX + 1) * (greaterChunkZ - lesserChunkZ + 1);
+		
+		//with few subdivisions, or a claim which covers more chunks than there are subdivisions, just check them all
+		if(this.children.size() < minimumIndexedSubdivisions || chunkCount > this.children.size())
+		{
 			for(int i = 0; i < this.children.size(); i++)
 			{
-				//if we find such a subdivision, return false
-				if(this.children.get(i).contains(location, ignoreHeight, true))
+				if(this.children.get(i).overlaps(otherClaim)) return this.children.get(i);
+			}
+			
+			return null;
+		}
+		
+		HashMap<Long, ArrayList<Claim>> index = this.getSubdivisionIndex();
+		for(int chunkX = lesserChunkX; chunkX <= greaterChunkX; chunkX++)
+		{
+			for(int chunkZ = lesserChunkZ; chunkZ <= greaterChunkZ; chunkZ++)
+			{
+				ArrayList<Claim> candidates = index.get(DataStore.getChunkKey(chunkX, chunkZ));
+				if(candidates == null) continue;
+				
+				for(int i = 0; i < candidates.size(); i++)
 				{
-					return false;
+					if(candidates.get(i).overlaps(otherClaim)) return candidates.get(i);
 				}
 			}
 		}
 		
-		//otherwise yes
-		return true;				
+		return null;
+	}
+	
+	//returns the subdivision index, building it if necessary
+	//lookups may run on several threads at once under the data store's read lock, so only one of them builds it
+	private HashMap<Long, ArrayList<Claim>> getSubdivisionIndex()
+	{
+		HashMap<Long, ArrayList<Claim>> index = this.subdivisionIndex;
+		if(index != null) return index;
+		
+		synchronized(this)
+		{
+			if(this.subdivisionIndex != null) return this.subdivisionIndex;
+			
+			index = new HashMap<Long, ArrayList<Claim>>();
+			for(int i = 0; i < this.children.size(); i++)
+			{
+				Claim subdivision = this.children.get(i);
+				for(int chunkX = subdivision.lesserX >> 4; chunkX <= subdivision.greaterX >> 4; chunkX++)
+				{
+					for(int chunkZ = subdivision.lesserZ >> 4; chunkZ <= subdivision.greaterZ >> 4; chunkZ++)
+					{
+						Long chunkKey = DataStore.getChunkKey(chunkX, chunkZ);
+						ArrayList<Claim> chunkSubdivisions = index.get(chunkKey);
+						if(chunkSubdivisions == null)
+						{
+							chunkSubdivisions = new ArrayList<Claim>(1);
+							index.put(chunkKey, chunkSubdivisions);
+						}
+						
+						chunkSubdivisions.add(subdivision);
+					}
+				}
+			}
+			
+			this.subdivisionIndex = index;
+			return index;
+		}
+	}
+	
+	//throws away the subdivision index, must be called after adding or removing subdivisions
+	void clearSubdivisionIndex()
+	{
+		this.subdivisionIndex = null;
+	}
+	
+	//throws away the cached outline, must be called after adding or removing subdivisions
+	void clearVisualizationCache()
+	{
+		this.cachedVisualization = null;
 	}
 	
 	//whether or not two claims overlap
 	//used internally to prevent overlaps when creating claims
+	//claims are rectangles which always reach from bedrock to sky, so they overlap exactly when their X and Z ranges both overlap
 	boolean overlaps(Claim otherClaim)
 	{
-		//NOTE:  if trying to understand this makes your head hurt, don't feel bad - it hurts mine too.  
-		//try drawing pictures to visualize test cases.
-		
-		if(!this.lesserBoundaryCorner.getWorld().equals(otherClaim.getLesserBoundaryCorner().getWorld())) return false;
-		
-		//first, check the corners of this claim aren't inside any existing claims
-		if(otherClaim.contains(this.lesserBoundaryCorner, true, false)) return true;
-		if(otherClaim.contains(this.greaterBoundaryCorner, true, false)) return true;
-		if(otherClaim.contains(new Location(this.lesserBoundaryCorner.getWorld(), this.lesserBoundaryCorner.getBlockX(), 0, this.greaterBoundaryCorner.getBlockZ()), true, false)) return true;
-		if(otherClaim.contains(new Location(this.lesserBoundaryCorner.getWorld(), this.greaterBoundaryCorner.getBlockX(), 0, this.lesserBoundaryCorner.getBlockZ()), true, false)) return true;
-		
-		//verify that no claim's lesser boundary point is inside this new claim, to cover the "existing claim is entirely inside new claim" case
-		if(this.contains(otherClaim.getLesserBoundaryCorner(), true, false)) return true;
-		
-		//verify this claim doesn't band across an existing claim, either horizontally or vertically		
-		if(	this.getLesserBoundaryCorner().getBlockZ() <= otherClaim.getGreaterBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockZ() >= otherClaim.getLesserBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockX() < otherClaim.getLesserBoundaryCorner().getBlockX() &&
-			this.getGreaterBoundaryCorner().getBlockX() > otherClaim.getGreaterBoundaryCorner().getBlockX() )
-			return true;
-		
-		if(	this.getGreaterBoundaryCorner().getBlockZ() <= otherClaim.getGreaterBoundaryCorner().getBlockZ() && 
-			this.getGreaterBoundaryCorner().getBlockZ() >= otherClaim.getLesserBoundaryCorner().getBlockZ() && 
-			this.getLesserBoundaryCorner().getBlockX() < otherClaim.getLesserBoundaryCorner().getBlockX() &&
-			this.getGreaterBoundaryCorner().getBlockX() > otherClaim.getGreaterBoundaryCorner().getBlockX() )
-			return true;
-		
-		if(	this.getLesserBoundaryCorner().getBlockX() <= otherClaim.getGreaterBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockX() >= otherClaim.getLesserBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockZ() < otherClaim.getLesserBoundaryCorner().getBlockZ() &&
-			this.getGreaterBoundaryCorner().getBlockZ() > otherClaim.getGreaterBoundaryCorner().getBlockZ() )
-			return true;
-			
-		if(	this.getGreaterBoundaryCorner().getBlockX() <= otherClaim.getGreaterBoundaryCorner().getBlockX() && 
-			this.getGreaterBoundaryCorner().getBlockX() >= otherClaim.getLesserBoundaryCorner().getBlockX() && 
-			this.getLesserBoundaryCorner().getBlockZ() < otherClaim.getLesserBoundaryCorner().getBlockZ() &&
-			this.getGreaterBoundaryCorner().getBlockZ() > otherClaim.getGreaterBoundaryCorner().getBlockZ() )
-			return true;
-		
-		return false;
+		return	this.lesserX <= otherClaim.greaterX &&
+				this.greaterX >= otherClaim.lesserX &&
+				this.lesserZ <= otherClaim.greaterZ &&
+				this.greaterZ >= otherClaim.lesserZ &&
+				this.worldName.equals(otherClaim.worldName);
 	}
 	
 	//whether more entities may be added to a claim
@@ -750,20 +896,29 @@ public class Claim
 	//implements a strict ordering of claims, used to keep the claims collection sorted for faster searching
 	boolean greaterThan(Claim otherClaim)
 	{
-		Location thisCorner = this.getLesserBoundaryCorner();
-		Location otherCorner = otherClaim.getLesserBoundaryCorner();
-		
-		if(thisCorner.getBlockX() > otherCorner.getBlockX()) return true;
+		if(this.lesserX > otherClaim.lesserX) return true;
 		
-		if(thisCorner.getBlockX() < otherCorner.getBlockX()) return false;
+		if(this.lesserX < otherClaim.lesserX) return false;
 		
-		if(thisCorner.getBlockZ() > otherCorner.getBlockZ()) return true;
+		if(this.lesserZ > otherClaim.lesserZ) return true;
 		
-		if(thisCorner.getBlockZ() < otherCorner.getBlockZ()) return false;
+		if(this.lesserZ < otherClaim.lesserZ) return false;
 		
-		return thisCorner.getWorld().getName().compareTo(otherCorner.getWorld().getName()) < 0;
+		return this.worldName.compareTo(otherClaim.worldName) < 0;
 	}
 	
+	//the same ordering as greaterThan(), for sorting a whole collection of claims at once
+	static final Comparator<Claim> claimOrder = new Comparator<Claim>()
+	{
+		@Override
+		public int compare(Claim claim1, Claim claim2)
+		{
+			if(claim1.greaterThan(claim2)) return 1;
+			if(claim2.greaterThan(claim1)) return -1;
+			return 0;
+		}
+	};
+	
 	// long getPlayerInvestmentScore()
 	// {
 		// //decide which blocks will be considered player placed
@@ -0,0 +1,140 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+//claim owners ordered by when they last logged in, longest gone first
+//lets the unused claim cleanup go straight to owners whose claims may have expired, instead of wandering through every claim
+//safe to use from any thread
+class ClaimExpirationIndex
+{
+	private final TreeSet<OwnerEntry> entries = new TreeSet<OwnerEntry>();
+	private final HashMap<String, OwnerEntry> ownerNameToEntryMap = new HashMap<String, OwnerEntry>();
+	
+	//adds a claim owner, if he isn't already in the index
+	//when his last login isn't known yet, it's estimated as right now until the real value is loaded
+	//(guessing late only ever delays expiration, it never causes an early one)
+	synchronized void addOwner(String ownerName, PlayerData cachedPlayerData)
+	{
+		if(this.ownerNameToEntryMap.containsKey(ownerName)) return;
+		
+		if(cachedPlayerData != null && cachedPlayerData.lastLogin != null)
+		{
+			this.put(new OwnerEntry(ownerName, cachedPlayerData.lastLogin.getTime(), false));
+		}
+		else
+		{
+			this.put(new OwnerEntry(ownerName, System.currentTimeMillis(), true));
+		}
+	}
+	
+	synchronized void removeOwner(String ownerName)
+	{
+		OwnerEntry entry = this.ownerNameToEntryMap.remove(ownerName);
+		if(entry != null) this.entries.remove(entry);
+	}
+	
+	//records an owner's latest last login.  players who don't own claims are ignored
+	synchronized void setLastLogin(String ownerName, long lastLogin)
+	{
+		OwnerEntry entry = this.ownerNameToEntryMap.get(ownerName);
+		if(entry == null || (entry.lastLogin == lastLogin && !entry.estimated)) return;
+		
+		this.entries.remove(entry);
+		this.put(new OwnerEntry(ownerName, lastLogin, false));
+	}
+	
+	//fills in a last login read from storage, unless a newer value was recorded in the meantime
+	synchronized void setStoredLastLogin(String ownerName, long lastLogin)
+	{
+		OwnerEntry entry = this.ownerNameToEntryMap.get(ownerName);
+		if(entry == null || !entry.estimated) return;
+		
+		this.entries.remove(entry);
+		this.put(new OwnerEntry(ownerName, lastLogin, false));
+	}
+	
+	//owners whose last login was estimated and still needs to be loaded
+	synchronized ArrayList<String> getEstimatedOwnerNames()
+	{
+		ArrayList<String> ownerNames = new ArrayList<String>();
+		Iterator<OwnerEntry> iterator = this.entries.iterator();
+		while(iterator.hasNext())
+		{
+			OwnerEntry entry = iterator.next();
+			if(entry.estimated) ownerNames.add(entry.ownerName);
+		}
+		
+		return ownerNames;
+	}
+	
+	//returns up to maxCount owners who last logged in before the cutoff, oldest first
+	//starts just after the given entry, or from the oldest owner if it's null
+	synchronized ArrayList<OwnerEntry> getOwnersLastSeenBefore(long cutoff, OwnerEntry after, int maxCount)
+	{
+		ArrayList<OwnerEntry> owners = new ArrayList<OwnerEntry>();
+		Iterator<OwnerEntry> iterator = (after == null ? this.entries : this.entries.tailSet(after, false)).iterator();
+		while(iterator.hasNext() && owners.size() < maxCount)
+		{
+			OwnerEntry entry = iterator.next();
+			if(entry.lastLogin >= cutoff) break;
+			owners.add(entry);
+		}
+		
+		return owners;
+	}
+	
+	synchronized int size()
+	{
+		return this.entries.size();
+	}
+	
+	private void put(OwnerEntry entry)
+	{
+		this.entries.add(entry);
+		this.ownerNameToEntryMap.put(entry.ownerName, entry);
+	}
+	
+	//one claim owner and when he last logged in.  never changes once created, so it's safe to hold onto
+	static class OwnerEntry implements Comparable<OwnerEntry>
+	{
+		final String ownerName;
+		final long lastLogin;
+		final boolean estimated;
+		
+		OwnerEntry(String ownerName, long lastLogin, boolean estimated)
+		{
+			this.ownerName = ownerName;
+			this.lastLogin = lastLogin;
+			this.estimated = estimated;
+		}
+		
+		@Override
+		public int compareTo(OwnerEntry other)
+		{
+			if(this.lastLogin < other.lastLogin) return -1;
+			if(this.lastLogin > other.lastLogin) return 1;
+			return this.ownerName.compareTo(other.ownerName);
+		}
+	}
+}
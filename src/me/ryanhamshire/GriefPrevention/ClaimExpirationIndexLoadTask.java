@@ -0,0 +1,46 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+//fills in the real last login dates for claim owners in the expiration index
+//claims are loaded before anyone's player data, so until this runs every owner's last login is just an estimate
+//reading player data for every claim owner is slow, so this runs on its own thread shortly after startup
+class ClaimExpirationIndexLoadTask implements Runnable 
+{
+	@Override
+	public void run()
+	{
+		DataStore dataStore = GriefPrevention.instance.dataStore;
+		ArrayList<String> ownerNames = dataStore.expirationIndex.getEstimatedOwnerNames();
+		for(int i = 0; i < ownerNames.size(); i++)
+		{
+			String ownerName = ownerNames.get(i);
+			Date lastLogin = dataStore.getStoredLastLogin(ownerName);
+			if(lastLogin != null)
+			{
+				dataStore.expirationIndex.setStoredLastLogin(ownerName, lastLogin.getTime());
+			}
+		}
+		
+		GriefPrevention.AddLogEntry("Loaded last login dates for " + ownerNames.size() + " claim owners.");
+	}
+}
@@ -18,53 +18,48 @@
  
  package me.ryanhamshire.GriefPrevention;
 
-import java.util.Calendar;
-import java.util.Random;
-
-import org.bukkit.Chunk;
-import org.bukkit.World;
+import java.util.ArrayList;
 
 //FEATURE: automatically remove claims owned by inactive players which:
-//...aren't protecting much OR
 //...are a free new player claim (and the player has no other claims) OR
 //...because the player has been gone a REALLY long time, and that expiration has been configured in config.yml
 
 //runs every 1 minute in the main thread
+//finds owners through the data store's expiration index, longest gone first, and looks at a few of them each run
+//no player data is loaded, since the index already knows when each owner last logged in
 class CleanupUnusedClaimsTask implements Runnable 
 {	
-	int nextClaimIndex;
+	//most owners to look at in one run
+	private static final int MAX_OWNERS_PER_RUN = 20;
 	
-	CleanupUnusedClaimsTask()
-	{
-		//start scanning in a random spot
-		if(GriefPrevention.instance.dataStore.claims.size() == 0)
-		{
-			this.nextClaimIndex = 0;
-		}
-		else
-		{
-			Random randomNumberGenerator = new Random();
-			this.nextClaimIndex = randomNumberGenerator.nextInt(GriefPrevention.instance.dataStore.claims.size());
-		}
-	}
+	//number of milliseconds in a day
+	private static final long MILLISECONDS_IN_DAY = 1000L * 60 * 60 * 24;
+	
+	//where the last run left off, or null to start over from the owner who's been gone longest
+	private ClaimExpirationIndex.OwnerEntry lastOwnerChecked = null;
 	
 	@Override
 	public void run()
 	{
-		//don't do anything when there are no claims
-		if(GriefPrevention.instance.dataStore.claims.size() == 0) return;
+		DataStore dataStore = GriefPrevention.instance.dataStore;
+		long now = System.currentTimeMillis();
 		
-		//wrap search around to beginning
-		if(this.nextClaimIndex >= GriefPrevention.instance.dataStore.claims.size()) this.nextClaimIndex = 0;
+		//if he's been gone at least a week, if he has ONLY the new player claim, it will be removed
+		long newPlayerClaimCutoff = now - MILLISECONDS_IN_DAY * 7;
 		
-		//decide which claim to check next
-		Claim claim = GriefPrevention.instance.dataStore.claims.get(this.nextClaimIndex++);
+		//if configured to always remove claims after some inactivity period without exceptions...
+		long expirationCutoff = Long.MIN_VALUE;
+		if(GriefPrevention.instance.config_claims_expirationDays > 0)
+		{
+			expirationCutoff = now - MILLISECONDS_IN_DAY * GriefPrevention.instance.config_claims_expirationDays;
+		}
 		
-		//skip administrative claims
-		if(claim.isAdminClaim()) return;
+		//only owners gone longer than one of those cutoffs are interesting
+		long cutoff = Math.max(newPlayerClaimCutoff, expirationCutoff);
+		ArrayList<ClaimExpirationIndex.OwnerEntry> owners = dataStore.expirationIndex.getOwnersLastSeenBefore(cutoff, this.lastOwnerChecked, MAX_OWNERS_PER_RUN);
 		
-		//get data for the player, especially last login timestamp
-		PlayerData playerData = GriefPrevention.instance.dataStore.getPlayerData(claim.ownerName);
+		//pick up where this run leaves off next time, or start over once the end of the expired owners is reached
+		this.lastOwnerChecked = owners.size() < MAX_OWNERS_PER_RUN ? null : owners.get(owners.size() - 1);
 		
 		//determine area of the default chest claim
 		int areaOfDefaultClaim = 0;
@@ -73,117 +68,40 @@ class CleanupUnusedClaimsTask implements Runnable
 			areaOfDefaultClaim = (int)Math.pow(GriefPrevention.instance.config_claims_automaticClaimsForNewPlayersRadius * 2 + 1, 2);  
 		}
 		
-		//if he's been gone at least a week, if he has ONLY the new player claim, it will be removed
-		Calendar sevenDaysAgo = Calendar.getInstance();
-		sevenDaysAgo.add(Calendar.DATE, -7);
-		boolean newPlayerClaimsExpired = sevenDaysAgo.getTime().after(playerData.lastLogin);
-		
-		//if only one claim, and the player hasn't played in a week
-		if(newPlayerClaimsExpired && playerData.claims.size() == 1)
-		{
-			//if that's a chest claim, delete it
-			if(claim.getArea() <= areaOfDefaultClaim)
-			{
-				claim.removeSurfaceFluids(null);
-				GriefPrevention.instance.dataStore.deleteClaim(claim);
-				
-				//if in a creative mode world, delete the claim
-				// if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
-				// {
-					// GriefPrevention.instance.restoreClaim(claim, 0);
-				// }
-				
-				GriefPrevention.AddLogEntry(" " + claim.getOwnerName() + "'s new player claim expired.");
-			}
-		}
-		
-		//if configured to always remove claims after some inactivity period without exceptions...
-		else // if(GriefPrevention.instance.config_claims_expirationDays > 0)
+		for(int i = 0; i < owners.size(); i++)
 		{
-			Calendar earliestPermissibleLastLogin = Calendar.getInstance();
-			earliestPermissibleLastLogin.add(Calendar.DATE, -GriefPrevention.instance.config_claims_expirationDays);
+			ClaimExpirationIndex.OwnerEntry owner = owners.get(i);
 			
-			if(earliestPermissibleLastLogin.getTime().after(playerData.lastLogin))
+			//don't act on a guess, wait for the real last login to be loaded
+			if(owner.estimated) continue;
+			
+			if(owner.lastLogin < expirationCutoff)
 			{
-				GriefPrevention.instance.dataStore.deleteClaimsForPlayer(claim.getOwnerName(), true);
-				GriefPrevention.AddLogEntry(" All of " + claim.getOwnerName() + "'s claims have expired.");
+				dataStore.deleteClaimsForPlayer(owner.ownerName, true);
+				GriefPrevention.AddLogEntry(" All of " + owner.ownerName + "'s claims have expired.");
+				continue;
 			}
-		}
-		
-		// else
-		// {
-		
-			// //if the player has been gone two weeks, scan claim content to assess player investment
-			// Calendar fourteenDaysAgo = Calendar.getInstance();
-			// fourteenDaysAgo.add(Calendar.DATE, -14);
-			// boolean needsInvestmentScan = fourteenDaysAgo.getTime().after(playerData.lastLogin);
 			
-			// //avoid scanning large claims and administrative claims
-			// if(claim.isAdminClaim() || claim.getWidth() > 25 || claim.getHeight() > 25) return;
-			
-			// //if creative mode or the claim owner has been away a long enough time, scan the claim content
-			// // if(needsInvestmentScan || GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
-			// if(needsInvestmentScan)
-			// {
-				// int minInvestment = 200;
-				// // int minInvestment;
-				// // if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
-				// // {
-					// // minInvestment = 400;
-				// // }
-				// // else
-				// // {
-					// // minInvestment = 200;
-				// // }
-				
-				// long investmentScore = claim.getPlayerInvestmentScore();
-				// boolean removeClaim = false;
-				
-				// //in creative mode, a build which is almost entirely lava above sea level will be automatically removed, even if the owner is an active player
-				// //lava above the surface deducts 10 points per block from the investment score
-				// //so 500 blocks of lava without anything built to offset all that potential mess would be cleaned up automatically
-				// // if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()) && investmentScore < -5000)
-				// // {
-					// // removeClaim = true;
-				// // }			
-				
-				// //otherwise, the only way to get a claim automatically removed based on build investment is to be away for two weeks AND not build much of anything
-				// // else 
-                // if(needsInvestmentScan && investmentScore < minInvestment)
-				// {
-					// removeClaim = true;
-				// }
-				
-				// if(removeClaim)
-				// {
-					// GriefPrevention.instance.dataStore.deleteClaim(claim);
-					// GriefPrevention.AddLogEntry("Removed " + claim.getOwnerName() + "'s unused claim @ " + GriefPrevention.getfriendlyLocationString(claim.getLesserBoundaryCorner()));
-					
-					// //if in a creative mode world, restore the claim area
-					// // if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
-					// // {
-						// // GriefPrevention.instance.restoreClaim(claim, 0);
-					// // }
-				// }
-			// }
-		// }
-		
-		//toss that player data out of the cache, it's probably not needed in memory right now
-		GriefPrevention.instance.dataStore.clearCachedPlayerData(claim.ownerName);
-		
-		//since we're potentially loading a lot of chunks to scan parts of the world where there are no players currently playing, be mindful of memory usage
-		//unfortunately, java/minecraft don't do a good job of clearing unused memory, leading to out of memory errors from this type of world scanning
-		if(this.nextClaimIndex % 20 == 0)
-		{
-			World world = claim.getLesserBoundaryCorner().getWorld();
-			Chunk [] chunks = world.getLoadedChunks();
-			for(int i = 0; i < chunks.length; i++)
+			//if only one claim, and the player hasn't played in a week
+			ArrayList<Claim> claims = dataStore.getClaimsForOwner(owner.ownerName);
+			if(claims.size() == 1)
 			{
-				Chunk chunk = chunks[i];
-				chunk.unload(true, true);
+				//if that's a chest claim, delete it
+				Claim claim = claims.get(0);
+				if(claim.getArea() <= areaOfDefaultClaim)
+				{
+					claim.removeSurfaceFluids(null);
+					dataStore.deleteClaim(claim);
+					
+					//if in a creative mode world, delete the claim
+					// if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
+					// {
+						// GriefPrevention.instance.restoreClaim(claim, 0);
+					// }
+					
+					GriefPrevention.AddLogEntry(" " + owner.ownerName + "'s new player claim expired.");
+				}
 			}
-			
-			System.gc();
 		}
 	}
 }
@@ -20,8 +20,11 @@ package me.ryanhamshire.GriefPrevention;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.bukkit.*;
+import org.bukkit.block.Block;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
@@ -30,21 +33,45 @@ import org.bukkit.inventory.ItemStack;
 //singleton class which manages all GriefPrevention data (except for config options)
 public abstract class DataStore 
 {
-	//in-memory cache for player data
-	protected HashMap<String, PlayerData> playerNameToPlayerDataMap = new HashMap<String, PlayerData>();
+	//in-memory cache for player data, bounded so offline lookups don't pile up over a long uptime
+	protected final PlayerDataCache playerDataCache = new PlayerDataCache();
 	
 	//in-memory cache for group (permission-based) data
-	protected HashMap<String, Integer> permissionToBonusBlocksMap = new HashMap<String, Integer>();
+	protected ConcurrentHashMap<String, Integer> permissionToBonusBlocksMap = new ConcurrentHashMap<String, Integer>();
+	
+	//serializes group bonus adjustments, so the new totals reach storage in the same order they were made
+	private final Object groupBonusLock = new Object();
 	
 	//in-memory cache for claim data
 	ArrayList<Claim> claims = new ArrayList<Claim>();
 	
+	//guards the claims list, the chunk index below, and the claims themselves
+	//lookups share the read lock, so they don't wait on each other (async tasks included)
+	//anything which adds, removes, resizes, or transfers a claim takes the write lock
+	//file and database access is still serialized separately by the storage methods in each subclass
+	final ReentrantReadWriteLock claimsLock = new ReentrantReadWriteLock();
+	
+	//spatial index for claim data, by world name and then by chunk (see getChunkKey())
+	//each list holds every top level claim which overlaps that chunk, in the same order as the claims list above
+	private HashMap<String, HashMap<Long, ArrayList<Claim>>> worldToChunkClaimsMap = new HashMap<String, HashMap<Long, ArrayList<Claim>>>();
+	
+	//top level claims by owner name, also in the same order as the claims list
+	//lets loading a player's data find their claims without scanning every claim
+	private HashMap<String, ArrayList<Claim>> ownerToClaimsMap = new HashMap<String, ArrayList<Claim>>();
+	
+	//claim owners by last login, for the unused claim cleanup
+	final ClaimExpirationIndex expirationIndex = new ClaimExpirationIndex();
+	
 	//in-memory cache for messages
-	private String [] messages;
+	//replaced all at once when loaded, so it's safe to read from any thread without locking
+	private volatile String [] messages;
 	
 	//next claim ID
 	Long nextClaimID = (long)0;
 	
+	//claim and player data writes waiting to go to secondary storage, see WriteBehindQueue
+	final WriteBehindQueue writeQueue = new WriteBehindQueue(this);
+	
 	//path information, for where stuff stored on disk is well...  stored
 	protected final static String dataLayerFolderPath = "plugins" + File.separator + "GriefPreventionData";
 	final static String configFilePath = dataLayerFolderPath + File.separator + "config.yml";
@@ -73,18 +100,35 @@ public abstract class DataStore
 		//load up all the messages from messages.yml
 		this.loadMessages();
 		
+		//start writing queued changes to secondary storage
+		this.writeQueue.start();
+		
 		//collect garbage, since lots of stuff was loaded into memory and then tossed out
 		System.gc();
 	}
 	
 	//removes cached player data from memory
-	synchronized void clearCachedPlayerData(String playerName)
+	void clearCachedPlayerData(String playerName)
+	{
+		this.playerDataCache.remove(playerName);
+	}
+	
+	//drops idle and excess offline players from the player data cache, saving any unsaved changes first
+	//online players are never dropped
+	void trimPlayerDataCache(Set<String> onlinePlayerNames)
 	{
-		this.playerNameToPlayerDataMap.remove(playerName);
+		ArrayList<PlayerData> dirtyData = this.playerDataCache.evict(onlinePlayerNames);
+		for(int i = 0; i < dirtyData.size(); i++)
+		{
+			PlayerData playerData = dirtyData.get(i);
+			this.savePlayerData(playerData.playerName, playerData);
+		}
 	}
 	
 	//gets the number of bonus blocks a player has from his permissions
-	synchronized int getGroupBonusBlocks(String playerName)
+	//checks permissions, so it needs an online player and should only be called from the main thread
+	//most code should use the total cached in the player's data instead, see refreshGroupBonusBlocks()
+	int getGroupBonusBlocks(Player player)
 	{
 		int bonusBlocks = 0;
 		Set<String> keys = permissionToBonusBlocksMap.keySet();
@@ -92,7 +136,6 @@ public abstract class DataStore
 		while(iterator.hasNext())
 		{
 			String groupName = iterator.next();
-			Player player = GriefPrevention.instance.getServer().getPlayer(playerName);
 			if(player.hasPermission(groupName))
 			{
 				bonusBlocks += this.permissionToBonusBlocksMap.get(groupName);
@@ -102,91 +145,262 @@ public abstract class DataStore
 		return bonusBlocks;
 	}
 	
-	//grants a group (players with a specific permission) bonus claim blocks as long as they're still members of the group
-	synchronized public int adjustGroupBonusBlocks(String groupName, int amount)
+	//updates the group bonus total cached in an online player's data
+	//called from the main thread on login, world changes, /adjustbonusclaimblocks, and once a minute (see PlayerDataCacheTrimTask)
+	//checks every group permission, so keep it off busy paths like shovel equips
+	//the total is saved whenever it changes, so offline players keep the total from their last refresh, even after a restart
+	void refreshGroupBonusBlocks(Player player)
 	{
-		Integer currentValue = this.permissionToBonusBlocksMap.get(groupName);
-		if(currentValue == null) currentValue = 0;
+		PlayerData playerData = this.getPlayerData(player.getName());
+		int groupBonusBlocks = this.getGroupBonusBlocks(player);
+		if(groupBonusBlocks == playerData.groupBonusClaimBlocks) return;
 		
-		currentValue += amount;
-		this.permissionToBonusBlocksMap.put(groupName, currentValue);
+		//save the new total, so it's still known after the player logs out
+		playerData.groupBonusClaimBlocks = groupBonusBlocks;
+		this.savePlayerData(player.getName(), playerData);
+	}
+	
+	//grants a group (players with a specific permission) bonus claim blocks as long as they're still members of the group
+	public int adjustGroupBonusBlocks(String groupName, int amount)
+	{
+		Integer currentValue;
+		synchronized(this.groupBonusLock)
+		{
+			currentValue = this.permissionToBonusBlocksMap.get(groupName);
+			if(currentValue == null) currentValue = 0;
+			
+			currentValue += amount;
+			this.permissionToBonusBlocksMap.put(groupName, currentValue);
+			
+			//write changes to storage to ensure they don't get lost
+			this.saveGroupBonusBlocks(groupName, currentValue);
+		}
 		
-		//write changes to storage to ensure they don't get lost
-		this.saveGroupBonusBlocks(groupName, currentValue);
+		//update the totals of everyone who might be in the group
+		Player [] players = GriefPrevention.instance.getServer().getOnlinePlayers();
+		for(int i = 0; i < players.length; i++)
+		{
+			this.refreshGroupBonusBlocks(players[i]);
+		}
 		
 		return currentValue;		
 	}
 	
 	abstract void saveGroupBonusBlocks(String groupName, int amount);
 	
-	synchronized public void changeClaimOwner(Claim claim, String newOwnerName) throws Exception
+	public void changeClaimOwner(Claim claim, String newOwnerName) throws Exception
 	{
-		//if it's a subdivision, throw an exception
-		if(claim.parent != null)
+		this.claimsLock.writeLock().lock();
+		try
 		{
-			throw new Exception("Subdivisions can't be transferred.  Only top-level claims may change owners.");
-		}
+			//if it's a subdivision, throw an exception
+			if(claim.parent != null)
+			{
+				throw new Exception("Subdivisions can't be transferred.  Only top-level claims may change owners.");
+			}
 		
-		//otherwise update information
+			//otherwise update information
 		
-		//determine current claim owner
-		PlayerData ownerData = null;
-		if(!claim.isAdminClaim())
-		{
-			ownerData = this.getPlayerData(claim.ownerName);
-		}
+			//determine current claim owner
+			PlayerData ownerData = null;
+			if(!claim.isAdminClaim())
+			{
+				ownerData = this.getPlayerData(claim.ownerName);
+			}
+		
+			//determine new owner
+			PlayerData newOwnerData = this.getPlayerData(newOwnerName);
 		
-		//determine new owner
-		PlayerData newOwnerData = this.getPlayerData(newOwnerName);
+			//transfer
+			this.removeClaimFromOwnerIndex(claim);
+			claim.ownerName = newOwnerName;
+			this.addClaimToOwnerIndex(claim);
+			claim.clearPermissionCache();
+			this.saveClaim(claim);
 		
-		//transfer
-		claim.ownerName = newOwnerName;
-		this.saveClaim(claim);
+			//adjust blocks and other records
+			if(ownerData != null)
+			{
+				ownerData.removeClaim(claim);
+				ownerData.bonusClaimBlocks -= claim.getArea();
+				this.savePlayerData(claim.ownerName, ownerData);
+			}
 		
-		//adjust blocks and other records
-		if(ownerData != null)
+			newOwnerData.addClaim(claim);
+			newOwnerData.bonusClaimBlocks += claim.getArea();
+			this.savePlayerData(newOwnerName, newOwnerData);
+		}
+		finally
 		{
-			ownerData.claims.remove(claim);
-			ownerData.bonusClaimBlocks -= claim.getArea();
-			this.savePlayerData(claim.ownerName, ownerData);
+			this.claimsLock.writeLock().unlock();
 		}
-		
-		newOwnerData.claims.add(claim);
-		newOwnerData.bonusClaimBlocks += claim.getArea();
-		this.savePlayerData(newOwnerName, newOwnerData);
 	}
 
 	//adds a claim to the datastore, making it an effective claim
-	synchronized void addClaim(Claim newClaim)
+	void addClaim(Claim newClaim)
 	{
-		//subdivisions are easy
-		if(newClaim.parent != null)
+		this.claimsLock.writeLock().lock();
+		try
 		{
-			newClaim.parent.children.add(newClaim);
+			//subdivisions are easy
+			if(newClaim.parent != null)
+			{
+				newClaim.parent.children.add(newClaim);
+				newClaim.parent.clearSubdivisionIndex();
+				newClaim.parent.clearVisualizationCache();
+				newClaim.inDataStore = true;
+				this.saveClaim(newClaim);
+				return;
+			}
+		
+			//add it and mark it as added
+			int j = 0;
+			while(j < this.claims.size() && !this.claims.get(j).greaterThan(newClaim)) j++;
+			if(j < this.claims.size())
+				this.claims.add(j, newClaim);
+			else
+				this.claims.add(this.claims.size(), newClaim);
+			this.addClaimToIndex(newClaim);
 			newClaim.inDataStore = true;
+		
+			//except for administrative claims (which have no owner), update the owner's playerData with the new claim
+			if(!newClaim.isAdminClaim())
+			{
+				PlayerData ownerData = this.getPlayerData(newClaim.getOwnerName());
+				ownerData.addClaim(newClaim);
+				this.savePlayerData(newClaim.getOwnerName(), ownerData);
+			}
+		
+			//make sure the claim is saved to disk
 			this.saveClaim(newClaim);
-			return;
+		}
+		finally
+		{
+			this.claimsLock.writeLock().unlock();
+		}
+	}
+	
+	//packs a pair of chunk coordinates into a single key for the chunk index
+	static long getChunkKey(int chunkX, int chunkZ)
+	{
+		return ((long)chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+	}
+	
+	//adds a top level claim to the chunk index, under every chunk it overlaps, and to the owner index
+	//called whenever a claim is added to the claims list
+	void addClaimToIndex(Claim claim)
+	{
+		HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(claim.worldName);
+		if(chunkClaimsMap == null)
+		{
+			chunkClaimsMap = new HashMap<Long, ArrayList<Claim>>();
+			this.worldToChunkClaimsMap.put(claim.worldName, chunkClaimsMap);
 		}
 		
-		//add it and mark it as added
-		int j = 0;
-		while(j < this.claims.size() && !this.claims.get(j).greaterThan(newClaim)) j++;
-		if(j < this.claims.size())
-			this.claims.add(j, newClaim);
-		else
-			this.claims.add(this.claims.size(), newClaim);
-		newClaim.inDataStore = true;
+		int lesserChunkX = claim.lesserX >> 4;
+		int lesserChunkZ = claim.lesserZ >> 4;
+		int greaterChunkX = claim.greaterX >> 4;
+		int greaterChunkZ = claim.greaterZ >> 4;
 		
-		//except for administrative claims (which have no owner), update the owner's playerData with the new claim
-		if(!newClaim.isAdminClaim())
+		for(int chunkX = lesserChunkX; chunkX <= greaterChunkX; chunkX++)
 		{
-			PlayerData ownerData = this.getPlayerData(newClaim.getOwnerName());
-			ownerData.claims.add(newClaim);
-			this.savePlayerData(newClaim.getOwnerName(), ownerData);
+			for(int chunkZ = lesserChunkZ; chunkZ <= greaterChunkZ; chunkZ++)
+			{
+				Long chunkKey = getChunkKey(chunkX, chunkZ);
+				ArrayList<Claim> chunkClaims = chunkClaimsMap.get(chunkKey);
+				if(chunkClaims == null)
+				{
+					chunkClaims = new ArrayList<Claim>(1);
+					chunkClaimsMap.put(chunkKey, chunkClaims);
+				}
+				
+				//keep the same ordering as the claims list, so lookups behave exactly as a full scan would
+				int j = 0;
+				while(j < chunkClaims.size() && !chunkClaims.get(j).greaterThan(claim)) j++;
+				chunkClaims.add(j, claim);
+			}
 		}
 		
-		//make sure the claim is saved to disk
-		this.saveClaim(newClaim);
+		this.addClaimToOwnerIndex(claim);
+	}
+	
+	//removes a top level claim from the chunk index and the owner index
+	//called whenever a claim is removed from the claims list
+	void removeClaimFromIndex(Claim claim)
+	{
+		this.removeClaimFromOwnerIndex(claim);
+		
+		HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(claim.worldName);
+		if(chunkClaimsMap == null) return;
+		
+		int lesserChunkX = claim.lesserX >> 4;
+		int lesserChunkZ = claim.lesserZ >> 4;
+		int greaterChunkX = claim.greaterX >> 4;
+		int greaterChunkZ = claim.greaterZ >> 4;
+		
+		for(int chunkX = lesserChunkX; chunkX <= greaterChunkX; chunkX++)
+		{
+			for(int chunkZ = lesserChunkZ; chunkZ <= greaterChunkZ; chunkZ++)
+			{
+				Long chunkKey = getChunkKey(chunkX, chunkZ);
+				ArrayList<Claim> chunkClaims = chunkClaimsMap.get(chunkKey);
+				if(chunkClaims == null) continue;
+				
+				chunkClaims.remove(claim);
+				if(chunkClaims.isEmpty()) chunkClaimsMap.remove(chunkKey);
+			}
+		}
+	}
+	
+	//adds a top level claim to its owner's list.  see addClaimToIndex()
+	private void addClaimToOwnerIndex(Claim claim)
+	{
+		ArrayList<Claim> ownerClaims = this.ownerToClaimsMap.get(claim.ownerName);
+		if(ownerClaims == null)
+		{
+			ownerClaims = new ArrayList<Claim>(1);
+			this.ownerToClaimsMap.put(claim.ownerName, ownerClaims);
+			
+			//administrative claims never expire
+			if(claim.ownerName.length() > 0)
+			{
+				this.expirationIndex.addOwner(claim.ownerName, this.playerDataCache.peek(claim.ownerName));
+			}
+		}
+		
+		int j = 0;
+		while(j < ownerClaims.size() && !ownerClaims.get(j).greaterThan(claim)) j++;
+		ownerClaims.add(j, claim);
+	}
+	
+	//removes a top level claim from its owner's list
+	private void removeClaimFromOwnerIndex(Claim claim)
+	{
+		ArrayList<Claim> ownerClaims = this.ownerToClaimsMap.get(claim.ownerName);
+		if(ownerClaims == null) return;
+		
+		ownerClaims.remove(claim);
+		if(ownerClaims.isEmpty())
+		{
+			this.ownerToClaimsMap.remove(claim.ownerName);
+			this.expirationIndex.removeOwner(claim.ownerName);
+		}
+	}
+	
+	//returns a copy of a player's top level claims
+	ArrayList<Claim> getClaimsForOwner(String ownerName)
+	{
+		this.claimsLock.readLock().lock();
+		try
+		{
+			ArrayList<Claim> ownerClaims = this.ownerToClaimsMap.get(ownerName);
+			if(ownerClaims == null) return new ArrayList<Claim>();
+			return new ArrayList<Claim>(ownerClaims);
+		}
+		finally
+		{
+			this.claimsLock.readLock().unlock();
+		}
 	}
 	
 	//turns a location into a string, useful in data storage
@@ -207,22 +421,46 @@ public abstract class DataStore
 	//turns a location string back into a location
 	Location locationFromString(String string) throws Exception
 	{
-		//split the input string on the space
-		String [] elements = string.split(locationStringDelimiter);
-	    
+		return this.locationFromString(string, null);
+	}
+	
+	//same as above, but looks up the world in the provided map instead of asking the server, when a map is provided
+	//splits the string by hand, since this runs for every claim during startup
+	Location locationFromString(String string, Map<String, World> worlds) throws Exception
+	{
 		//expect four elements - world name, X, Y, and Z, respectively
-		if(elements.length != 4)
+		int firstDelimiter = string.indexOf(locationStringDelimiter);
+		int secondDelimiter = firstDelimiter < 0 ? -1 : string.indexOf(locationStringDelimiter, firstDelimiter + 1);
+		int thirdDelimiter = secondDelimiter < 0 ? -1 : string.indexOf(locationStringDelimiter, secondDelimiter + 1);
+		if(thirdDelimiter < 0)
 		{
 			throw new Exception("Expected four distinct parts to the location string.");
 		}
 		
-		String worldName = elements[0];
-		String xString = elements[1];
-		String yString = elements[2];
-		String zString = elements[3];
+		//like String.split(), ignore any trailing delimiters, but no more than four parts otherwise
+		int end = string.length();
+		while(end > thirdDelimiter + 1 && string.charAt(end - 1) == locationStringDelimiter.charAt(0)) end--;
+		if(string.substring(thirdDelimiter + 1, end).contains(locationStringDelimiter))
+		{
+			throw new Exception("Expected four distinct parts to the location string.");
+		}
+		
+		String worldName = string.substring(0, firstDelimiter);
+		String xString = string.substring(firstDelimiter + 1, secondDelimiter);
+		String yString = string.substring(secondDelimiter + 1, thirdDelimiter);
+		String zString = string.substring(thirdDelimiter + 1, end);
 	    
 		//identify world the claim is in
-		World world = GriefPrevention.instance.getServer().getWorld(worldName);
+		World world;
+		if(worlds != null)
+		{
+			world = worlds.get(worldName);
+		}
+		else
+		{
+			world = GriefPrevention.instance.getServer().getWorld(worldName);
+		}
+		
 		if(world == null)
 		{
 			throw new Exception("World not found: \"" + worldName + "\"");
@@ -237,149 +475,426 @@ public abstract class DataStore
 	}	
 
 	//saves any changes to a claim to secondary storage
-	synchronized public void saveClaim(Claim claim)
+	public void saveClaim(Claim claim)
 	{
-		//subdivisions don't save to their own files, but instead live in their parent claim's file
-		//so any attempt to save a subdivision will save its parent (and thus the subdivision)
-		if(claim.parent != null)
+		this.claimsLock.writeLock().lock();
+		try
 		{
-			this.saveClaim(claim.parent);
-			return;
-		}
+			//subdivisions don't save to their own files, but instead live in their parent claim's file
+			//so any attempt to save a subdivision will save its parent (and thus the subdivision)
+			if(claim.parent != null)
+			{
+				this.saveClaim(claim.parent);
+				return;
+			}
 		
-		//otherwise get a unique identifier for the claim which will be used to name the file on disk
-		if(claim.id == null)
+			//otherwise get a unique identifier for the claim which will be used to name the file on disk
+			if(claim.id == null)
+			{
+				claim.id = this.nextClaimID;
+				this.incrementNextClaimID();
+			}
+		
+			//the actual write happens later, on the write queue's thread
+			this.writeQueue.queueClaimWrite(claim);
+		}
+		finally
 		{
-			claim.id = this.nextClaimID;
-			this.incrementNextClaimID();
+			this.claimsLock.writeLock().unlock();
 		}
-		
-		this.writeClaimToStorage(claim);
 	}
 	
+	//writes a top level claim and its subdivisions to secondary storage.  only called by the write queue
 	abstract void writeClaimToStorage(Claim claim);
 	
-	//increments the claim ID and updates secondary storage to be sure it's saved
-	abstract void incrementNextClaimID();
+	//increments the claim ID.  the new value is saved later, on the write queue's thread, so this never waits on storage
+	//callers hold the claims write lock, except while loading claims before anything else can see the data store
+	void incrementNextClaimID()
+	{
+		this.nextClaimID++;
+		this.writeQueue.queueNextClaimIDWrite(this.nextClaimID);
+	}
+	
+	//writes the next claim ID to secondary storage.  only called by the write queue
+	abstract void writeNextClaimIDToStorage(long nextClaimID);
 	
 	//retrieves player data from memory or secondary storage, as necessary
 	//if the player has never been on the server before, this will return a fresh player data with default values
-	synchronized public PlayerData getPlayerData(String playerName)
+	public PlayerData getPlayerData(String playerName)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return this.lookupPlayerData(playerName);
+		}
+		finally
+		{
+			Metrics.getPlayerData.recordSince(start);
+		}
+	}
+	
+	private PlayerData lookupPlayerData(String playerName)
 	{
 		//first, look in memory
-		PlayerData playerData = this.playerNameToPlayerDataMap.get(playerName);
+		PlayerData playerData = this.playerDataCache.get(playerName);
 		
 		//if not there, look in secondary storage
 		if(playerData == null)
 		{
-			playerData = this.getPlayerDataFromStorage(playerName);
+			//unless there's a newer version still waiting to be written
+			PlayerData pendingData = this.writeQueue.getPendingPlayerData(playerName);
+			if(pendingData != null)
+			{
+				playerData = new PlayerData();
+				playerData.lastLogin = pendingData.lastLogin;
+				playerData.accruedClaimBlocks = pendingData.accruedClaimBlocks;
+				playerData.bonusClaimBlocks = pendingData.bonusClaimBlocks;
+				playerData.groupBonusClaimBlocks = pendingData.groupBonusClaimBlocks;
+			}
+			else
+			{
+				playerData = this.getPlayerDataFromStorage(playerName);
+			}
 			playerData.playerName = playerName;
 			
 			//find all the claims belonging to this player and note them for future reference
-			for(int i = 0; i < this.claims.size(); i++)
+			this.claimsLock.readLock().lock();
+			try
 			{
-				Claim claim = this.claims.get(i);
-				if(claim.ownerName.equals(playerName))
+				ArrayList<Claim> ownerClaims = this.ownerToClaimsMap.get(playerName);
+				if(ownerClaims != null)
 				{
-					playerData.claims.add(claim);
+					for(int i = 0; i < ownerClaims.size(); i++)
+					{
+						playerData.addClaim(ownerClaims.get(i));
+					}
 				}
 			}
+			finally
+			{
+				this.claimsLock.readLock().unlock();
+			}
 			
-			//shove that new player data into the hash map cache
-			this.playerNameToPlayerDataMap.put(playerName, playerData);
+			//shove that new player data into the cache
+			//if another thread loaded the same player in the meantime, keep whichever got there first
+			playerData = this.playerDataCache.putIfAbsent(playerName, playerData);
 		}
 		
-		//try the hash map again.  if it's STILL not there, we have a bug to fix
-		return this.playerNameToPlayerDataMap.get(playerName);
+		return playerData;
 	}
 	
 	abstract PlayerData getPlayerDataFromStorage(String playerName);
 	
+	//looks up when a player last logged in, without caching his data
+	//safe to call from any thread, see ClaimExpirationIndexLoadTask
+	Date getStoredLastLogin(String playerName)
+	{
+		PlayerData playerData = this.playerDataCache.peek(playerName);
+		if(playerData == null) playerData = this.writeQueue.getPendingPlayerData(playerName);
+		if(playerData == null) playerData = this.getPlayerDataFromStorage(playerName);
+		
+		return playerData.lastLogin;
+	}
+	
 	//deletes a claim or subdivision
-	synchronized public void deleteClaim(Claim claim)
+	public void deleteClaim(Claim claim)
 	{
-		//subdivisions are simple - just remove them from their parent claim and save that claim
-		if(claim.parent != null)
+		long start = System.nanoTime();
+		this.claimsLock.writeLock().lock();
+		try
 		{
-			Claim parentClaim = claim.parent;
-			parentClaim.children.remove(claim);
-			this.saveClaim(parentClaim);
-			return;
-		}
+			//subdivisions are simple - just remove them from their parent claim and save that claim
+			if(claim.parent != null)
+			{
+				Claim parentClaim = claim.parent;
+				parentClaim.children.remove(claim);
+				parentClaim.clearSubdivisionIndex();
+				parentClaim.clearVisualizationCache();
+				this.saveClaim(parentClaim);
+				return;
+			}
 		
-		//remove from memory
-		for(int i = 0; i < this.claims.size(); i++)
-		{
-			if(claims.get(i).id.equals(claim.id))
+			//remove from memory
+			for(int i = 0; i < this.claims.size(); i++)
 			{
-				this.claims.remove(i);
-				claim.inDataStore = false;
-				for(int j = 0; j < claim.children.size(); j++)
+				if(claims.get(i).id.equals(claim.id))
 				{
-					claim.children.get(j).inDataStore = false;
+					Claim removedClaim = this.claims.remove(i);
+					this.removeClaimFromIndex(removedClaim);
+					claim.inDataStore = false;
+					for(int j = 0; j < claim.children.size(); j++)
+					{
+						claim.children.get(j).inDataStore = false;
+					}
+					break;
 				}
-				break;
 			}
-		}
 		
-		//remove from secondary storage
-		this.deleteClaimFromSecondaryStorage(claim);
+			//remove from secondary storage
+			this.writeQueue.queueClaimDelete(claim);
 		
-		//update player data, except for administrative claims, which have no owner
-		if(!claim.isAdminClaim())
-		{
-			PlayerData ownerData = this.getPlayerData(claim.getOwnerName());
-			for(int i = 0; i < ownerData.claims.size(); i++)
+			//update player data, except for administrative claims, which have no owner
+			if(!claim.isAdminClaim())
 			{
-				if(ownerData.claims.get(i).id.equals(claim.id))
+				PlayerData ownerData = this.getPlayerData(claim.getOwnerName());
+				for(int i = 0; i < ownerData.claims.size(); i++)
 				{
-					ownerData.claims.remove(i);
-					break;
+					if(ownerData.claims.get(i).id.equals(claim.id))
+					{
+						ownerData.removeClaim(ownerData.claims.get(i));
+						break;
+					}
 				}
+				this.savePlayerData(claim.getOwnerName(), ownerData);
+			}
+		}
+		finally
+		{
+			this.claimsLock.writeLock().unlock();
+			
+			long elapsed = System.nanoTime() - start;
+			if(SlowOperationLog.isSlow(elapsed))
+			{
+				SlowOperationLog.log("deleteClaim", elapsed, "claim=" + claim.id + " owner=" + claim.getOwnerName() + " world=" + claim.worldName + " subdivision=" + (claim.parent != null));
 			}
-			this.savePlayerData(claim.getOwnerName(), ownerData);
 		}
 	}
 	
+	//removes a top level claim from secondary storage.  only called by the write queue and during initialization
 	abstract void deleteClaimFromSecondaryStorage(Claim claim);
 	
 	//gets the claim at a specific location
 	//ignoreHeight = TRUE means that a location UNDER an existing claim will return the claim
 	//cachedClaim can be NULL, but will help performance if you have a reasonable guess about which claim the location is in
-	synchronized public Claim getClaimAt(Location location, boolean ignoreHeight, Claim cachedClaim)
+	public Claim getClaimAt(Location location, boolean ignoreHeight, Claim cachedClaim)
+	{
+		//all claims reach from bedrock to sky, so the height never matters
+		return this.getClaimAt(location.getWorld(), location.getBlockX(), location.getBlockZ(), cachedClaim);
+	}
+	
+	//same as above, for a block column.  doesn't allocate anything, so it's the better choice in busy event handlers
+	public Claim getClaimAt(World world, int x, int z, Claim cachedClaim)
 	{
-		//check cachedClaim guess first.  if it's in the datastore and the location is inside it, we're done
-		if(cachedClaim != null && cachedClaim.inDataStore && cachedClaim.contains(location, ignoreHeight, true)) return cachedClaim;
+		long start = System.nanoTime();
+		Claim claim = null;
+		try
+		{
+			claim = this.lookupClaimAt(world, x, z, cachedClaim);
+			return claim;
+		}
+		finally
+		{
+			long elapsed = System.nanoTime() - start;
+			Metrics.getClaimAt.record(elapsed);
+			if(SlowOperationLog.isSlow(elapsed))
+			{
+				SlowOperationLog.log("getClaimAt", elapsed, "world=" + world.getName() + " x=" + x + " z=" + z + " claim=" + (claim == null ? "none" : claim.id) + " candidates=" + this.countClaimsInChunk(world.getName(), x >> 4, z >> 4));
+			}
+		}
+	}
+	
+	//how many claims overlap a chunk, which is how many claims a lookup in that chunk may have to check
+	private int countClaimsInChunk(String worldName, int chunkX, int chunkZ)
+	{
+		this.claimsLock.readLock().lock();
+		try
+		{
+			HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(worldName);
+			if(chunkClaimsMap == null) return 0;
+			
+			ArrayList<Claim> chunkClaims = chunkClaimsMap.get(getChunkKey(chunkX, chunkZ));
+			return chunkClaims == null ? 0 : chunkClaims.size();
+		}
+		finally
+		{
+			this.claimsLock.readLock().unlock();
+		}
+	}
+	
+	private Claim lookupClaimAt(World world, int x, int z, Claim cachedClaim)
+	{
+		String worldName = world.getName();
 		
-		//the claims list is ordered by greater boundary corner
-		//create a temporary "fake" claim in memory for comparison purposes		
-		Claim tempClaim = new Claim();
-		tempClaim.lesserBoundaryCorner = location;
+		this.claimsLock.readLock().lock();
+		try
+		{
+			//check cachedClaim guess first.  if it's in the datastore and the location is inside it, we're done
+			if(cachedClaim != null && cachedClaim.inDataStore && cachedClaim.contains(worldName, x, z, true)) return cachedClaim;
 		
-		//otherwise, search all existing claims until we find the right claim
-		for(int i = 0; i < this.claims.size(); i++)
+			//only claims overlapping the location's chunk can contain it, so look those up in the chunk index
+			HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(worldName);
+			if(chunkClaimsMap == null) return null;
+		
+			ArrayList<Claim> chunkClaims = chunkClaimsMap.get(getChunkKey(x >> 4, z >> 4));
+			if(chunkClaims == null) return null;
+		
+			return this.findClaimInChunk(chunkClaims, worldName, x, z);
+		}
+		finally
 		{
-			Claim claim = this.claims.get(i);
+			this.claimsLock.readLock().unlock();
+		}
+	}
+	
+	//finds a top level claim which overlaps the specified claim, or returns null if there isn't one
+	//only claims sharing a chunk with the new claim can overlap it, so those come from the chunk index
+	//the caller must hold the claims lock
+	private Claim findOverlappingTopLevelClaim(Claim newClaim)
+	{
+		HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(newClaim.worldName);
+		if(chunkClaimsMap == null) return null;
+		
+		int lesserChunkX = newClaim.lesserX >> 4;
+		int lesserChunkZ = newClaim.lesserZ >> 4;
+		int greaterChunkX = newClaim.greaterX >> 4;
+		int greaterChunkZ = newClaim.greaterZ >> 4;
+		
+		//a huge claim covers more chunks than there are claims, so checking every claim is quicker
+		long chunkCount = (long)(greaterChunkX - lesserChunkX + 1) * (greaterChunkZ - lesserChunkZ + 1);
+		if(chunkCount > this.claims.size())
+		{
+			return findOverlappingClaim(newClaim, this.claims);
+		}
+		
+		for(int chunkX = lesserChunkX; chunkX <= greaterChunkX; chunkX++)
+		{
+			for(int chunkZ = lesserChunkZ; chunkZ <= greaterChunkZ; chunkZ++)
+			{
+				ArrayList<Claim> chunkClaims = chunkClaimsMap.get(getChunkKey(chunkX, chunkZ));
+				if(chunkClaims == null) continue;
+				
+				Claim overlappedClaim = findOverlappingClaim(newClaim, chunkClaims);
+				if(overlappedClaim != null) return overlappedClaim;
+			}
+		}
+		
+		return null;
+	}
+	
+	//finds a claim in the list which overlaps the specified claim, or returns null if there isn't one
+	private static Claim findOverlappingClaim(Claim newClaim, ArrayList<Claim> claimsToCheck)
+	{
+		for(int i = 0; i < claimsToCheck.size(); i++)
+		{
+			Claim otherClaim = claimsToCheck.get(i);
+			if(otherClaim.overlaps(newClaim)) return otherClaim;
+		}
+		
+		return null;
+	}
+	
+	//finds the claims for many blocks at once, for events which move or destroy lots of blocks (pistons, explosions)
+	//all the blocks must be in the same world.  result[i] is the claim for blocks.get(i), or null if it's not claimed
+	public Claim [] getClaimsAt(List<Block> blocks)
+	{
+		if(blocks.size() == 0) return new Claim[0];
+		
+		int [] x = new int[blocks.size()];
+		int [] z = new int[blocks.size()];
+		for(int i = 0; i < blocks.size(); i++)
+		{
+			Block block = blocks.get(i);
+			x[i] = block.getX();
+			z[i] = block.getZ();
+		}
+		
+		return this.getClaimsAt(blocks.get(0).getWorld(), x, z);
+	}
+	
+	//same as above, for block columns given as coordinates.  result[i] is the claim at (x[i], z[i]), or null
+	//the columns are visited grouped by chunk, so each chunk is looked up in the index once,
+	//and each column first checks the claim found for the column before it, which is usually the right answer
+	public Claim [] getClaimsAt(World world, int [] x, int [] z)
+	{
+		String worldName = world.getName();
+		Claim [] results = new Claim[x.length];
+		
+		//sort the columns by chunk.  each entry packs the chunk coordinates (22 bits each is enough for the whole 30 million block world)
+		//above the column's index (the low 20 bits), so sorting plain longs is enough to group them
+		long [] order = null;
+		if(x.length > 1 && x.length <= (1 << 20))
+		{
+			order = new long[x.length];
+			for(int i = 0; i < x.length; i++)
+			{
+				long chunkX = (x[i] >> 4) + (1 << 21);
+				long chunkZ = (z[i] >> 4) + (1 << 21);
+				order[i] = (chunkX << 42) | ((chunkZ & 0x3FFFFF) << 20) | i;
+			}
 			
-			//if we reach a claim which is greater than the temp claim created above, there's definitely no claim
-			//in the collection which includes our location
-			if(claim.greaterThan(tempClaim)) return null;
+			Arrays.sort(order);
+		}
+		
+		this.claimsLock.readLock().lock();
+		try
+		{
+			HashMap<Long, ArrayList<Claim>> chunkClaimsMap = this.worldToChunkClaimsMap.get(worldName);
+			if(chunkClaimsMap == null) return results;
+			
+			boolean haveChunk = false;
+			int currentChunkX = 0;
+			int currentChunkZ = 0;
+			ArrayList<Claim> chunkClaims = null;
+			Claim previousClaim = null;
 			
+			for(int j = 0; j < x.length; j++)
+			{
+				int i = (order == null) ? j : (int)(order[j] & 0xFFFFF);
+				
+				//only go back to the index when moving on to another chunk
+				int chunkX = x[i] >> 4;
+				int chunkZ = z[i] >> 4;
+				if(!haveChunk || chunkX != currentChunkX || chunkZ != currentChunkZ)
+				{
+					chunkClaims = chunkClaimsMap.get(getChunkKey(chunkX, chunkZ));
+					currentChunkX = chunkX;
+					currentChunkZ = chunkZ;
+					haveChunk = true;
+				}
+				
+				//nothing claimed anywhere in this chunk
+				if(chunkClaims == null) continue;
+				
+				//most of the time, the neighboring block is in the same claim
+				if(previousClaim != null && previousClaim.contains(worldName, x[i], z[i], true))
+				{
+					results[i] = previousClaim;
+					continue;
+				}
+				
+				results[i] = this.findClaimInChunk(chunkClaims, worldName, x[i], z[i]);
+				if(results[i] != null) previousClaim = results[i];
+			}
+			
+			return results;
+		}
+		finally
+		{
+			this.claimsLock.readLock().unlock();
+		}
+	}
+	
+	//searches the claims overlapping one chunk for the claim (or subdivision) containing a block column
+	//the caller must hold the claims lock
+	private Claim findClaimInChunk(ArrayList<Claim> chunkClaims, String worldName, int x, int z)
+	{
+		//search the claims in that chunk until we find the right claim
+		for(int i = 0; i < chunkClaims.size(); i++)
+		{
+			Claim claim = chunkClaims.get(i);
+		
 			//find a top level claim
-			if(claim.contains(location, ignoreHeight, false))
+			if(claim.contains(worldName, x, z, false))
 			{
 				//when we find a top level claim, if the location is in one of its subdivisions,
 				//return the SUBDIVISION, not the top level claim
-				for(int j = 0; j < claim.children.size(); j++)
-				{
-					Claim subdivision = claim.children.get(j);
-					if(subdivision.contains(location, ignoreHeight, false)) return subdivision;
-				}						
-					
+				Claim subdivision = claim.getSubdivisionAt(worldName, x, z);
+				if(subdivision != null) return subdivision;
+				
 				return claim;
 			}
 		}
-		
+	
 		//if no claim found, return null
 		return null;
 	}
@@ -393,129 +908,165 @@ public abstract class DataStore
 	//does NOT check a player has permission to create a claim, or enough claim blocks.
 	//does NOT check minimum claim size constraints
 	//does NOT visualize the new claim for any players	
-	synchronized public CreateClaimResult createClaim(World world, int x1, int x2, int y1, int y2, int z1, int z2, String ownerName, Claim parent, Long id)
+	public CreateClaimResult createClaim(World world, int x1, int x2, int y1, int y2, int z1, int z2, String ownerName, Claim parent, Long id)
 	{
-        // HACK: Hardcode all claims go bedrock to sky
-        y1 = y2 = 0;
+		long start = System.nanoTime();
+		this.claimsLock.writeLock().lock();
+		try
+		{
+	        // HACK: Hardcode all claims go bedrock to sky
+	        y1 = y2 = 0;
     
-		CreateClaimResult result = new CreateClaimResult();
+			CreateClaimResult result = new CreateClaimResult();
 		
-		int smallx, bigx, smally, bigy, smallz, bigz;
+			int smallx, bigx, smally, bigy, smallz, bigz;
 
-		//determine small versus big inputs
-		if(x1 < x2)
-		{
-			smallx = x1;
-			bigx = x2;
-		}
-		else
-		{
-			smallx = x2;
-			bigx = x1;
-		}
+			//determine small versus big inputs
+			if(x1 < x2)
+			{
+				smallx = x1;
+				bigx = x2;
+			}
+			else
+			{
+				smallx = x2;
+				bigx = x1;
+			}
 		
-		if(y1 < y2)
-		{
-			smally = y1;
-			bigy = y2;
-		}
-		else
-		{
-			smally = y2;
-			bigy = y1;
-		}
+			if(y1 < y2)
+			{
+				smally = y1;
+				bigy = y2;
+			}
+			else
+			{
+				smally = y2;
+				bigy = y1;
+			}
 		
-		if(z1 < z2)
-		{
-			smallz = z1;
-			bigz = z2;
-		}
-		else
-		{
-			smallz = z2;
-			bigz = z1;
-		}
+			if(z1 < z2)
+			{
+				smallz = z1;
+				bigz = z2;
+			}
+			else
+			{
+				smallz = z2;
+				bigz = z1;
+			}
 		
-		//creative mode claims always go to bedrock
-		// if(GriefPrevention.instance.config_claims_enabledCreativeWorlds.contains(world))
-		// {
-			// smally = 2;
-		// }
+			//creative mode claims always go to bedrock
+			// if(GriefPrevention.instance.config_claims_enabledCreativeWorlds.contains(world))
+			// {
+				// smally = 2;
+			// }
 		
-		//create a new claim instance (but don't save it, yet)
-		Claim newClaim = new Claim(
-			new Location(world, smallx, smally, smallz),
-			new Location(world, bigx, bigy, bigz),
-			ownerName,
-			new String [] {}, 
-			new String [] {},
-			new String [] {},
-			new String [] {},
-			id);
-		
-		newClaim.parent = parent;
-		
-		//ensure this new claim won't overlap any existing claims
-		ArrayList<Claim> claimsToCheck;
-		if(newClaim.parent != null)
-		{
-			claimsToCheck = newClaim.parent.children;			
-		}
-		else
-		{
-			claimsToCheck = this.claims;
-		}
-
-		for(int i = 0; i < claimsToCheck.size(); i++)
-		{
-			Claim otherClaim = claimsToCheck.get(i);
+			//create a new claim instance (but don't save it, yet)
+			Claim newClaim = new Claim(
+				new Location(world, smallx, smally, smallz),
+				new Location(world, bigx, bigy, bigz),
+				ownerName,
+				new String [] {}, 
+				new String [] {},
+				new String [] {},
+				new String [] {},
+				id);
+		
+			newClaim.parent = parent;
+		
+			//ensure this new claim won't overlap any existing claims
+			Claim overlappedClaim;
+			if(newClaim.parent != null)
+			{
+				overlappedClaim = newClaim.parent.getOverlappingSubdivision(newClaim);			
+			}
+			else
+			{
+				overlappedClaim = this.findOverlappingTopLevelClaim(newClaim);
+			}
 			
 			//if we find an existing claim which will be overlapped
-			if(otherClaim.overlaps(newClaim))
+			if(overlappedClaim != null)
 			{
 				//result = fail, return conflicting claim
 				result.succeeded = false;
-				result.claim = otherClaim;
+				result.claim = overlappedClaim;
 				return result;
 			}
-		}
 		
-		//otherwise add this new claim to the data store to make it effective
-		this.addClaim(newClaim);
+			//otherwise add this new claim to the data store to make it effective
+			this.addClaim(newClaim);
 		
-		//then return success along with reference to new claim
-		result.succeeded = true;
-		result.claim = newClaim;
-		return result;
+			//then return success along with reference to new claim
+			result.succeeded = true;
+			result.claim = newClaim;
+			return result;
+		}
+		finally
+		{
+			this.claimsLock.writeLock().unlock();
+			
+			long elapsed = System.nanoTime() - start;
+			if(SlowOperationLog.isSlow(elapsed))
+			{
+				SlowOperationLog.log("createClaim", elapsed, "world=" + world.getName() + " x=" + x1 + ".." + x2 + " z=" + z1 + ".." + z2 + " owner=" + ownerName + " parent=" + (parent == null ? "none" : parent.id));
+			}
+		}
 	}
 	
 	//saves changes to player data to secondary storage.  MUST be called after you're done making changes, otherwise a reload will lose them
-	public abstract void savePlayerData(String playerName, PlayerData playerData);
+	//the actual write happens later, on the write queue's thread
+	public void savePlayerData(String playerName, PlayerData playerData)
+	{
+		//never save data for the "administrative" account.  an empty string for player name indicates administrative account
+		if(playerName.length() == 0) return;
+		
+		long start = System.nanoTime();
+		
+		this.writeQueue.queuePlayerDataWrite(playerName, playerData);
+		this.playerDataCache.markSaved(playerName, playerData);
+		
+		//keep the claim expiration order up to date (this is how logins reach it)
+		if(playerData.lastLogin != null) this.expirationIndex.setLastLogin(playerName, playerData.lastLogin.getTime());
+		
+		Metrics.savePlayerData.recordSince(start);
+	}
+	
+	//writes player data to secondary storage.  only called by the write queue
+	abstract void writePlayerDataToStorage(String playerName, PlayerData playerData);
 	
 	//extends a claim to a new depth
 	//respects the max depth config variable
-	synchronized public void extendClaim(Claim claim, int newDepth) 
+	public void extendClaim(Claim claim, int newDepth) 
 	{
-		if(newDepth < GriefPrevention.instance.config_claims_maxDepth) newDepth = GriefPrevention.instance.config_claims_maxDepth;
+		this.claimsLock.writeLock().lock();
+		try
+		{
+			if(newDepth < GriefPrevention.instance.config_claims_maxDepth) newDepth = GriefPrevention.instance.config_claims_maxDepth;
 		
-		if(claim.parent != null) claim = claim.parent;
+			if(claim.parent != null) claim = claim.parent;
 		
-		//delete the claim
-		this.deleteClaim(claim);
+			//delete the claim
+			this.deleteClaim(claim);
 		
-		//re-create it at the new depth
-		claim.lesserBoundaryCorner.setY(newDepth);
-		claim.greaterBoundaryCorner.setY(newDepth);
+			//re-create it at the new depth
+			claim.lesserBoundaryCorner.setY(newDepth);
+			claim.greaterBoundaryCorner.setY(newDepth);
 		
-		//make all subdivisions reach to the same depth
-		for(int i = 0; i < claim.children.size(); i++)
+			//make all subdivisions reach to the same depth
+			for(int i = 0; i < claim.children.size(); i++)
+			{
+				claim.children.get(i).lesserBoundaryCorner.setY(newDepth);
+				claim.children.get(i).greaterBoundaryCorner.setY(newDepth);
+			}
+		
+			//save changes
+			this.addClaim(claim);
+		}
+		finally
 		{
-			claim.children.get(i).lesserBoundaryCorner.setY(newDepth);
-			claim.children.get(i).greaterBoundaryCorner.setY(newDepth);
+			this.claimsLock.writeLock().unlock();
 		}
-		
-		//save changes
-		this.addClaim(claim);
 	}
 
 	//starts a siege on a claim
@@ -715,93 +1266,109 @@ public abstract class DataStore
 	// }		
 	
 	//deletes all claims owned by a player
-	synchronized public void deleteClaimsForPlayer(String playerName, boolean deleteCreativeClaims)
+	public void deleteClaimsForPlayer(String playerName, boolean deleteCreativeClaims)
 	{
-		//make a list of the player's claims
-		ArrayList<Claim> claimsToDelete = new ArrayList<Claim>();
-		for(int i = 0; i < this.claims.size(); i++)
+		this.claimsLock.writeLock().lock();
+		try
 		{
-			Claim claim = this.claims.get(i);
-			// if(claim.ownerName.equals(playerName) && (deleteCreativeClaims || !GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner())))
-			if(claim.ownerName.equals(playerName))
-				claimsToDelete.add(claim);
-		}
+			//make a list of the player's claims
+			ArrayList<Claim> claimsToDelete = new ArrayList<Claim>();
+			ArrayList<Claim> ownerClaims = this.ownerToClaimsMap.get(playerName);
+			if(ownerClaims != null)
+			{
+				// if(deleteCreativeClaims || !GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
+				claimsToDelete.addAll(ownerClaims);
+			}
 		
-		//delete them one by one
-		for(int i = 0; i < claimsToDelete.size(); i++)
-		{
-			Claim claim = claimsToDelete.get(i); 
-			claim.removeSurfaceFluids(null);
+			//delete them one by one
+			for(int i = 0; i < claimsToDelete.size(); i++)
+			{
+				Claim claim = claimsToDelete.get(i); 
+				claim.removeSurfaceFluids(null);
 			
-			this.deleteClaim(claim);
+				this.deleteClaim(claim);
 			
-			//if in a creative mode world, delete the claim
-			// if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
-			// {
-				// GriefPrevention.instance.restoreClaim(claim, 0);
-			// }
-		}					
+				//if in a creative mode world, delete the claim
+				// if(GriefPrevention.instance.creativeRulesApply(claim.getLesserBoundaryCorner()))
+				// {
+					// GriefPrevention.instance.restoreClaim(claim, 0);
+				// }
+			}					
+		}
+		finally
+		{
+			this.claimsLock.writeLock().unlock();
+		}
 	}
 
 	//tries to resize a claim
 	//see CreateClaim() for details on return value
-	synchronized public CreateClaimResult resizeClaim(Claim claim, int newx1, int newx2, int newy1, int newy2, int newz1, int newz2)
+	public CreateClaimResult resizeClaim(Claim claim, int newx1, int newx2, int newy1, int newy2, int newz1, int newz2)
 	{
-		//remove old claim
-		this.deleteClaim(claim);					
+		this.claimsLock.writeLock().lock();
+		try
+		{
+			//remove old claim
+			this.deleteClaim(claim);					
 		
-		//try to create this new claim, ignoring the original when checking for overlap
-		CreateClaimResult result = this.createClaim(claim.getLesserBoundaryCorner().getWorld(), newx1, newx2, newy1, newy2, newz1, newz2, claim.ownerName, claim.parent, claim.id);
+			//try to create this new claim, ignoring the original when checking for overlap
+			CreateClaimResult result = this.createClaim(claim.getLesserBoundaryCorner().getWorld(), newx1, newx2, newy1, newy2, newz1, newz2, claim.ownerName, claim.parent, claim.id);
 		
-		//if succeeded
-		if(result.succeeded)
-		{
-			//copy permissions from old claim
-			ArrayList<String> builders = new ArrayList<String>();
-			ArrayList<String> containers = new ArrayList<String>();
-			ArrayList<String> accessors = new ArrayList<String>();
-			ArrayList<String> managers = new ArrayList<String>();
-			claim.getPermissions(builders, containers, accessors, managers);
+			//if succeeded
+			if(result.succeeded)
+			{
+				//copy permissions from old claim
+				ArrayList<String> builders = new ArrayList<String>();
+				ArrayList<String> containers = new ArrayList<String>();
+				ArrayList<String> accessors = new ArrayList<String>();
+				ArrayList<String> managers = new ArrayList<String>();
+				claim.getPermissions(builders, containers, accessors, managers);
 			
-			for(int i = 0; i < builders.size(); i++)
-				result.claim.setPermission(builders.get(i), ClaimPermission.Build);
+				for(int i = 0; i < builders.size(); i++)
+					result.claim.setPermission(builders.get(i), ClaimPermission.Build);
 			
-			for(int i = 0; i < containers.size(); i++)
-				result.claim.setPermission(containers.get(i), ClaimPermission.Inventory);
+				for(int i = 0; i < containers.size(); i++)
+					result.claim.setPermission(containers.get(i), ClaimPermission.Inventory);
 			
-			for(int i = 0; i < accessors.size(); i++)
-				result.claim.setPermission(accessors.get(i), ClaimPermission.Access);
+				for(int i = 0; i < accessors.size(); i++)
+					result.claim.setPermission(accessors.get(i), ClaimPermission.Access);
 			
-			for(int i = 0; i < managers.size(); i++)
-			{
-				result.claim.managers.add(managers.get(i));
-			}
+				for(int i = 0; i < managers.size(); i++)
+				{
+					result.claim.managers.add(managers.get(i));
+				}
 			
-			//copy subdivisions from old claim
-			for(int i = 0; i < claim.children.size(); i++)
+				//copy subdivisions from old claim
+				for(int i = 0; i < claim.children.size(); i++)
+				{
+					Claim subdivision = claim.children.get(i);
+					subdivision.parent = result.claim;
+					result.claim.children.add(subdivision);
+				}
+				result.claim.clearSubdivisionIndex();
+			
+				//save those changes
+				this.saveClaim(result.claim);
+			}
+		
+			else
 			{
-				Claim subdivision = claim.children.get(i);
-				subdivision.parent = result.claim;
-				result.claim.children.add(subdivision);
+				//put original claim back
+				this.addClaim(claim);
 			}
-			
-			//save those changes
-			this.saveClaim(result.claim);
-		}
 		
-		else
+			return result;
+		}
+		finally
 		{
-			//put original claim back
-			this.addClaim(claim);
+			this.claimsLock.writeLock().unlock();
 		}
-		
-		return result;
 	}
 	
 	private void loadMessages() 
 	{
 		Messages [] messageIDs = Messages.values();
-		this.messages = new String[Messages.values().length];
+		String [] messages = new String[Messages.values().length];
 		
 		HashMap<String, CustomizableMessage> defaults = new HashMap<String, CustomizableMessage>();
 		
@@ -953,7 +1520,7 @@ public abstract class DataStore
 		this.addDefault(defaults, Messages.AdjustGroupBlocksSuccess, "Adjusted bonus claim blocks for players with the {0} permission by {1}.  New total: {2}.", "0: permission; 1: adjustment amount; 2: new total bonus");
 		this.addDefault(defaults, Messages.InvalidPermissionID, "Please specify a player name, or a permission in [brackets].", null);
 		this.addDefault(defaults, Messages.UntrustOwnerOnly, "Only {0} can revoke permissions here.", "0: claim owner's name");
-		this.addDefault(defaults, Messages.HowToClaimRegex, "(^|.*\\W)how\\W.*\\W(claim|protect|lock)(\\W.*|$)", "This is a Java Regular Expression.  Look it up before editing!  It's used to tell players about the demo video when they ask how to claim land.");
+		this.addDefault(defaults, Messages.HowToClaimRegex, ChatScanner.defaultHowToClaimRegex, "This is a Java Regular Expression.  Look it up before editing!  It's used to tell players about the demo video when they ask how to claim land.");
 		this.addDefault(defaults, Messages.NoBuildOutsideClaims, "You can't build here unless you claim some land first.", null);
 		this.addDefault(defaults, Messages.PlayerOfflineTime, "  Last login: {0} days ago.", "0: number of full days since last login");
 		this.addDefault(defaults, Messages.BuildingOutsideClaims, "Other players can undo your work here!  Consider claiming this area to protect your work.", null);
@@ -980,8 +1547,8 @@ public abstract class DataStore
 			}
 			
 			//read the message from the file, use default if necessary
-			this.messages[messageID.ordinal()] = config.getString("Messages." + messageID.name() + ".Text", messageData.text);
-			config.set("Messages." + messageID.name() + ".Text", this.messages[messageID.ordinal()]);
+			messages[messageID.ordinal()] = config.getString("Messages." + messageID.name() + ".Text", messageData.text);
+			config.set("Messages." + messageID.name() + ".Text", messages[messageID.ordinal()]);
 			
 			if(messageData.notes != null)
 			{
@@ -990,6 +1557,9 @@ public abstract class DataStore
 			}
 		}
 		
+		//make the new messages visible to all threads at once
+		this.messages = messages;
+		
 		//save any changes
 		try
 		{
@@ -1011,7 +1581,7 @@ public abstract class DataStore
 		defaults.put(id.name(), message);		
 	}
 
-	synchronized public String getMessage(Messages messageID, String... args)
+	public String getMessage(Messages messageID, String... args)
 	{
 		String message = messages[messageID.ordinal()];
 		
@@ -1024,5 +1594,12 @@ public abstract class DataStore
 		return message;		
 	}
 	
-	abstract void close();	
+	//writes any queued changes, then releases secondary storage
+	void close()
+	{
+		this.writeQueue.close();
+		this.closeStorage();
+	}
+	
+	abstract void closeStorage();
 }
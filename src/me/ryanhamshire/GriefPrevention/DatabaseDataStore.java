@@ -20,10 +20,11 @@ package me.ryanhamshire.GriefPrevention;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.text.SimpleDateFormat;
+import java.sql.Timestamp;
 import java.util.*;
 
 import org.bukkit.*;
@@ -37,6 +38,15 @@ public class DatabaseDataStore extends DataStore
 	private String userName;
 	private String password;
 	
+	//statements prepared once when the connection is made, then reused for every read and write
+	private PreparedStatement insertClaimStatement;
+	private PreparedStatement deleteClaimStatement;
+	private PreparedStatement selectSubdivisionsStatement;
+	private PreparedStatement selectPlayerDataStatement;
+	private PreparedStatement updatePlayerDataStatement;
+	private PreparedStatement insertPlayerDataStatement;
+	private PreparedStatement updateNextClaimIdStatement;
+	
 	DatabaseDataStore(String url, String userName, String password) throws Exception
 	{
 		this.databaseUrl = url;
@@ -85,7 +95,16 @@ public class DatabaseDataStore extends DataStore
 			
 			statement.execute("CREATE TABLE IF NOT EXISTS griefprevention_claimdata (id INT(15), owner VARCHAR(50), lessercorner VARCHAR(100), greatercorner VARCHAR(100), builders VARCHAR(1000), containers VARCHAR(1000), accessors VARCHAR(1000), managers VARCHAR(1000), parentid INT(15));");
 			
-			statement.execute("CREATE TABLE IF NOT EXISTS griefprevention_playerdata (name VARCHAR(50), lastlogin DATETIME, accruedblocks INT(15), bonusblocks INT(15));");
+			statement.execute("CREATE TABLE IF NOT EXISTS griefprevention_playerdata (name VARCHAR(50), lastlogin DATETIME, accruedblocks INT(15), bonusblocks INT(15), groupbonusblocks INT(15) DEFAULT 0);");
+			
+			//tables created by older versions don't have the group bonus column yet
+			ResultSet columns = databaseConnection.getMetaData().getColumns(null, null, "griefprevention_playerdata", "groupbonusblocks");
+			boolean hasGroupBonusColumn = columns.next();
+			columns.close();
+			if(!hasGroupBonusColumn)
+			{
+				statement.execute("ALTER TABLE griefprevention_playerdata ADD COLUMN groupbonusblocks INT(15) DEFAULT 0;");
+			}
 		}
 		catch(Exception e3)
 		{
@@ -94,6 +113,9 @@ public class DatabaseDataStore extends DataStore
 			throw e3;
 		}
 		
+		//prepare the statements used to read and write claims and players
+		this.prepareStatements();
+		
 		//load group data into memory
 		Statement statement = databaseConnection.createStatement();
 		ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_playerdata;");
@@ -185,12 +207,13 @@ public class DatabaseDataStore extends DataStore
 						this.claims.add(j, topLevelClaim);
 					else
 						this.claims.add(this.claims.size(), topLevelClaim);
+					this.addClaimToIndex(topLevelClaim);
 					topLevelClaim.inDataStore = true;								
 				}
 				
 				//look for any subdivisions for this claim
-				Statement statement2 = this.databaseConnection.createStatement();
-				ResultSet childResults = statement2.executeQuery("SELECT * FROM griefprevention_claimdata WHERE parentid=" + topLevelClaim.id + ";");
+				this.selectSubdivisionsStatement.setLong(1, topLevelClaim.id);
+				ResultSet childResults = this.selectSubdivisionsStatement.executeQuery();
 				
 				while(childResults.next())
 				{			
@@ -219,6 +242,8 @@ public class DatabaseDataStore extends DataStore
 					topLevelClaim.children.add(childClaim);
 					childClaim.inDataStore = true;						
 				}
+				
+				childResults.close();
 			}
 			catch(SQLException e)
 			{
@@ -235,33 +260,68 @@ public class DatabaseDataStore extends DataStore
 		super.initialize();
 	}
 	
+	//prepares the statements reused for all reads and writes
+	private void prepareStatements() throws SQLException
+	{
+		this.insertClaimStatement = this.databaseConnection.prepareStatement("INSERT INTO griefprevention_claimdata VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?);");
+		this.deleteClaimStatement = this.databaseConnection.prepareStatement("DELETE FROM griefprevention_claimdata WHERE id=? OR parentid=?;");
+		this.selectSubdivisionsStatement = this.databaseConnection.prepareStatement("SELECT * FROM griefprevention_claimdata WHERE parentid=?;");
+		this.selectPlayerDataStatement = this.databaseConnection.prepareStatement("SELECT * FROM griefprevention_playerdata WHERE name=?;");
+		this.updatePlayerDataStatement = this.databaseConnection.prepareStatement("UPDATE griefprevention_playerdata SET lastlogin=?, accruedblocks=?, bonusblocks=?, groupbonusblocks=? WHERE name=?;");
+		this.insertPlayerDataStatement = this.databaseConnection.prepareStatement("INSERT INTO griefprevention_playerdata (name, lastlogin, accruedblocks, bonusblocks, groupbonusblocks) VALUES (?, ?, ?, ?, ?);");
+		this.updateNextClaimIdStatement = this.databaseConnection.prepareStatement("UPDATE griefprevention_nextclaimid SET nextid=?;");
+	}
+	
 	@Override
 	synchronized void writeClaimToStorage(Claim claim)  //see datastore.cs.  this will ALWAYS be a top level claim
 	{
+		//the whole claim is replaced in one transaction: one delete, then one batch of inserts for the claim and all its subdivisions
 		try
 		{
+			this.databaseConnection.setAutoCommit(false);
+			
 			//wipe out any existing data about this claim
-			this.deleteClaimFromSecondaryStorage(claim);
+			this.deleteClaimStatement.setLong(1, claim.id);
+			this.deleteClaimStatement.setLong(2, claim.id);
+			this.deleteClaimStatement.executeUpdate();
 			
-			//write top level claim data to the database
-			this.writeClaimData(claim);
+			//write top level claim data to the batch
+			this.addClaimData(claim);
 					
 			//for each subdivision
 			for(int i = 0; i < claim.children.size(); i++)
 			{
-				//write the subdivision's data to the database
-				this.writeClaimData(claim.children.get(i));
+				//add the subdivision's data to the batch
+				this.addClaimData(claim.children.get(i));
 			}
+			
+			this.insertClaimStatement.executeBatch();
+			this.databaseConnection.commit();
 		}
 		catch(SQLException e)
 		{
 			GriefPrevention.AddLogEntry("Unable to save data for claim at " + this.locationToString(claim.lesserBoundaryCorner) + ".  Details:");
 			GriefPrevention.AddLogEntry(e.getMessage());
+			
+			try
+			{
+				this.insertClaimStatement.clearBatch();
+				this.databaseConnection.rollback();
+			}
+			catch(SQLException e2){}
+		}
+		finally
+		{
+			try
+			{
+				this.databaseConnection.setAutoCommit(true);
+			}
+			catch(SQLException e){}
 		}
 	}
 	
-	//actually writes claim data to the database
-	synchronized private void writeClaimData(Claim claim) throws SQLException
+	//adds a claim's data to the pending batch of claim inserts
+	private void addClaimData(Claim claim) throws SQLException
 	{
 		String lesserCornerString = this.locationToString(claim.getLesserBoundaryCorner());
 		String greaterCornerString = this.locationToString(claim.getGreaterBoundaryCorner());
@@ -274,30 +334,6 @@ public class DatabaseDataStore extends DataStore
 		
 		claim.getPermissions(builders, containers, accessors, managers);
 		
-		String buildersString = "";
-		for(int i = 0; i < builders.size(); i++)
-		{
-			buildersString += builders.get(i) + ";";
-		}
-		
-		String containersString = "";
-		for(int i = 0; i < containers.size(); i++)
-		{
-			containersString += containers.get(i) + ";";
-		}
-		
-		String accessorsString = "";
-		for(int i = 0; i < accessors.size(); i++)
-		{
-			accessorsString += accessors.get(i) + ";";
-		}
-
-		String managersString = "";
-		for(int i = 0; i < managers.size(); i++)
-		{
-			managersString += managers.get(i) + ";";
-		}
-		
 		long parentId;
 		if(claim.parent == null)
 		{
@@ -318,26 +354,28 @@ public class DatabaseDataStore extends DataStore
 			id = claim.id;
 		}
 		
-		try
-		{
-			Statement statement = databaseConnection.createStatement();
-			statement.execute("INSERT INTO griefprevention_claimdata VALUES(" +
-					id + ", '" +
-					owner + "', '" +
-					lesserCornerString + "', '" +
-					greaterCornerString + "', '" +
-					buildersString + "', '" +
-					containersString + "', '" +
-					accessorsString + "', '" +
-					managersString + "', " +
-					parentId +		
-					");");
-		}
-		catch(SQLException e)
+		this.insertClaimStatement.setLong(1, id);
+		this.insertClaimStatement.setString(2, owner);
+		this.insertClaimStatement.setString(3, lesserCornerString);
+		this.insertClaimStatement.setString(4, greaterCornerString);
+		this.insertClaimStatement.setString(5, this.joinNames(builders));
+		this.insertClaimStatement.setString(6, this.joinNames(containers));
+		this.insertClaimStatement.setString(7, this.joinNames(accessors));
+		this.insertClaimStatement.setString(8, this.joinNames(managers));
+		this.insertClaimStatement.setLong(9, parentId);
+		this.insertClaimStatement.addBatch();
+	}
+	
+	//builds the semicolon-delimited list stored for each permission level
+	private String joinNames(ArrayList<String> names)
+	{
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < names.size(); i++)
 		{
-			GriefPrevention.AddLogEntry("Unable to save data for claim at " + this.locationToString(claim.lesserBoundaryCorner) + ".  Details:");
-			GriefPrevention.AddLogEntry(e.getMessage());
+			builder.append(names.get(i)).append(';');
 		}
+		
+		return builder.toString();
 	}
 	
 	//deletes a top level claim from the database
@@ -346,9 +384,9 @@ public class DatabaseDataStore extends DataStore
 	{
 		try
 		{
-			Statement statement = this.databaseConnection.createStatement();
-			statement.execute("DELETE FROM griefprevention_claimdata WHERE id=" + claim.id + ";");			
-			statement.execute("DELETE FROM griefprevention_claimdata WHERE parentid=" + claim.id + ";");
+			this.deleteClaimStatement.setLong(1, claim.id);
+			this.deleteClaimStatement.setLong(2, claim.id);
+			this.deleteClaimStatement.executeUpdate();
 		}
 		catch(SQLException e)
 		{
@@ -365,8 +403,8 @@ public class DatabaseDataStore extends DataStore
 		
 		try
 		{
-			Statement statement = this.databaseConnection.createStatement();
-			ResultSet results = statement.executeQuery("SELECT * FROM griefprevention_playerdata WHERE name='" + playerName + "';");
+			this.selectPlayerDataStatement.setString(1, playerName);
+			ResultSet results = this.selectPlayerDataStatement.executeQuery();
 		
 			//if there's no data for this player, create it with defaults
 			if(!results.next())
@@ -380,7 +418,10 @@ public class DatabaseDataStore extends DataStore
 				playerData.lastLogin = results.getTimestamp("lastlogin");
 				playerData.accruedClaimBlocks = results.getInt("accruedblocks");
 				playerData.bonusClaimBlocks = results.getInt("bonusblocks");				
+				playerData.groupBonusClaimBlocks = results.getInt("groupbonusblocks");
 			}
+			
+			results.close();
 		}
 		catch(SQLException e)
 		{
@@ -391,21 +432,32 @@ public class DatabaseDataStore extends DataStore
 		return playerData;
 	}
 	
-	//saves changes to player data.  MUST be called after you're done making changes, otherwise a reload will lose them
+	//writes player data to storage.  see DataStore.savePlayerData()
 	@Override
-	synchronized public void savePlayerData(String playerName, PlayerData playerData)
+	synchronized void writePlayerDataToStorage(String playerName, PlayerData playerData)
 	{
 		//never save data for the "administrative" account.  an empty string for player name indicates administrative account
 		if(playerName.length() == 0) return;
 		
 		try
 		{
-			SimpleDateFormat sqlFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-			String dateString = sqlFormat.format(playerData.lastLogin);
+			Timestamp lastLogin = new Timestamp(playerData.lastLogin.getTime());
 			
-			Statement statement = databaseConnection.createStatement();
-			statement.execute("DELETE FROM griefprevention_playerdata WHERE name='" + playerName + "';");
-			statement.execute("INSERT INTO griefprevention_playerdata VALUES ('" + playerName + "', '" + dateString + "', " + playerData.accruedClaimBlocks + ", " + playerData.bonusClaimBlocks + ");");
+			//update the player's row in place, and only insert one if there wasn't a row to update
+			this.updatePlayerDataStatement.setTimestamp(1, lastLogin);
+			this.updatePlayerDataStatement.setInt(2, playerData.accruedClaimBlocks);
+			this.updatePlayerDataStatement.setInt(3, playerData.bonusClaimBlocks);
+			this.updatePlayerDataStatement.setInt(4, playerData.groupBonusClaimBlocks);
+			this.updatePlayerDataStatement.setString(5, playerName);
+			if(this.updatePlayerDataStatement.executeUpdate() == 0)
+			{
+				this.insertPlayerDataStatement.setString(1, playerName);
+				this.insertPlayerDataStatement.setTimestamp(2, lastLogin);
+				this.insertPlayerDataStatement.setInt(3, playerData.accruedClaimBlocks);
+				this.insertPlayerDataStatement.setInt(4, playerData.bonusClaimBlocks);
+				this.insertPlayerDataStatement.setInt(5, playerData.groupBonusClaimBlocks);
+				this.insertPlayerDataStatement.executeUpdate();
+			}
 		}
 		catch(SQLException e)
 		{
@@ -414,22 +466,29 @@ public class DatabaseDataStore extends DataStore
 		}
 	}
 	
-	@Override
-	synchronized void incrementNextClaimID()
+	//sets the next claim ID.  used while migrating data from a flat file data store
+	//saved through the write queue like any other change, so an older queued value can't overwrite it later
+	void setNextClaimID(long nextID)
 	{
-		this.setNextClaimID(this.nextClaimID + 1);
+		this.claimsLock.writeLock().lock();
+		try
+		{
+			this.nextClaimID = nextID;
+			this.writeQueue.queueNextClaimIDWrite(nextID);
+		}
+		finally
+		{
+			this.claimsLock.writeLock().unlock();
+		}
 	}
 	
-	//sets the next claim ID.  used by incrementNextClaimID() above, and also while migrating data from a flat file data store
-	synchronized void setNextClaimID(long nextID)
+	@Override
+	synchronized void writeNextClaimIDToStorage(long nextID)
 	{
-		this.nextClaimID = nextID;
-		
 		try
 		{
-			Statement statement = databaseConnection.createStatement();
-			statement.execute("DELETE FROM griefprevention_nextclaimid;");
-			statement.execute("INSERT INTO griefprevention_nextclaimid VALUES (" + nextID + ");");
+			this.updateNextClaimIdStatement.setLong(1, nextID);
+			this.updateNextClaimIdStatement.executeUpdate();
 		}
 		catch(SQLException e)
 		{
@@ -451,12 +510,13 @@ public class DatabaseDataStore extends DataStore
 	}
 	
 	@Override
-	synchronized void close()
+	synchronized void closeStorage()
 	{
 		if(this.databaseConnection != null)
 		{
 			try
 			{
+				//closing the connection also closes the prepared statements
 				this.databaseConnection.close();
 			}
 			catch(SQLException e){};
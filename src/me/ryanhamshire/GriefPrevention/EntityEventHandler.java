@@ -18,6 +18,7 @@
 
 package me.ryanhamshire.GriefPrevention;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -129,7 +130,9 @@ class EntityEventHandler implements Listener
 		// }
 		
 		//FEATURE: explosions don't damage claimed blocks	
-		Claim claim = null;
+		//collect the blocks which matter, then look up all their claims at once
+		ArrayList<Block> checkedBlocks = new ArrayList<Block>();
+		int [] checkedIndexes = new int[blocks.size()];
 		for(int i = 0; i < blocks.size(); i++)  //for each destroyed block
 		{
 			Block block = blocks.get(i);
@@ -137,17 +140,28 @@ class EntityEventHandler implements Listener
 			
 			if(GriefPrevention.instance.config_mods_explodableIds.contains(block.getTypeId())) continue;
 			
-			claim = this.dataStore.getClaimAt(block.getLocation(), false, claim); 
-			//if the block is claimed, remove it from the list of destroyed blocks
-			if(claim != null)
+			checkedIndexes[checkedBlocks.size()] = i;
+			checkedBlocks.add(block);
+		}
+		
+		Claim [] claims = this.dataStore.getClaimsAt(checkedBlocks);
+		
+		//if the block is not claimed and is a log, trigger the anti-tree-top code
+		for(int i = 0; i < claims.length; i++)
+		{
+			if(claims[i] == null && checkedBlocks.get(i).getType() == Material.LOG)
 			{
-				blocks.remove(i--);
+				GriefPrevention.instance.handleLogBroken(checkedBlocks.get(i));
 			}
-			
-			//if the block is not claimed and is a log, trigger the anti-tree-top code
-			else if(block.getType() == Material.LOG)
+		}
+		
+		//if the block is claimed, remove it from the list of destroyed blocks
+		//going backwards, so removing a block doesn't shift the indexes still to be removed
+		for(int i = claims.length - 1; i >= 0; i--)
+		{
+			if(claims[i] != null)
 			{
-				GriefPrevention.instance.handleLogBroken(block);
+				blocks.remove(checkedIndexes[i]);
 			}
 		}
 	}
@@ -242,7 +256,7 @@ class EntityEventHandler implements Listener
 		if(event.getEntity() instanceof Enderman)
 		{
 			//and the block is claimed
-			if(this.dataStore.getClaimAt(event.getBlock().getLocation(), false, null) != null)
+			if(this.dataStore.getClaimAt(event.getBlock().getWorld(), event.getBlock().getX(), event.getBlock().getZ(), null) != null)
 			{
 				//he doesn't get to steal it
 				event.setCancelled(true);
@@ -23,6 +23,10 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bukkit.*;
 
@@ -32,6 +36,9 @@ public class FlatFileDataStore extends DataStore
 	private final static String playerDataFolderPath = dataLayerFolderPath + File.separator + "PlayerData";
 	private final static String claimDataFolderPath = dataLayerFolderPath + File.separator + "ClaimData";
 	private final static String nextClaimIdFilePath = claimDataFolderPath + File.separator + "_nextClaimID";
+	
+	//when claims are kept in the binary format, this does the claim reading and writing.  null when using text claim files
+	private BinaryClaimStore binaryClaimStore = null;
 
 	static boolean hasData()
 	{
@@ -114,146 +121,374 @@ public class FlatFileDataStore extends DataStore
 			catch(IOException exception) {}
 		}
 		
-		//load claims data into memory		
-		//get a list of all the files in the claims data folder
-		File claimDataFolder = new File(claimDataFolderPath);
-		files = claimDataFolder.listFiles();
+		//look up every world once, so the claim loaders below don't need to ask the server
+		HashMap<String, World> worlds = new HashMap<String, World>();
+		List<World> serverWorlds = GriefPrevention.instance.getServer().getWorlds();
+		for(int i = 0; i < serverWorlds.size(); i++)
+		{
+			worlds.put(serverWorlds.get(i).getName(), serverWorlds.get(i));
+		}
 		
-		for(int i = 0; i < files.length; i++)
-		{			
-			if(files[i].isFile())  //avoids folders
+		//load claims data into memory, from the binary snapshot if there is one, otherwise from the text claim files
+		BinaryClaimStore binaryStore = new BinaryClaimStore(claimDataFolderPath);
+		boolean loadedFromBinary = binaryStore.exists();
+		ArrayList<File> textClaimFiles = new ArrayList<File>();
+		ArrayList<ClaimFileContents> claimContents;
+		if(loadedFromBinary)
+		{
+			claimContents = this.loadBinaryClaims(binaryStore, worlds);
+		}
+		else
+		{
+			claimContents = this.loadTextClaims(textClaimFiles, worlds);
+		}
+		
+		//go through the claims in their original order, checking for conflicts and collecting the claims
+		ArrayList<Claim> loadedClaims = new ArrayList<Claim>();
+		boolean allClaimsLoaded = true;
+		for(int i = 0; i < claimContents.size(); i++)
+		{
+			ClaimFileContents contents = claimContents.get(i);
+			
+			if(contents.topLevelClaim != null)
 			{
-				//skip any file starting with an underscore, to avoid the _nextClaimID file.
-				if(files[i].getName().startsWith("_")) continue;
+				//search for another claim overlapping this one
+				//the chunk index is filled as we go, so this only sees claims which came earlier in the list
+				Claim conflictClaim = this.getClaimAt(contents.topLevelClaim.lesserBoundaryCorner, true, null);
 				
-				//the filename is the claim ID.  try to parse it
-				long claimID;
+				//if there is such a claim, delete this one and move on to the next
+				if(conflictClaim != null)
+				{
+					if(loadedFromBinary)
+					{
+						binaryStore.deleteClaim(contents.claimID);
+					}
+					else
+					{
+						contents.file.delete();
+					}
+					
+					continue;
+				}
 				
+				//otherwise, add this claim to the claims collection
+				loadedClaims.add(contents.topLevelClaim);
+				this.addClaimToIndex(contents.topLevelClaim);
+				contents.topLevelClaim.inDataStore = true;
+				for(int j = 0; j < contents.topLevelClaim.children.size(); j++)
+				{
+					contents.topLevelClaim.children.get(j).inDataStore = true;
+				}
+			}
+			
+			//if there was any problem with the claim's data, log an error message
+			if(contents.errorMessage != null)
+			{
+				allClaimsLoaded = false;
+				GriefPrevention.AddLogEntry("Unable to load data for claim \"" + contents.claimID + "\": " + contents.errorMessage);
+			}
+		}
+		
+		//sort once, rather than inserting each claim into its place in the list
+		//the sort is stable, so claims which compare equal keep their file order, just as they did with insertion
+		Collections.sort(loadedClaims, Claim.claimOrder);
+		this.claims.addAll(loadedClaims);
+		
+		//convert between the text and binary formats if the config setting changed since the last startup
+		//a conversion only happens when every claim loaded, so claims in a world which isn't loaded right now aren't left behind
+		if(loadedFromBinary && (GriefPrevention.instance.config_flatFile_binaryClaims || !allClaimsLoaded))
+		{
+			if(!GriefPrevention.instance.config_flatFile_binaryClaims)
+			{
+				GriefPrevention.AddLogEntry("Some claims couldn't be loaded, so claims will stay in the binary claim snapshot for now.");
+			}
+			
+			//fold the journal from the last run into a fresh snapshot
+			try
+			{
+				binaryStore.compact();
+			}
+			catch(IOException e)
+			{
+				GriefPrevention.AddLogEntry("Unable to write the claim snapshot: " + e.getMessage());
+			}
+			
+			this.binaryClaimStore = binaryStore;
+		}
+		else if(loadedFromBinary)
+		{
+			for(int i = 0; i < this.claims.size(); i++)
+			{
+				this.writeClaimToStorage(this.claims.get(i));
+			}
+			
+			binaryStore.retire();
+			GriefPrevention.AddLogEntry("Converted " + this.claims.size() + " claims from the binary claim snapshot to text claim files.");
+		}
+		else if(GriefPrevention.instance.config_flatFile_binaryClaims)
+		{
+			if(!allClaimsLoaded)
+			{
+				GriefPrevention.AddLogEntry("Some claim files couldn't be loaded, so claims will stay in text claim files for now.");
+			}
+			else
+			{
 				try
 				{
-					claimID = Long.parseLong(files[i].getName());
+					binaryStore.replaceAll(this.claims);
+					this.binaryClaimStore = binaryStore;
+					if(textClaimFiles.size() > 0) this.backUpTextClaimFiles(textClaimFiles);
 				}
-				
-				//because some older versions used a different file name pattern before claim IDs were introduced,
-				//those files need to be "converted" by renaming them to a unique ID
-				catch(Exception e)
+				catch(IOException e)
 				{
-					claimID = this.nextClaimID;
-					this.incrementNextClaimID();
-					File newFile = new File(claimDataFolderPath + File.separator + String.valueOf(this.nextClaimID));
-					files[i].renameTo(newFile);
-					files[i] = newFile;
+					GriefPrevention.AddLogEntry("Unable to convert claim files to the binary claim snapshot: " + e.getMessage());
 				}
+			}
+		}
+		
+		super.initialize();
+	}
+	
+	//reads all the text claim files.  the files which hold claims are added to claimFiles
+	private ArrayList<ClaimFileContents> loadTextClaims(ArrayList<File> claimFiles, Map<String, World> worlds) throws Exception
+	{
+		//get a list of all the files in the claims data folder
+		File claimDataFolder = new File(claimDataFolderPath);
+		File [] files = claimDataFolder.listFiles();
+		
+		//first decide which files hold claims and which ID each claim gets
+		//this happens one file at a time because it may rename files and bump the next claim ID
+		ArrayList<Long> claimIDs = new ArrayList<Long>();
+		for(int i = 0; i < files.length; i++)
+		{			
+			if(!files[i].isFile()) continue;  //avoids folders
+			
+			//skip any file starting with an underscore, to avoid the _nextClaimID file.
+			if(files[i].getName().startsWith("_")) continue;
+			
+			//the filename is the claim ID.  try to parse it
+			long claimID;
+			
+			try
+			{
+				claimID = Long.parseLong(files[i].getName());
+			}
+			
+			//because some older versions used a different file name pattern before claim IDs were introduced,
+			//those files need to be "converted" by renaming them to a unique ID
+			catch(Exception e)
+			{
+				claimID = this.nextClaimID;
+				this.incrementNextClaimID();
+				File newFile = new File(claimDataFolderPath + File.separator + String.valueOf(this.nextClaimID));
+				files[i].renameTo(newFile);
+				files[i] = newFile;
+			}
+			
+			claimFiles.add(files[i]);
+			claimIDs.add(claimID);
+		}
+		
+		//read and parse all the files in parallel
+		ExecutorService loaderPool = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			ArrayList<Future<ClaimFileContents>> parsedFiles = new ArrayList<Future<ClaimFileContents>>();
+			for(int i = 0; i < claimFiles.size(); i++)
+			{
+				parsedFiles.add(loaderPool.submit(new ClaimFileParser(claimFiles.get(i), claimIDs.get(i), worlds)));
+			}
+			
+			ArrayList<ClaimFileContents> claimContents = new ArrayList<ClaimFileContents>();
+			for(int i = 0; i < parsedFiles.size(); i++)
+			{
+				claimContents.add(parsedFiles.get(i).get());
+			}
+			
+			return claimContents;
+		}
+		finally
+		{
+			loaderPool.shutdownNow();
+		}
+	}
+	
+	//reads the binary claim snapshot and journal, and builds claims from what they hold
+	private ArrayList<ClaimFileContents> loadBinaryClaims(BinaryClaimStore binaryStore, Map<String, World> worlds) throws IOException
+	{
+		ArrayList<BinaryClaimStore.ClaimRecord> records = binaryStore.load();
+		ArrayList<ClaimFileContents> claimContents = new ArrayList<ClaimFileContents>();
+		for(int i = 0; i < records.size(); i++)
+		{
+			BinaryClaimStore.ClaimRecord record = records.get(i);
+			ClaimFileContents contents = new ClaimFileContents();
+			contents.claimID = record.id;
+			
+			try
+			{
+				contents.topLevelClaim = claimFromRecord(record, record.id, worlds);
+				for(int j = 0; j < record.children.size(); j++)
+				{
+					Claim subdivision = claimFromRecord(record.children.get(j), null, worlds);
+					subdivision.parent = contents.topLevelClaim;
+					contents.topLevelClaim.children.add(subdivision);
+				}
+			}
+			catch(Exception e)
+			{
+				contents.errorMessage = e.getMessage();
+			}
+			
+			claimContents.add(contents);
+		}
+		
+		return claimContents;
+	}
+	
+	private static Claim claimFromRecord(BinaryClaimStore.ClaimRecord record, Long claimID, Map<String, World> worlds) throws Exception
+	{
+		World world = worlds.get(record.worldName);
+		if(world == null)
+		{
+			throw new Exception("World not found: \"" + record.worldName + "\"");
+		}
+		
+		Location lesserBoundaryCorner = new Location(world, record.lesserX, record.lesserY, record.lesserZ);
+		Location greaterBoundaryCorner = new Location(world, record.greaterX, record.greaterY, record.greaterZ);
+		
+		Claim claim = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, record.ownerName, record.builders, record.containers, record.accessors, record.managers, claimID);
+		claim.modifiedDate = new Date(record.modifiedDate);
+		return claim;
+	}
+	
+	//moves text claim files which were converted to the binary format into a backup folder, where the loader won't see them
+	private void backUpTextClaimFiles(ArrayList<File> claimFiles)
+	{
+		File backupFolder = new File(claimDataFolderPath + File.separator + "_TextBackup");
+		backupFolder.mkdirs();
+		
+		for(int i = 0; i < claimFiles.size(); i++)
+		{
+			File backupFile = new File(backupFolder, claimFiles.get(i).getName());
+			backupFile.delete();
+			if(!claimFiles.get(i).renameTo(backupFile))
+			{
+				GriefPrevention.AddLogEntry("Unable to move converted claim file \"" + claimFiles.get(i).getPath() + "\" to \"" + backupFolder.getPath() + "\".");
+			}
+		}
+		
+		GriefPrevention.AddLogEntry("Converted " + claimFiles.size() + " claim files to the binary claim snapshot.  The original files were moved to " + backupFolder.getPath() + ".");
+	}
+	
+	//what was read for one top level claim: the claim with its subdivisions, and any error which stopped the read early
+	private static class ClaimFileContents
+	{
+		long claimID;
+		File file = null;
+		Claim topLevelClaim = null;
+		String errorMessage = null;
+	}
+	
+	//reads and parses one claim file.  runs on the loader pool during initialization, so it doesn't touch the data store's collections
+	private class ClaimFileParser implements Callable<ClaimFileContents>
+	{
+		private File file;
+		private long claimID;
+		private Map<String, World> worlds;
+		
+		ClaimFileParser(File file, long claimID, Map<String, World> worlds)
+		{
+			this.file = file;
+			this.claimID = claimID;
+			this.worlds = worlds;
+		}
+		
+		@Override
+		public ClaimFileContents call()
+		{
+			ClaimFileContents contents = new ClaimFileContents();
+			contents.claimID = this.claimID;
+			contents.file = this.file;
+			Date modifiedDate = new Date(this.file.lastModified());
+			
+			BufferedReader inStream = null;
+			try
+			{					
+				inStream = new BufferedReader(new FileReader(this.file.getAbsolutePath()));
+				String line = inStream.readLine();
 				
-				BufferedReader inStream = null;
-				try
+				while(line != null)
 				{					
-					Claim topLevelClaim = null;
+					//first line is lesser boundary corner location
+					Location lesserBoundaryCorner = locationFromString(line, this.worlds);
 					
-					inStream = new BufferedReader(new FileReader(files[i].getAbsolutePath()));
-					String line = inStream.readLine();
+					//second line is greater boundary corner location
+					line = inStream.readLine();
+					Location greaterBoundaryCorner = locationFromString(line, this.worlds);
 					
-					while(line != null)
-					{					
-						//first line is lesser boundary corner location
-						Location lesserBoundaryCorner = this.locationFromString(line);
-						
-						//second line is greater boundary corner location
-						line = inStream.readLine();
-						Location greaterBoundaryCorner = this.locationFromString(line);
-						
-						//third line is owner name
-						line = inStream.readLine();						
-						String ownerName = line;
-						
-						//fourth line is list of builders
-						line = inStream.readLine();
-						String [] builderNames = line.split(";");
-						
-						//fifth line is list of players who can access containers
-						line = inStream.readLine();
-						String [] containerNames = line.split(";");
-						
-						//sixth line is list of players who can use buttons and switches
-						line = inStream.readLine();
-						String [] accessorNames = line.split(";");
-						
-						//seventh line is list of players who can grant permissions
-						line = inStream.readLine();
-						if(line == null) line = "";
-						String [] managerNames = line.split(";");
-						
-						//skip any remaining extra lines, until the "===" string, indicating the end of this claim or subdivision
+					//third line is owner name
+					line = inStream.readLine();						
+					String ownerName = line;
+					
+					//fourth line is list of builders
+					line = inStream.readLine();
+					String [] builderNames = line.split(";");
+					
+					//fifth line is list of players who can access containers
+					line = inStream.readLine();
+					String [] containerNames = line.split(";");
+					
+					//sixth line is list of players who can use buttons and switches
+					line = inStream.readLine();
+					String [] accessorNames = line.split(";");
+					
+					//seventh line is list of players who can grant permissions
+					line = inStream.readLine();
+					if(line == null) line = "";
+					String [] managerNames = line.split(";");
+					
+					//skip any remaining extra lines, until the "===" string, indicating the end of this claim or subdivision
+					line = inStream.readLine();
+					while(line != null && !line.contains("=========="))
 						line = inStream.readLine();
-						while(line != null && !line.contains("=========="))
-							line = inStream.readLine();
-						
-						//build a claim instance from those data
-						//if this is the first claim loaded from this file, it's the top level claim
-						if(topLevelClaim == null)
-						{
-							//instantiate
-							topLevelClaim = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, ownerName, builderNames, containerNames, accessorNames, managerNames, claimID);
-							
-							//search for another claim overlapping this one
-							Claim conflictClaim = this.getClaimAt(topLevelClaim.lesserBoundaryCorner, true, null);
-							
-							//if there is such a claim, delete this file and move on to the next
-							if(conflictClaim != null)
-							{
-								inStream.close();
-								files[i].delete();
-								line = null;
-								continue;
-							}
-							
-							//otherwise, add this claim to the claims collection
-							else
-							{
-								topLevelClaim.modifiedDate = new Date(files[i].lastModified());
-								int j = 0;
-								while(j < this.claims.size() && !this.claims.get(j).greaterThan(topLevelClaim)) j++;
-								if(j < this.claims.size())
-									this.claims.add(j, topLevelClaim);
-								else
-									this.claims.add(this.claims.size(), topLevelClaim);
-								topLevelClaim.inDataStore = true;								
-							}
-						}
-						
-						//otherwise there's already a top level claim, so this must be a subdivision of that top level claim
-						else
-						{
-							Claim subdivision = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, "--subdivision--", builderNames, containerNames, accessorNames, managerNames, null);
-							
-							subdivision.modifiedDate = new Date(files[i].lastModified());
-							subdivision.parent = topLevelClaim;
-							topLevelClaim.children.add(subdivision);
-							subdivision.inDataStore = true;
-						}
+					
+					//build a claim instance from those data
+					//if this is the first claim loaded from this file, it's the top level claim
+					if(contents.topLevelClaim == null)
+					{
+						contents.topLevelClaim = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, ownerName, builderNames, containerNames, accessorNames, managerNames, this.claimID);
+						contents.topLevelClaim.modifiedDate = modifiedDate;
+					}
+					
+					//otherwise there's already a top level claim, so this must be a subdivision of that top level claim
+					else
+					{
+						Claim subdivision = new Claim(lesserBoundaryCorner, greaterBoundaryCorner, "--subdivision--", builderNames, containerNames, accessorNames, managerNames, null);
 						
-						//move up to the first line in the next subdivision
-						line = inStream.readLine();
+						subdivision.modifiedDate = modifiedDate;
+						subdivision.parent = contents.topLevelClaim;
+						contents.topLevelClaim.children.add(subdivision);
 					}
 					
-					inStream.close();
-				}
-				
-				//if there's any problem with the file's content, log an error message and skip it
-				catch(Exception e)
-				{
-					 GriefPrevention.AddLogEntry("Unable to load data for claim \"" + files[i].getName() + "\": " + e.getMessage());
+					//move up to the first line in the next subdivision
+					line = inStream.readLine();
 				}
-				
-				try
-				{
-					if(inStream != null) inStream.close();					
-				}
-				catch(IOException exception) {}
 			}
+			
+			//if there's any problem with the file's content, note it.  whatever was read before the problem is still loaded
+			catch(Exception e)
+			{
+				contents.errorMessage = e.getMessage();
+			}
+			
+			try
+			{
+				if(inStream != null) inStream.close();					
+			}
+			catch(IOException exception) {}
+			
+			return contents;
 		}
-		
-		super.initialize();
 	}
 	
 	@Override
@@ -261,6 +496,20 @@ public class FlatFileDataStore extends DataStore
 	{
 		String claimID = String.valueOf(claim.id);
 		
+		if(this.binaryClaimStore != null)
+		{
+			try
+			{
+				this.binaryClaimStore.writeClaim(claim);
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.AddLogEntry("Unexpected exception saving data for claim \"" + claimID + "\": " + e.getMessage());
+			}
+			
+			return;
+		}
+		
 		BufferedWriter outStream = null;
 		
 		try
@@ -356,6 +605,20 @@ public class FlatFileDataStore extends DataStore
 	{
 		String claimID = String.valueOf(claim.id);
 		
+		if(this.binaryClaimStore != null)
+		{
+			try
+			{
+				this.binaryClaimStore.deleteClaim(claim.id);
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.AddLogEntry("Unexpected exception deleting data for claim \"" + claimID + "\": " + e.getMessage());
+			}
+			
+			return;
+		}
+		
 		//remove from disk
 		File claimFile = new File(claimDataFolderPath + File.separator + claimID);
 		if(claimFile.exists() && !claimFile.delete())
@@ -418,6 +681,13 @@ public class FlatFileDataStore extends DataStore
 				//String claimsString = inStream.readLine();
 				inStream.readLine();
 				
+				//fifth line is the group bonus blocks as of the player's last refresh.  files written by older versions don't have it
+				String groupBonusBlocksString = inStream.readLine();
+				if(groupBonusBlocksString != null && groupBonusBlocksString.length() > 0)
+				{
+					playerData.groupBonusClaimBlocks = Integer.parseInt(groupBonusBlocksString);
+				}
+				
 				inStream.close();
 			}
 				
@@ -437,9 +707,9 @@ public class FlatFileDataStore extends DataStore
 		return playerData;
 	}
 	
-	//saves changes to player data.  MUST be called after you're done making changes, otherwise a reload will lose them
+	//writes player data to storage.  see DataStore.savePlayerData()
 	@Override
-	synchronized public void savePlayerData(String playerName, PlayerData playerData)
+	synchronized void writePlayerDataToStorage(String playerName, PlayerData playerData)
 	{
 		//never save data for the "administrative" account.  an empty string for claim owner indicates administrative account
 		if(playerName.length() == 0) return;
@@ -476,6 +746,10 @@ public class FlatFileDataStore extends DataStore
 				}
 			}
 			outStream.newLine();
+			
+			//fifth line is group bonus blocks, as of the last time the player's permissions were checked
+			outStream.write(String.valueOf(playerData.groupBonusClaimBlocks));
+			outStream.newLine();
 		}		
 		
 		//if any problem, log it
@@ -496,11 +770,8 @@ public class FlatFileDataStore extends DataStore
 	}
 	
 	@Override
-	synchronized void incrementNextClaimID()
+	synchronized void writeNextClaimIDToStorage(long nextClaimID)
 	{
-		//increment in memory
-		this.nextClaimID++;
-		
 		BufferedWriter outStream = null;
 		
 		try
@@ -510,7 +781,7 @@ public class FlatFileDataStore extends DataStore
 			nextClaimIdFile.createNewFile();
 			outStream = new BufferedWriter(new FileWriter(nextClaimIdFile));
 			
-			outStream.write(String.valueOf(this.nextClaimID));
+			outStream.write(String.valueOf(nextClaimID));
 		}		
 		
 		//if any problem, log it
@@ -601,6 +872,10 @@ public class FlatFileDataStore extends DataStore
 			databaseStore.setNextClaimID(this.nextClaimID);
 		}
 		
+		//make sure nothing is still waiting to be written to the old folders
+		this.writeQueue.flush();
+		this.closeStorage();
+		
 		//rename player and claim data folders so the migration won't run again
 		int i = 0;
 		File claimsBackupFolder;
@@ -629,5 +904,20 @@ public class FlatFileDataStore extends DataStore
 	}
 
 	@Override
-	synchronized void close() { }
+	synchronized void closeStorage()
+	{
+		if(this.binaryClaimStore == null) return;
+		
+		//writes a final snapshot, so the next startup doesn't need to replay the journal
+		try
+		{
+			this.binaryClaimStore.close();
+		}
+		catch(IOException e)
+		{
+			GriefPrevention.AddLogEntry("Unable to write the claim snapshot: " + e.getMessage());
+		}
+		
+		this.binaryClaimStore = null;
+	}
 }
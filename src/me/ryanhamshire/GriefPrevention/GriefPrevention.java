@@ -21,15 +21,16 @@ package me.ryanhamshire.GriefPrevention;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
 
 import net.milkbowl.vault.economy.Economy;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.GameMode;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -44,7 +45,6 @@ import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
-import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -136,6 +136,11 @@ public class GriefPrevention extends JavaPlugin
 	public List<Integer> config_mods_explodableIds;					//list of block IDs which can be destroyed by explosions, even in claimed areas
 
 	public boolean config_claims_warnOnBuildOutside;				//whether players should be warned when they're building in an unclaimed area
+
+	public boolean config_flatFile_binaryClaims;					//whether the file system data store keeps claims in one binary snapshot file instead of one text file per claim
+	
+	public int config_metrics_exportIntervalSeconds;				//how often timing metrics are written to metrics.prom.  zero disables the export.
+	public int config_metrics_slowOperationMilliseconds;			//single operations taking longer than this are logged.  zero disables the log.
 	
 	//reference to the economy plugin, if economy integration is enabled
 	public static Economy economy = null;					
@@ -405,6 +410,14 @@ public class GriefPrevention extends JavaPlugin
 		String databaseUserName = config.getString("GriefPrevention.Database.UserName", "");
 		String databasePassword = config.getString("GriefPrevention.Database.Password", "");
 		
+		//optional file system settings
+		this.config_flatFile_binaryClaims = config.getBoolean("GriefPrevention.FileSystem.BinaryClaimStorage", false);
+		
+		//timing metrics export
+		this.config_metrics_exportIntervalSeconds = config.getInt("GriefPrevention.Metrics.ExportIntervalSeconds", 60);
+		this.config_metrics_slowOperationMilliseconds = config.getInt("GriefPrevention.Metrics.SlowOperationMilliseconds", 0);
+		SlowOperationLog.setThresholdMilliseconds(this.config_metrics_slowOperationMilliseconds);
+		
 		config.set("GriefPrevention.Claims.Worlds", claimsEnabledWorldNames);
 		config.set("GriefPrevention.Claims.CreativeRulesWorlds", creativeClaimsEnabledWorldNames);
 		config.set("GriefPrevention.Claims.PreventTheft", this.config_claims_preventTheft);
@@ -474,6 +487,11 @@ public class GriefPrevention extends JavaPlugin
 		config.set("GriefPrevention.Database.UserName", databaseUserName);
 		config.set("GriefPrevention.Database.Password", databasePassword);		
 		
+		config.set("GriefPrevention.FileSystem.BinaryClaimStorage", this.config_flatFile_binaryClaims);
+		
+		config.set("GriefPrevention.Metrics.ExportIntervalSeconds", this.config_metrics_exportIntervalSeconds);
+		config.set("GriefPrevention.Metrics.SlowOperationMilliseconds", this.config_metrics_slowOperationMilliseconds);
+		
 		config.set("GriefPrevention.Mods.BlockIdsRequiringAccessTrust", this.config_mods_accessTrustIds);
 		config.set("GriefPrevention.Mods.BlockIdsRequiringContainerTrust", this.config_mods_containerTrustIds);
 		config.set("GriefPrevention.Mods.BlockIdsExplodable", this.config_mods_explodableIds);
@@ -524,6 +542,7 @@ public class GriefPrevention extends JavaPlugin
 					GriefPrevention.AddLogEntry("There appears to be some data on the hard drive.  Migrating those data to the database...");
 					FlatFileDataStore flatFileStore = new FlatFileDataStore();
 					flatFileStore.migrateData(databaseStore);
+					flatFileStore.close();
 					GriefPrevention.AddLogEntry("Data migration process complete.  Reloading data from the database...");
 					databaseStore.close();
 					databaseStore = new DatabaseDataStore(databaseUrl, databaseUserName, databasePassword);
@@ -565,24 +584,38 @@ public class GriefPrevention extends JavaPlugin
 		// EntityCleanupTask task = new EntityCleanupTask(0);
 		// this.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, task, 20L);
 		
+		//start the recurring trim of cached data for offline players
+		PlayerDataCacheTrimTask cacheTrimTask = new PlayerDataCacheTrimTask();
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, cacheTrimTask, 20L * 60, 20L * 60);
+		
+		//find out when each claim owner last logged in, for the cleanup below
+		ClaimExpirationIndexLoadTask expirationIndexLoadTask = new ClaimExpirationIndexLoadTask();
+		this.getServer().getScheduler().scheduleAsyncDelayedTask(this, expirationIndexLoadTask, 20L);
+		
 		//start recurring cleanup scan for unused claims belonging to inactive players
 		CleanupUnusedClaimsTask task2 = new CleanupUnusedClaimsTask();
-		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, task2, 20L * 60 * 2, 20L * 60 * 5);
+		this.getServer().getScheduler().scheduleSyncRepeatingTask(this, task2, 20L * 60 * 2, 20L * 60);
 		
-		//register for events
-		PluginManager pluginManager = this.getServer().getPluginManager();
+		//periodically write timing metrics to a file, for monitoring tools to pick up
+		if(this.config_metrics_exportIntervalSeconds > 0)
+		{
+			long exportIntervalTicks = 20L * this.config_metrics_exportIntervalSeconds;
+			MetricsExportTask exportTask = new MetricsExportTask(this.dataStore);
+			this.getServer().getScheduler().scheduleAsyncRepeatingTask(this, exportTask, exportIntervalTicks, exportIntervalTicks);
+		}
 		
+		//register for events, timing each handler
 		//player events
 		PlayerEventHandler playerEventHandler = new PlayerEventHandler(this.dataStore, this);
-		pluginManager.registerEvents(playerEventHandler, this);
+		TimedEventExecutor.registerEvents(playerEventHandler, this);
 		
 		//block events
 		BlockEventHandler blockEventHandler = new BlockEventHandler(this.dataStore);
-		pluginManager.registerEvents(blockEventHandler, this);
+		TimedEventExecutor.registerEvents(blockEventHandler, this);
 				
 		//entity events
 		EntityEventHandler entityEventHandler = new EntityEventHandler(this.dataStore);
-		pluginManager.registerEvents(entityEventHandler, this);
+		TimedEventExecutor.registerEvents(entityEventHandler, this);
 		
 		//if economy is enabled
 		if(this.config_economy_claimBlocksPurchaseCost > 0 || this.config_economy_claimBlocksSellValue > 0)
@@ -1342,6 +1375,29 @@ public class GriefPrevention extends JavaPlugin
 			return true;
 		}
 		
+		//gpstats
+		else if(cmd.getName().equalsIgnoreCase("gpstats"))
+		{
+			ArrayList<LatencyHistogram> timers = Metrics.getBusiestTimers();
+			if(timers.size() == 0)
+			{
+				GriefPrevention.sendMessage(player, TextMode.Info, "Nothing has been timed yet.");
+				return true;
+			}
+			
+			//the timers which took the most total time, since the server started
+			GriefPrevention.sendMessage(player, TextMode.Instr, "Timer: count, avg, p99, max");
+			for(int i = 0; i < timers.size() && i < 10; i++)
+			{
+				LatencyHistogram timer = timers.get(i);
+				long count = timer.getCount();
+				String name = timer.labels.length() == 0 ? timer.name : timer.name + "{" + timer.labels + "}";
+				GriefPrevention.sendMessage(player, TextMode.Info, name + ": " + count + ", " + Metrics.formatNanoseconds(timer.getTotalNanoseconds() / count) + ", " + Metrics.formatNanoseconds(timer.getValueAtQuantile(0.99)) + ", " + Metrics.formatNanoseconds(timer.getMaxNanoseconds()));
+			}
+			
+			return true;
+		}
+		
 		//deathblow <player> [recipientPlayer]
 		else if(cmd.getName().equalsIgnoreCase("deathblow"))
 		{
@@ -1466,6 +1522,9 @@ public class GriefPrevention extends JavaPlugin
 			//give blocks to player
 			PlayerData playerData = this.dataStore.getPlayerData(targetPlayer.getName());
 			playerData.bonusClaimBlocks += adjustment;
+			
+			//an admin adjusting blocks is a good moment to catch up on any group changes, too
+			if(targetPlayer.isOnline()) this.dataStore.refreshGroupBonusBlocks(targetPlayer.getPlayer());
 			this.dataStore.savePlayerData(targetPlayer.getName(), playerData);
 			
 			GriefPrevention.sendMessage(player, TextMode.Success, Messages.AdjustBlocksSuccess, targetPlayer.getName(), String.valueOf(adjustment), String.valueOf(playerData.bonusClaimBlocks));
@@ -1895,6 +1954,7 @@ public class GriefPrevention extends JavaPlugin
 			this.dataStore.savePlayerData(playerName, playerData);
 		}
 		
+		//write everything still queued for secondary storage, including the player data saved above
 		this.dataStore.close();
 		
 		AddLogEntry("GriefPrevention disabled.");
@@ -1962,37 +2022,53 @@ public class GriefPrevention extends JavaPlugin
 		if(rootBlock == null) return;
 		
 		//next step: scan for other log blocks and leaves in this tree
+		World world = rootBlock.getWorld();
+		int logId = Material.LOG.getId();
+		int leavesId = Material.LEAVES.getId();
 		
 		//set boundaries for the scan 
 		int min_x = rootBlock.getX() - GriefPrevention.TREE_RADIUS;
 		int max_x = rootBlock.getX() + GriefPrevention.TREE_RADIUS;
 		int min_z = rootBlock.getZ() - GriefPrevention.TREE_RADIUS;
 		int max_z = rootBlock.getZ() + GriefPrevention.TREE_RADIUS;
-		int max_y = rootBlock.getWorld().getMaxHeight() - 1;
+		int max_y = world.getMaxHeight() - 1;
+		
+		//blocks in the scan area are identified by one packed number, ((y * size_z) + z) * size_x + x relative to the area's corner
+		//so remembering which blocks were examined is one bit each, and the queue is a plain int array
+		int size_x = max_x - min_x + 1;
+		int size_z = max_z - min_z + 1;
 		
 		//keep track of all the examined blocks, and all the log blocks found
-		ArrayList<Block> examinedBlocks = new ArrayList<Block>();
+		BitSet examinedBlocks = new BitSet();
 		ArrayList<Block> treeBlocks = new ArrayList<Block>();
 		
 		//queue the first block, which is the block immediately above the player-chopped block
-		ConcurrentLinkedQueue<Block> blocksToExamine = new ConcurrentLinkedQueue<Block>();
-		blocksToExamine.add(rootBlock);
-		examinedBlocks.add(rootBlock);
+		//every block is queued at most once, so the queue never has to wrap around
+		int [] blocksToExamine = new int [64];
+		int queueHead = 0;
+		int queueTail = 0;
+		int rootIndex = ((rootBlock.getY() * size_z) + (rootBlock.getZ() - min_z)) * size_x + (rootBlock.getX() - min_x);
+		blocksToExamine[queueTail++] = rootIndex;
+		examinedBlocks.set(rootIndex);
 		
 		boolean hasLeaves = false;
 		
-		while(!blocksToExamine.isEmpty())
+		while(queueHead < queueTail)
 		{
 			//pop a block from the queue
-			Block currentBlock = blocksToExamine.remove();
+			int currentIndex = blocksToExamine[queueHead++];
+			int currentX = min_x + currentIndex % size_x;
+			int currentZ = min_z + (currentIndex / size_x) % size_z;
+			int currentY = currentIndex / (size_x * size_z);
+			int currentTypeId = world.getBlockTypeIdAt(currentX, currentY, currentZ);
 			
 			//if this is a log block, determine whether it should be chopped
-			if(currentBlock.getType() == Material.LOG)
+			if(currentTypeId == logId)
 			{
 				boolean partOfTree = false;
 				
 				//if it's stacked with the original chopped block, the answer is always yes
-				if(currentBlock.getX() == block.getX() && currentBlock.getZ() == block.getZ())
+				if(currentX == block.getX() && currentZ == block.getZ())
 				{
 					partOfTree = true;
 				}
@@ -2000,15 +2076,16 @@ public class GriefPrevention extends JavaPlugin
 				//otherwise find the block underneath this stack of logs
 				else
 				{
-					Block downBlock = currentBlock.getRelative(BlockFace.DOWN);
-					while(downBlock.getType() == Material.LOG)
+					int downY = currentY - 1;
+					int downTypeId = world.getBlockTypeIdAt(currentX, downY, currentZ);
+					while(downTypeId == logId)
 					{
-						downBlock = downBlock.getRelative(BlockFace.DOWN);
+						downTypeId = world.getBlockTypeIdAt(currentX, --downY, currentZ);
 					}
 					
 					//if it's air or leaves, it's okay to chop this block
 					//this avoids accidentally chopping neighboring trees which are close enough to touch their leaves to ours
-					if(downBlock.getType() == Material.AIR || downBlock.getType() == Material.LEAVES)
+					if(downTypeId == Material.AIR.getId() || downTypeId == leavesId)
 					{
 						partOfTree = true;
 					}
@@ -2017,55 +2094,57 @@ public class GriefPrevention extends JavaPlugin
 					//if it's close to the original block's stack, don't clean up this tree (just stop here)
 					else
 					{
-						if(Math.abs(downBlock.getX() - block.getX()) <= 1 && Math.abs(downBlock.getZ() - block.getZ()) <= 1) return;
+						if(Math.abs(currentX - block.getX()) <= 1 && Math.abs(currentZ - block.getZ()) <= 1) return;
 					}
 				}
 				
 				if(partOfTree)
 				{
-					treeBlocks.add(currentBlock);
+					treeBlocks.add(world.getBlockAt(currentX, currentY, currentZ));
 				}
 			}
 			
 			//if this block is a log OR a leaf block, also check its neighbors
-			if(currentBlock.getType() == Material.LOG || currentBlock.getType() == Material.LEAVES)
+			if(currentTypeId == logId || currentTypeId == leavesId)
 			{
-				if(currentBlock.getType() == Material.LEAVES)
+				if(currentTypeId == leavesId)
 				{
 					hasLeaves = true;
 				}
 				
-				Block [] neighboringBlocks = new Block [] 
+				for(int i = 0; i < treeScanDirections.length; i++)
 				{
-					currentBlock.getRelative(BlockFace.EAST),
-					currentBlock.getRelative(BlockFace.WEST),
-					currentBlock.getRelative(BlockFace.NORTH),
-					currentBlock.getRelative(BlockFace.SOUTH),
-					currentBlock.getRelative(BlockFace.UP),						
-					currentBlock.getRelative(BlockFace.DOWN)
-				};
-				
-				for(int i = 0; i < neighboringBlocks.length; i++)
-				{
-					Block neighboringBlock = neighboringBlocks[i];
-											
+					BlockFace direction = treeScanDirections[i];
+					int neighborX = currentX + direction.getModX();
+					int neighborY = currentY + direction.getModY();
+					int neighborZ = currentZ + direction.getModZ();
+					
 					//if the neighboringBlock is out of bounds, skip it
-					if(neighboringBlock.getX() < min_x || neighboringBlock.getX() > max_x || neighboringBlock.getZ() < min_z || neighboringBlock.getZ() > max_z || neighboringBlock.getY() > max_y) continue;						
+					if(neighborX < min_x || neighborX > max_x || neighborZ < min_z || neighborZ > max_z || neighborY > max_y || neighborY < 0) continue;						
 					
 					//if we already saw this block, skip it
-					if(examinedBlocks.contains(neighboringBlock)) continue;
+					int neighborIndex = ((neighborY * size_z) + (neighborZ - min_z)) * size_x + (neighborX - min_x);
+					if(examinedBlocks.get(neighborIndex)) continue;
 					
 					//mark the block as examined
-					examinedBlocks.add(neighboringBlock);
+					examinedBlocks.set(neighborIndex);
 					
 					//if the neighboringBlock is a leaf or log, put it in the queue to be examined later
-					if(neighboringBlock.getType() == Material.LOG || neighboringBlock.getType() == Material.LEAVES)
+					int neighborTypeId = world.getBlockTypeIdAt(neighborX, neighborY, neighborZ);
+					if(neighborTypeId == logId || neighborTypeId == leavesId)
 					{
-						blocksToExamine.add(neighboringBlock);
+						if(queueTail == blocksToExamine.length)
+						{
+							int [] biggerQueue = new int [blocksToExamine.length * 2];
+							System.arraycopy(blocksToExamine, 0, biggerQueue, 0, queueTail);
+							blocksToExamine = biggerQueue;
+						}
+						
+						blocksToExamine[queueTail++] = neighborIndex;
 					}
 					
 					//if we encounter any player-placed block type, bail out (don't automatically remove parts of this tree, it might support a treehouse!)
-					else if(this.isPlayerBlock(neighboringBlock)) 
+					else if(!naturalTreeNeighborIds.get(neighborTypeId)) 
 					{
 						return;						
 					}
@@ -2113,34 +2192,37 @@ public class GriefPrevention extends JavaPlugin
 		return underBlock.getRelative(BlockFace.UP);
 	}
 	
-	//for sake of identifying trees ONLY, a cheap but not 100% reliable method for identifying player-placed blocks
-	private boolean isPlayerBlock(Block block)
+	//the neighbors of each tree block checked by handleLogBroken(), in the order they're checked
+	private static final BlockFace [] treeScanDirections = new BlockFace [] { BlockFace.EAST, BlockFace.WEST, BlockFace.NORTH, BlockFace.SOUTH, BlockFace.UP, BlockFace.DOWN };
+	
+	//for sake of identifying trees ONLY, a cheap but not 100% reliable way of identifying player-placed blocks
+	//these are the natural blocks which are OK to have next to a log block in a natural tree setting, anything else is probably player placed
+	private static final BitSet naturalTreeNeighborIds = new BitSet();
+	static
 	{
-		Material material = block.getType();
-		
-		//list of natural blocks which are OK to have next to a log block in a natural tree setting
-		if(	material == Material.AIR || 
-			material == Material.LEAVES || 
-			material == Material.LOG || 
-			material == Material.DIRT ||
-			material == Material.GRASS ||			
-			material == Material.STATIONARY_WATER ||
-			material == Material.BROWN_MUSHROOM || 
-			material == Material.RED_MUSHROOM ||
-			material == Material.RED_ROSE ||
-			material == Material.LONG_GRASS ||
-			material == Material.SNOW ||
-			material == Material.STONE ||
-			material == Material.VINE ||
-			material == Material.WATER_LILY ||
-			material == Material.YELLOW_FLOWER ||
-			material == Material.CLAY)
-		{
-			return false;
-		}
-		else
-		{
-			return true;
+		Material [] materials = new Material []
+		{
+			Material.AIR, 
+			Material.LEAVES, 
+			Material.LOG, 
+			Material.DIRT,
+			Material.GRASS,			
+			Material.STATIONARY_WATER,
+			Material.BROWN_MUSHROOM, 
+			Material.RED_MUSHROOM,
+			Material.RED_ROSE,
+			Material.LONG_GRASS,
+			Material.SNOW,
+			Material.STONE,
+			Material.VINE,
+			Material.WATER_LILY,
+			Material.YELLOW_FLOWER,
+			Material.CLAY
+		};
+		
+		for(int i = 0; i < materials.length; i++)
+		{
+			naturalTreeNeighborIds.set(materials[i].getId());
 		}
 	}
 	
@@ -2330,20 +2412,16 @@ public class GriefPrevention extends JavaPlugin
 	
 	public void restoreChunk(Chunk chunk, int miny, boolean aggressiveMode, long delayInTicks, Player playerReceivingVisualization)
 	{
-		//build a snapshot of this chunk, including 1 block boundary outside of the chunk all the way around
-		int maxHeight = chunk.getWorld().getMaxHeight();
-		BlockSnapshot[][][] snapshots = new BlockSnapshot[18][maxHeight][18];
-		Block startBlock = chunk.getBlock(0, 0, 0);
-		Location startLocation = new Location(chunk.getWorld(), startBlock.getX() - 1, 0, startBlock.getZ() - 1);
-		for(int x = 0; x < snapshots.length; x++)
+		//capture this chunk and its neighbors (the restoration looks 1 block outside of the chunk all the way around)
+		//chunk snapshots are cheap to take here on the main thread, and safe to read from the processing thread
+		//the per-block work of turning them into block snapshots happens over there
+		World world = chunk.getWorld();
+		ChunkSnapshot[][] chunkSnapshots = new ChunkSnapshot[3][3];
+		for(int x = 0; x < 3; x++)
 		{
-			for(int z = 0; z < snapshots[0][0].length; z++)
+			for(int z = 0; z < 3; z++)
 			{
-				for(int y = 0; y < snapshots[0].length; y++)
-				{
-					Block block = chunk.getWorld().getBlockAt(startLocation.getBlockX() + x, startLocation.getBlockY() + y, startLocation.getBlockZ() + z);
-					snapshots[x][y][z] = new BlockSnapshot(block.getLocation(), block.getTypeId(), block.getData());
-				}
+				chunkSnapshots[x][z] = world.getChunkAt(chunk.getX() + x - 1, chunk.getZ() + z - 1).getChunkSnapshot();
 			}
 		}
 		
@@ -2354,7 +2432,8 @@ public class GriefPrevention extends JavaPlugin
 		//create task
 		//when done processing, this task will create a main thread task to actually update the world with processing results
 		RestoreNatureProcessingTask task = new RestoreNatureProcessingTask(
-                snapshots, 
+                chunkSnapshots, 
+                world.getMaxHeight(), 
                 miny, 
                 chunk.getWorld().getEnvironment(), 
                 lesserBoundaryCorner.getBlock().getBiome(), 
@@ -0,0 +1,124 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//records how long something takes, cheaply enough to use on every event
+//values (in nanoseconds) are counted in log-linear buckets, HDR histogram style:
+//below 16ns each value has its own bucket, above that every power of two is split into 8 buckets, so percentiles are within 12.5%
+//safe to record into from any thread without locking
+class LatencyHistogram
+{
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+	private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - 4) * SUB_BUCKET_COUNT;
+	
+	//metric name and prometheus labels (like handler="..."), or an empty string for no labels
+	final String name;
+	final String labels;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanoseconds = new AtomicLong();
+	private final AtomicLong maxNanoseconds = new AtomicLong();
+	
+	LatencyHistogram(String name, String labels)
+	{
+		this.name = name;
+		this.labels = labels;
+	}
+	
+	//records the time since a System.nanoTime() reading
+	void recordSince(long startNanoseconds)
+	{
+		this.record(System.nanoTime() - startNanoseconds);
+	}
+	
+	void record(long nanoseconds)
+	{
+		if(nanoseconds < 0) nanoseconds = 0;
+		
+		this.buckets.incrementAndGet(bucketIndex(nanoseconds));
+		this.count.incrementAndGet();
+		this.totalNanoseconds.addAndGet(nanoseconds);
+		
+		long max = this.maxNanoseconds.get();
+		while(nanoseconds > max && !this.maxNanoseconds.compareAndSet(max, nanoseconds))
+		{
+			max = this.maxNanoseconds.get();
+		}
+	}
+	
+	long getCount()
+	{
+		return this.count.get();
+	}
+	
+	long getTotalNanoseconds()
+	{
+		return this.totalNanoseconds.get();
+	}
+	
+	long getMaxNanoseconds()
+	{
+		return this.maxNanoseconds.get();
+	}
+	
+	//estimates the value below which the given fraction (0 to 1) of recordings fall
+	//reports the top of the bucket it lands in, so it errs on the slow side
+	long getValueAtQuantile(double quantile)
+	{
+		long total = this.count.get();
+		if(total == 0) return 0;
+		
+		long target = (long)Math.ceil(quantile * total);
+		if(target < 1) target = 1;
+		
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++)
+		{
+			seen += this.buckets.get(i);
+			if(seen >= target) return Math.min(bucketUpperBound(i), this.maxNanoseconds.get());
+		}
+		
+		return this.maxNanoseconds.get();
+	}
+	
+	private static int bucketIndex(long value)
+	{
+		if(value < LINEAR_LIMIT) return (int)value;
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+		return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKET_COUNT + subBucket;
+	}
+	
+	private static long bucketUpperBound(int index)
+	{
+		if(index < LINEAR_LIMIT) return index;
+		
+		int exponent = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + 4;
+		int subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT;
+		long bucketWidth = 1L << (exponent - SUB_BUCKET_BITS);
+		return (1L << exponent) + (subBucket + 1) * bucketWidth - 1;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+//plugin-wide timing registry
+//the commonly used timers are fields here, so timing something costs two System.nanoTime() calls and a few atomic increments
+//see MetricsExportTask for the file export and the /gpstats command for the in-game view
+class Metrics
+{
+	//every timer, by metric name plus labels
+	private static final ConcurrentHashMap<String, LatencyHistogram> timers = new ConcurrentHashMap<String, LatencyHistogram>();
+	
+	//data store
+	static final LatencyHistogram getClaimAt = timer("datastore_get_claim_at", "");
+	static final LatencyHistogram getPlayerData = timer("datastore_get_player_data", "");
+	static final LatencyHistogram savePlayerData = timer("datastore_save_player_data", "");
+	static final LatencyHistogram writeClaimToStorage = timer("datastore_write_claim", "");
+	static final LatencyHistogram writePlayerDataToStorage = timer("datastore_write_player_data", "");
+	
+	//restore nature
+	static final LatencyHistogram restoreNatureProcessing = timer("restore_nature_processing", "");
+	static final LatencyHistogram restoreNatureExecution = timer("restore_nature_execution", "");
+	
+	//returns the timer with this name and labels, creating it if necessary
+	static LatencyHistogram timer(String name, String labels)
+	{
+		String key = labels.length() == 0 ? name : name + "{" + labels + "}";
+		LatencyHistogram timer = timers.get(key);
+		if(timer == null)
+		{
+			timer = new LatencyHistogram(name, labels);
+			LatencyHistogram existingTimer = timers.putIfAbsent(key, timer);
+			if(existingTimer != null) timer = existingTimer;
+		}
+		
+		return timer;
+	}
+	
+	//the timer for one event handler method, like "PlayerEventHandler.onPlayerJoin"
+	static LatencyHistogram eventHandlerTimer(String handlerName)
+	{
+		return timer("event_handler", "handler=\"" + handlerName + "\"");
+	}
+	
+	//all timers which have recorded anything, the most total time first
+	static ArrayList<LatencyHistogram> getBusiestTimers()
+	{
+		ArrayList<LatencyHistogram> busiest = new ArrayList<LatencyHistogram>();
+		for(LatencyHistogram timer : timers.values())
+		{
+			if(timer.getCount() > 0) busiest.add(timer);
+		}
+		
+		Collections.sort(busiest, new Comparator<LatencyHistogram>()
+		{
+			@Override
+			public int compare(LatencyHistogram first, LatencyHistogram second)
+			{
+				long difference = second.getTotalNanoseconds() - first.getTotalNanoseconds();
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+		
+		return busiest;
+	}
+	
+	//all timers, grouped by metric name for the prometheus export
+	static ArrayList<LatencyHistogram> getTimersByName()
+	{
+		ArrayList<LatencyHistogram> sorted = new ArrayList<LatencyHistogram>(timers.values());
+		Collections.sort(sorted, new Comparator<LatencyHistogram>()
+		{
+			@Override
+			public int compare(LatencyHistogram first, LatencyHistogram second)
+			{
+				int result = first.name.compareTo(second.name);
+				if(result == 0) result = first.labels.compareTo(second.labels);
+				return result;
+			}
+		});
+		
+		return sorted;
+	}
+	
+	//formats a duration for people to read, like "1.25ms"
+	static String formatNanoseconds(long nanoseconds)
+	{
+		if(nanoseconds < 1000L) return nanoseconds + "ns";
+		if(nanoseconds < 1000000L) return String.format("%.1fus", nanoseconds / 1000.0);
+		if(nanoseconds < 1000000000L) return String.format("%.2fms", nanoseconds / 1000000.0);
+		return String.format("%.2fs", nanoseconds / 1000000000.0);
+	}
+}
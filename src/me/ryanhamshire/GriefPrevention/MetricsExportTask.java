@@ -0,0 +1,171 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+//writes all timers and a few gauges to a file in the prometheus text format
+//a node exporter textfile collector (or anything else) can pick the file up from there
+//runs off the main thread, every GriefPrevention.Metrics.ExportIntervalSeconds
+class MetricsExportTask implements Runnable 
+{
+	private final static String metricsFilePath = DataStore.dataLayerFolderPath + File.separator + "metrics.prom";
+	
+	//the quantiles reported for every timer
+	private final static double [] quantiles = new double [] { 0.5, 0.9, 0.99, 0.999 };
+	
+	private DataStore dataStore;
+	
+	MetricsExportTask(DataStore dataStore)
+	{
+		this.dataStore = dataStore;
+	}
+	
+	@Override
+	public void run()
+	{
+		StringBuilder output = new StringBuilder();
+		
+		//timers, as summaries in seconds
+		ArrayList<LatencyHistogram> timers = Metrics.getTimersByName();
+		String previousName = null;
+		for(int i = 0; i < timers.size(); i++)
+		{
+			LatencyHistogram timer = timers.get(i);
+			String metricName = "griefprevention_" + timer.name + "_seconds";
+			
+			//type information only once per metric name, there may be many label sets
+			if(!timer.name.equals(previousName))
+			{
+				output.append("# TYPE ").append(metricName).append(" summary\n");
+				previousName = timer.name;
+			}
+			
+			//read the count first, so the quantiles are never based on fewer values than reported
+			long count = timer.getCount();
+			for(int j = 0; j < quantiles.length; j++)
+			{
+				String labels = (timer.labels.length() == 0 ? "" : timer.labels + ",") + "quantile=\"" + quantiles[j] + "\"";
+				appendSample(output, metricName, labels, seconds(timer.getValueAtQuantile(quantiles[j])));
+			}
+			
+			appendSample(output, metricName + "_sum", timer.labels, seconds(timer.getTotalNanoseconds()));
+			appendSample(output, metricName + "_count", timer.labels, String.valueOf(count));
+		}
+		
+		//the slowest single call of each timer, as a separate gauge because summaries don't have a max
+		previousName = null;
+		for(int i = 0; i < timers.size(); i++)
+		{
+			LatencyHistogram timer = timers.get(i);
+			String metricName = "griefprevention_" + timer.name + "_max_seconds";
+			if(!timer.name.equals(previousName))
+			{
+				output.append("# TYPE ").append(metricName).append(" gauge\n");
+				previousName = timer.name;
+			}
+			
+			appendSample(output, metricName, timer.labels, seconds(timer.getMaxNanoseconds()));
+		}
+		
+		//claims
+		int claimCount;
+		this.dataStore.claimsLock.readLock().lock();
+		try
+		{
+			claimCount = this.dataStore.claims.size();
+		}
+		finally
+		{
+			this.dataStore.claimsLock.readLock().unlock();
+		}
+		
+		appendGauge(output, "griefprevention_claims", claimCount);
+		
+		//player data cache
+		PlayerDataCache cache = this.dataStore.playerDataCache;
+		appendGauge(output, "griefprevention_player_data_cache_entries", cache.size());
+		appendCounter(output, "griefprevention_player_data_cache_hits_total", cache.getHits());
+		appendCounter(output, "griefprevention_player_data_cache_misses_total", cache.getMisses());
+		appendCounter(output, "griefprevention_player_data_cache_evictions_total", cache.getEvictions());
+		
+		//claim expiration
+		appendGauge(output, "griefprevention_claim_owners_tracked", this.dataStore.expirationIndex.size());
+		
+		//write to a temporary file and then swap it in, so readers never see a half written file
+		File metricsFile = new File(metricsFilePath);
+		File temporaryFile = new File(metricsFilePath + ".tmp");
+		BufferedWriter outStream = null;
+		try
+		{
+			outStream = new BufferedWriter(new FileWriter(temporaryFile));
+			outStream.write(output.toString());
+			outStream.close();
+			outStream = null;
+			
+			//rename won't replace an existing file on every platform
+			if(!temporaryFile.renameTo(metricsFile))
+			{
+				metricsFile.delete();
+				if(!temporaryFile.renameTo(metricsFile))
+				{
+					GriefPrevention.AddLogEntry("Unable to write metrics file \"" + metricsFilePath + "\".");
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			GriefPrevention.AddLogEntry("Unexpected exception writing metrics file \"" + metricsFilePath + "\": " + e.getMessage());
+		}
+		
+		//close the file
+		try
+		{
+			if(outStream != null) outStream.close();
+		}
+		catch(Exception e) {}
+	}
+	
+	private static void appendSample(StringBuilder output, String metricName, String labels, String value)
+	{
+		output.append(metricName);
+		if(labels.length() > 0) output.append('{').append(labels).append('}');
+		output.append(' ').append(value).append('\n');
+	}
+	
+	private static void appendGauge(StringBuilder output, String metricName, long value)
+	{
+		output.append("# TYPE ").append(metricName).append(" gauge\n");
+		appendSample(output, metricName, "", String.valueOf(value));
+	}
+	
+	private static void appendCounter(StringBuilder output, String metricName, long value)
+	{
+		output.append("# TYPE ").append(metricName).append(" counter\n");
+		appendSample(output, metricName, "", String.valueOf(value));
+	}
+	
+	private static String seconds(long nanoseconds)
+	{
+		return String.valueOf(nanoseconds / 1000000000.0);
+	}
+}
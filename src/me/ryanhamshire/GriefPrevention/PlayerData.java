@@ -31,8 +31,16 @@ public class PlayerData
 	public String playerName;
 	
 	//the player's claims
+	//change this through addClaim() and removeClaim(), so the used claim blocks total below stays right
 	public Vector<Claim> claims = new Vector<Claim>();
 	
+	//total area of the claims above
+	private volatile int usedClaimBlocks = 0;
+	
+	//claim blocks granted by group membership (permissions), as of the last refresh.  see DataStore.refreshGroupBonusBlocks()
+	//permissions can only be checked for online players, so this is saved with the rest of the data for use while the player is offline
+	volatile int groupBonusClaimBlocks = 0;
+	
 	//how many claim blocks the player has earned via play time
 	public int accruedClaimBlocks = GriefPrevention.instance.config_claims_initialBlocks;
 	
@@ -72,13 +80,12 @@ public class PlayerData
 	
 	//spam
 	public Date lastLogin;							//when the player last logged into the server
-	public String lastMessage = "";					//the player's last chat message, or slash command complete with parameters 
-	public Date lastMessageTimestamp = new Date();  //last time the player sent a chat message or used a monitored slash command
-	public int spamCount = 0;						//number of consecutive "spams"
-	public boolean spamWarned = false;				//whether the player recently received a warning
+	public String lastMessage = "";					//the text on the player's last placed sign, chat spam is tracked by SpamDetector 
 	
 	//visualization
-	public Visualization currentVisualization = null;
+	public Visualization currentVisualization = null;		//the fake blocks the player can see right now
+	Visualization pendingVisualization = null;				//scheduled to replace the current visualization shortly, see Visualization.Apply()
+	long lastVisualizationTimestamp = 0;					//when the current visualization was sent
 	
 	//anti-camping pvp protection
 	public boolean pvpImmune = false;
@@ -132,18 +139,26 @@ public class PlayerData
 	}
 	
 	//the number of claim blocks a player has available for claiming land
+	//doesn't look at any claims or permissions, so it's cheap and safe to call from any thread
 	public int getRemainingClaimBlocks()
 	{
-		int remainingBlocks = this.accruedClaimBlocks + this.bonusClaimBlocks;
-		for(int i = 0; i < this.claims.size(); i++)
+		//include any blocks this player might have based on group membership (permissions)
+		return this.accruedClaimBlocks + this.bonusClaimBlocks + this.groupBonusClaimBlocks - this.usedClaimBlocks;
+	}
+	
+	//notes a new claim for this player
+	void addClaim(Claim claim)
+	{
+		this.claims.add(claim);
+		this.usedClaimBlocks += claim.getArea();
+	}
+	
+	//forgets one of this player's claims
+	void removeClaim(Claim claim)
+	{
+		if(this.claims.remove(claim))
 		{
-			Claim claim = this.claims.get(i);
-			remainingBlocks -= claim.getArea();
+			this.usedClaimBlocks -= claim.getArea();
 		}
-		
-		//add any blocks this player might have based on group membership (permissions)
-		remainingBlocks += GriefPrevention.instance.dataStore.getGroupBonusBlocks(this.playerName);
-		
-		return remainingBlocks;
 	}
 }
\ No newline at end of file
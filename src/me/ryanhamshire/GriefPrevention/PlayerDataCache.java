@@ -0,0 +1,207 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+//in-memory cache for player data, bounded by size and by idle time
+//online players are never evicted.  offline players (looked up by commands, pvp, claim cleanup, etc) are evicted least recently used first
+//each entry remembers what was last loaded or saved, so an entry with unsaved changes can be written back before it's dropped
+class PlayerDataCache
+{
+	//most offline players to keep in memory at once
+	static final int maxOfflineEntries = 500;
+	
+	//offline players not looked at for this long are dropped
+	static final long maxIdleMilliseconds = 1000L * 60 * 10;
+	
+	private final ConcurrentHashMap<String, CacheEntry> playerNameToEntryMap = new ConcurrentHashMap<String, CacheEntry>();
+	
+	//counters, for troubleshooting memory use
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	//returns the cached data for a player, or null if it isn't cached
+	PlayerData get(String playerName)
+	{
+		CacheEntry entry = this.playerNameToEntryMap.get(playerName);
+		if(entry == null)
+		{
+			this.misses.incrementAndGet();
+			return null;
+		}
+		
+		this.hits.incrementAndGet();
+		entry.lastAccessed = System.currentTimeMillis();
+		return entry.playerData;
+	}
+	
+	//returns the cached data for a player without counting it as a use, or null if it isn't cached
+	PlayerData peek(String playerName)
+	{
+		CacheEntry entry = this.playerNameToEntryMap.get(playerName);
+		return entry == null ? null : entry.playerData;
+	}
+	
+	//caches freshly loaded data for a player, unless another thread cached some first
+	//returns whichever data ends up in the cache
+	PlayerData putIfAbsent(String playerName, PlayerData playerData)
+	{
+		CacheEntry entry = new CacheEntry(playerData);
+		CacheEntry existingEntry = this.playerNameToEntryMap.putIfAbsent(playerName, entry);
+		if(existingEntry != null) return existingEntry.playerData;
+		
+		return playerData;
+	}
+	
+	void remove(String playerName)
+	{
+		this.playerNameToEntryMap.remove(playerName);
+	}
+	
+	//notes that a player's data has been queued for saving, so it doesn't need to be written back on eviction
+	void markSaved(String playerName, PlayerData playerData)
+	{
+		CacheEntry entry = this.playerNameToEntryMap.get(playerName);
+		if(entry != null && entry.playerData == playerData)
+		{
+			entry.rememberSavedValues();
+		}
+	}
+	
+	//removes idle offline players, then the least recently used offline players beyond the size limit
+	//returns the evicted data which had unsaved changes, so the caller can write it back
+	ArrayList<PlayerData> evict(Set<String> onlinePlayerNames)
+	{
+		long now = System.currentTimeMillis();
+		ArrayList<Map.Entry<String, CacheEntry>> offlineEntries = new ArrayList<Map.Entry<String, CacheEntry>>();
+		ArrayList<PlayerData> dirtyData = new ArrayList<PlayerData>();
+		
+		Iterator<Map.Entry<String, CacheEntry>> iterator = this.playerNameToEntryMap.entrySet().iterator();
+		while(iterator.hasNext())
+		{
+			Map.Entry<String, CacheEntry> mapEntry = iterator.next();
+			if(onlinePlayerNames.contains(mapEntry.getKey())) continue;
+			
+			if(now - mapEntry.getValue().lastAccessed > maxIdleMilliseconds)
+			{
+				this.evict(mapEntry.getKey(), mapEntry.getValue(), dirtyData);
+			}
+			else
+			{
+				offlineEntries.add(mapEntry);
+			}
+		}
+		
+		//oldest first
+		if(offlineEntries.size() > maxOfflineEntries)
+		{
+			Collections.sort(offlineEntries, new Comparator<Map.Entry<String, CacheEntry>>()
+			{
+				@Override
+				public int compare(Map.Entry<String, CacheEntry> first, Map.Entry<String, CacheEntry> second)
+				{
+					long difference = first.getValue().lastAccessed - second.getValue().lastAccessed;
+					return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+				}
+			});
+			
+			int excess = offlineEntries.size() - maxOfflineEntries;
+			for(int i = 0; i < excess; i++)
+			{
+				Map.Entry<String, CacheEntry> mapEntry = offlineEntries.get(i);
+				this.evict(mapEntry.getKey(), mapEntry.getValue(), dirtyData);
+			}
+		}
+		
+		return dirtyData;
+	}
+	
+	//helper for above
+	private void evict(String playerName, CacheEntry entry, ArrayList<PlayerData> dirtyData)
+	{
+		//only remove the entry we looked at, in case it was replaced in the meantime
+		if(!this.playerNameToEntryMap.remove(playerName, entry)) return;
+		
+		this.evictions.incrementAndGet();
+		if(entry.isDirty()) dirtyData.add(entry.playerData);
+	}
+	
+	int size()
+	{
+		return this.playerNameToEntryMap.size();
+	}
+	
+	long getHits()
+	{
+		return this.hits.get();
+	}
+	
+	long getMisses()
+	{
+		return this.misses.get();
+	}
+	
+	long getEvictions()
+	{
+		return this.evictions.get();
+	}
+	
+	//one cached player
+	private static class CacheEntry
+	{
+		final PlayerData playerData;
+		volatile long lastAccessed;
+		
+		//the values which go to secondary storage, as of the last load or save
+		private long savedLastLogin;
+		private int savedAccruedClaimBlocks;
+		private int savedBonusClaimBlocks;
+		private int savedGroupBonusClaimBlocks;
+		
+		CacheEntry(PlayerData playerData)
+		{
+			this.playerData = playerData;
+			this.lastAccessed = System.currentTimeMillis();
+			this.rememberSavedValues();
+		}
+		
+		synchronized void rememberSavedValues()
+		{
+			this.savedLastLogin = this.playerData.lastLogin == null ? 0 : this.playerData.lastLogin.getTime();
+			this.savedAccruedClaimBlocks = this.playerData.accruedClaimBlocks;
+			this.savedBonusClaimBlocks = this.playerData.bonusClaimBlocks;
+			this.savedGroupBonusClaimBlocks = this.playerData.groupBonusClaimBlocks;
+		}
+		
+		synchronized boolean isDirty()
+		{
+			long lastLogin = this.playerData.lastLogin == null ? 0 : this.playerData.lastLogin.getTime();
+			return lastLogin != this.savedLastLogin || this.playerData.accruedClaimBlocks != this.savedAccruedClaimBlocks || this.playerData.bonusClaimBlocks != this.savedBonusClaimBlocks || this.playerData.groupBonusClaimBlocks != this.savedGroupBonusClaimBlocks;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.HashSet;
+
+import org.bukkit.entity.Player;
+
+//keeps the player data cache from growing without bound
+//runs on the main thread, so the list of online players (which are never evicted) is accurate
+//also refreshes online players' group bonus blocks, since Bukkit has no event for permission or group changes
+class PlayerDataCacheTrimTask implements Runnable 
+{
+	//how often to log the cache's counters
+	private static final long MILLISECONDS_BETWEEN_REPORTS = 1000L * 60 * 60;
+	
+	private long lastReportTimestamp = System.currentTimeMillis();
+	
+	@Override
+	public void run()
+	{
+		DataStore dataStore = GriefPrevention.instance.dataStore;
+		
+		HashSet<String> onlinePlayerNames = new HashSet<String>();
+		Player [] players = GriefPrevention.instance.getServer().getOnlinePlayers();
+		for(int i = 0; i < players.length; i++)
+		{
+			onlinePlayerNames.add(players[i].getName());
+			
+			//picks up promotions and demotions within a minute, without checking permissions on every shovel equip
+			dataStore.refreshGroupBonusBlocks(players[i]);
+		}
+		
+		dataStore.trimPlayerDataCache(onlinePlayerNames);
+		
+		//occasionally report how the cache is doing
+		long now = System.currentTimeMillis();
+		if(now - this.lastReportTimestamp >= MILLISECONDS_BETWEEN_REPORTS)
+		{
+			this.lastReportTimestamp = now;
+			PlayerDataCache cache = dataStore.playerDataCache;
+			GriefPrevention.AddLogEntry("Player data cache: " + cache.size() + " entries, " + cache.getHits() + " hits, " + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions.");
+		}
+	}
+}
@@ -22,8 +22,6 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
@@ -63,25 +61,28 @@ class PlayerEventHandler implements Listener
 	//timestamps of login and logout notifications in the last minute
 	private ArrayList<Long> recentLoginLogoutNotifications = new ArrayList<Long>();
 	
-	//regex pattern for the "how do i claim land?" scanner
-	private Pattern howToClaimPattern = null;
+	//finds "how do i claim land?" questions, /trapped keywords, IP addresses and gibberish in chat
+	private ChatScanner chatScanner;
+	
+	//per-player chat and slash command spam tracking
+	private SpamDetector spamDetector;
 	
 	//typical constructor, yawn
 	PlayerEventHandler(DataStore dataStore, GriefPrevention plugin)
 	{
 		this.dataStore = dataStore;
+		this.chatScanner = new ChatScanner(dataStore.getMessage(Messages.HowToClaimRegex), new String [] { "trapped", "stuck", dataStore.getMessage(Messages.TrappedChatKeyword) }, plugin.config_spam_allowedIpAddresses);
+		this.spamDetector = new SpamDetector();
 	}
 	//returns true if the message should be sent, false if it should be muted 
 	private boolean handlePlayerChat(Player player, String message, PlayerEvent event)
 	{
+		//everything below looks at the same few properties of the message, so find them all in one pass
+		ChatScanner.ChatScanResult scanResult = this.chatScanner.scan(message);
+		
 		//FEATURE: automatically educate players about claiming land
 		//watching for message format how*claim*, and will send a link to the basics video
-		if(this.howToClaimPattern == null)
-		{
-			this.howToClaimPattern = Pattern.compile(this.dataStore.getMessage(Messages.HowToClaimRegex), Pattern.CASE_INSENSITIVE);
-		}
-		
-		if(this.howToClaimPattern.matcher(message).matches())
+		if(scanResult.asksHowToClaim)
 		{
 			// if(GriefPrevention.instance.creativeRulesApply(player.getLocation()))
 			// {
@@ -95,7 +96,7 @@ class PlayerEventHandler implements Listener
 		
 		//FEATURE: automatically educate players about the /trapped command
 		//check for "trapped" or "stuck" to educate players about the /trapped command
-		if(message.contains("trapped") || message.contains("stuck") || message.contains(this.dataStore.getMessage(Messages.TrappedChatKeyword)))
+		if(scanResult.mentionsTrapped)
 		{
 			GriefPrevention.sendMessage(player, TextMode.Info, Messages.TrappedInstructions, 10L);
 		}
@@ -110,195 +111,61 @@ class PlayerEventHandler implements Listener
 		//where other types of spam are concerned, casing isn't significant
 		message = message.toLowerCase();
 		
-		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
-		
-		boolean spam = false;
-		boolean muted = false;
-		
-		//check message content and timing		
-		long millisecondsSinceLastMessage = (new Date()).getTime() - playerData.lastMessageTimestamp.getTime();
+		//all spam state lives in the spam detector, so this never waits on the data store
+		SpamDetector.SpamAnalysisResult result = this.spamDetector.analyzeMessage(player.getName(), message, System.currentTimeMillis(), scanResult);
 		
-		//if the message came too close to the last one
-		if(millisecondsSinceLastMessage < 2000)
+		if(result.mutedIpAddress)
 		{
-			//increment the spam counter
-			playerData.spamCount++;
-			spam = true;
+			GriefPrevention.AddLogEntry("Muted IP address from " + player.getName() + ": " + message);
 		}
 		
-		//if it's very similar to the last message
-		if(!muted && this.stringsAreSimilar(message, playerData.lastMessage))
+		//anything above level 8 for a player which has received a warning...  kick or if enabled, ban
+		if(result.kick)
 		{
-			playerData.spamCount++;
-			spam = true;
-			muted = true;
-		}
-		
-		//filter IP addresses
-		if(!muted)
-		{
-			Pattern ipAddressPattern = Pattern.compile("\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}");
-			Matcher matcher = ipAddressPattern.matcher(message);
-			
-			//if it looks like an IP address
-			while(matcher.find())
+			if(GriefPrevention.instance.config_spam_banOffenders)
 			{
-				//and it's not in the list of allowed IP addresses
-				if(!GriefPrevention.instance.config_spam_allowedIpAddresses.contains(matcher.group()))
-				{
-					//log entry
-					GriefPrevention.AddLogEntry("Muted IP address from " + player.getName() + ": " + message);
-					
-					//spam notation
-					playerData.spamCount++;
-					spam = true;
-					
-					//block message
-					muted = true;
-				}
-			}
-		}
-		
-		//if the message was mostly non-alpha-numerics or doesn't include much whitespace, consider it a spam (probably ansi art or random text gibberish) 
-		if(!muted && message.length() > 5)
-		{
-			int symbolsCount = 0;
-			int whitespaceCount = 0;
-			for(int i = 0; i < message.length(); i++)
-			{
-				char character = message.charAt(i);
-				if(!(Character.isLetterOrDigit(character)))
-				{
-					symbolsCount++;
-				}
-				
-				if(Character.isWhitespace(character))
-				{
-					whitespaceCount++;
-				}
+				//log entry
+				GriefPrevention.AddLogEntry("Banning " + player.getName() + " for spam.");
 			}
 			
-			if(symbolsCount > message.length() / 2 || (message.length() > 15 && whitespaceCount < message.length() / 10))
-			{
-				spam = true;
-				if(playerData.spamCount > 0) muted = true;
-				playerData.spamCount++;
-			}
+			//kicking and banning have to happen on the main thread
+			PlayerKickBanTask task = new PlayerKickBanTask(player, GriefPrevention.instance.config_spam_banOffenders ? GriefPrevention.instance.config_spam_banMessage : "", GriefPrevention.instance.config_spam_banOffenders);
+			GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, task);
+			
+			return true;
 		}
 		
-		//very short messages close together are spam
-		if(!muted && message.length() < 5 && millisecondsSinceLastMessage < 5000)
+		if(result.warn)
 		{
-			spam = true;
-			playerData.spamCount++;
+			GriefPrevention.sendMessage(player, TextMode.Warn, GriefPrevention.instance.config_spam_warningMessage, 10L);
+			GriefPrevention.AddLogEntry("Warned " + player.getName() + " about spam penalties.");
 		}
 		
-		//if the message was determined to be a spam, consider taking action		
-		if(!player.hasPermission("griefprevention.spam") && spam)
-		{		
-			//anything above level 8 for a player which has received a warning...  kick or if enabled, ban 
-			if(playerData.spamCount > 8 && playerData.spamWarned)
-			{
-				if(GriefPrevention.instance.config_spam_banOffenders)
-				{
-					//log entry
-					GriefPrevention.AddLogEntry("Banning " + player.getName() + " for spam.");
-					
-					//ban
-					GriefPrevention.instance.getServer().getOfflinePlayer(player.getName()).setBanned(true);
-					
-					//kick
-					player.kickPlayer(GriefPrevention.instance.config_spam_banMessage);
-				}	
-				else
-				{
-					player.kickPlayer("");
-				}
-				
-				return true;
-			}
+		if(result.muted)
+		{
+			//make a log entry
+			GriefPrevention.AddLogEntry("Muted spam from " + player.getName() + ": " + message);
 			
-			//cancel any messages while at or above the third spam level and issue warnings
-			//anything above level 2, mute and warn
-			if(playerData.spamCount >= 3)
-			{
-				muted = true;
-				if(!playerData.spamWarned)
-				{
-					GriefPrevention.sendMessage(player, TextMode.Warn, GriefPrevention.instance.config_spam_warningMessage, 10L);
-					GriefPrevention.AddLogEntry("Warned " + player.getName() + " about spam penalties.");
-					playerData.spamWarned = true;
-				}
-			}
+			//send a fake message so the player doesn't realize he's muted
+			//less information for spammers = less effective spam filter dodging
+			player.sendMessage("<" + player.getName() + "> " + message);
 			
-			if(muted)
-			{
-				//make a log entry
-				GriefPrevention.AddLogEntry("Muted spam from " + player.getName() + ": " + message);
-				
-				//send a fake message so the player doesn't realize he's muted
-				//less information for spammers = less effective spam filter dodging
-				player.sendMessage("<" + player.getName() + "> " + message);
-				
-				//cancelling the event guarantees other players don't receive the message
-				return true;
-			}		
-		}
-		
-		//otherwise if not a spam, reset the spam counter for this player
-		else
-		{
-			playerData.spamCount = 0;
-			playerData.spamWarned = false;
+			//cancelling the event guarantees other players don't receive the message
+			return true;
 		}
 		
-		//in any case, record the timestamp of this message and also its content for next time
-		playerData.lastMessageTimestamp = new Date();
-		playerData.lastMessage = message;
-		
 		return false;
 	}
 	
-	//if two strings are 75% identical, they're too close to follow each other in the chat
-	private boolean stringsAreSimilar(String message, String lastMessage)
+	//when a player chats, monitor for spam
+	//this runs on an async chat thread, so it must not touch the main thread or the data store's locks
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	void onPlayerChat (AsyncPlayerChatEvent event)
 	{
-		//determine which is shorter
-		String shorterString, longerString;
-		if(lastMessage.length() < message.length())
-		{
-			shorterString = lastMessage;
-			longerString = message;
-		}
-		else
-		{
-			shorterString = message;
-			longerString = lastMessage;
-		}
-		
-		if(shorterString.length() <= 5) return shorterString.equals(longerString);
-		
-		//set similarity tolerance
-		int maxIdenticalCharacters = longerString.length() - longerString.length() / 4;
-		
-		//trivial check on length
-		if(shorterString.length() < maxIdenticalCharacters) return false;
-		
-		//compare forward
-		int identicalCount = 0;
-		for(int i = 0; i < shorterString.length(); i++)
-		{
-			if(shorterString.charAt(i) == longerString.charAt(i)) identicalCount++;
-			if(identicalCount > maxIdenticalCharacters) return true;
-		}
-		
-		//compare backward
-		for(int i = 0; i < shorterString.length(); i++)
+		if(this.handlePlayerChat(event.getPlayer(), event.getMessage(), event))
 		{
-			if(shorterString.charAt(shorterString.length() - i - 1) == longerString.charAt(longerString.length() - i - 1)) identicalCount++;
-			if(identicalCount > maxIdenticalCharacters) return true;
+			event.setCancelled(true);
 		}
-		
-		return false;
 	}
 
 	//when a player uses a slash command...
@@ -470,6 +337,13 @@ class PlayerEventHandler implements Listener
 		GriefPrevention.instance.checkPvpProtectionNeeded(event.getPlayer());
 	}
 	
+	//per-world permissions may give a player different groups in the new world
+	@EventHandler(ignoreCancelled = true)
+	void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+	{
+		this.dataStore.refreshGroupBonusBlocks(event.getPlayer());
+	}
+	
 	//when a player successfully joins the server...
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	void onPlayerJoin(PlayerJoinEvent event)
@@ -482,6 +356,9 @@ class PlayerEventHandler implements Listener
 		playerData.lastLogin = new Date();
 		this.dataStore.savePlayerData(playerName, playerData);
 		
+		//note how many claim blocks the player's groups are worth
+		this.dataStore.refreshGroupBonusBlocks(event.getPlayer());
+		
 		//if player has never played on the server before, may need pvp protection
 		if(!event.getPlayer().hasPlayedBefore())
 		{
@@ -543,6 +420,7 @@ class PlayerEventHandler implements Listener
 		
 		//drop data about this player
 		this.dataStore.clearCachedPlayerData(player.getName());
+		this.spamDetector.forgetPlayer(playerName);
 	}
 	
 	//determines whether or not a login or logout notification should be silenced, depending on how many there have been in the last minute
@@ -773,7 +651,7 @@ class PlayerEventHandler implements Listener
 		Block block = bedEvent.getBed();
 		
 		//if the bed is in a claim 
-		Claim claim = this.dataStore.getClaimAt(block.getLocation(), false, null);
+		Claim claim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), null);
 		if(claim != null)
 		{
             PlayerData playerData = GriefPrevention.instance.dataStore.getPlayerData(player.getName());
@@ -805,7 +683,7 @@ class PlayerEventHandler implements Listener
 		}
 		
 		//if the bucket is being used in a claim, allow for dumping lava closer to other players
-		Claim claim = this.dataStore.getClaimAt(block.getLocation(), false, playerData.lastClaim);
+		Claim claim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), playerData.lastClaim);
 		if(claim != null)
 		{
 			minLavaDistance = 3;
@@ -903,7 +781,7 @@ class PlayerEventHandler implements Listener
 		PlayerData playerData = this.dataStore.getPlayerData(player.getName());
 		if(event.getClickedBlock() != null && event.getClickedBlock().getRelative(event.getBlockFace()).getType() == Material.FIRE)
 		{
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 			if(claim != null)
 			{
 				playerData.lastClaim = claim;
@@ -946,7 +824,7 @@ class PlayerEventHandler implements Listener
 			}
 			
 			//otherwise check permissions for the claim the player is in
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 			if(claim != null)
 			{
 				playerData.lastClaim = claim;
@@ -974,7 +852,7 @@ class PlayerEventHandler implements Listener
 				(GriefPrevention.instance.config_claims_lockTrapDoors && clickedBlockType == Material.TRAP_DOOR) ||
 				(GriefPrevention.instance.config_claims_lockFenceGates && clickedBlockType == Material.FENCE_GATE))
 		{
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 			if(claim != null)
 			{
 				playerData.lastClaim = claim;
@@ -992,7 +870,7 @@ class PlayerEventHandler implements Listener
 		//otherwise apply rules for buttons and switches
 		else if(GriefPrevention.instance.config_claims_preventButtonsSwitches && (clickedBlockType == null || clickedBlockType == Material.STONE_BUTTON || clickedBlockType == Material.LEVER || GriefPrevention.instance.config_mods_accessTrustIds.contains(clickedBlock.getTypeId())))
 		{
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 			if(claim != null)
 			{
 				playerData.lastClaim = claim;
@@ -1018,7 +896,7 @@ class PlayerEventHandler implements Listener
 		//apply rule for note blocks and repeaters
 		else if(clickedBlockType == Material.NOTE_BLOCK || clickedBlockType == Material.DIODE_BLOCK_ON || clickedBlockType == Material.DIODE_BLOCK_OFF)
 		{
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 			if(claim != null)
 			{
 				String noBuildReason = claim.allowBuild(player, playerData);
@@ -1091,7 +969,7 @@ class PlayerEventHandler implements Listener
 					return;
 				}
 				
-				Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false /*ignore height*/, playerData.lastClaim);
+				Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 				
 				//no claim case
 				if(claim == null)
@@ -1159,7 +1037,7 @@ class PlayerEventHandler implements Listener
 			if(playerData.shovelMode == ShovelMode.RestoreNature || playerData.shovelMode == ShovelMode.RestoreNatureAggressive)
 			{
 				//if the clicked block is in a claim, visualize that claim and deliver an error message
-				Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), false, playerData.lastClaim);
+				Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);
 				if(claim != null)
 				{
 					GriefPrevention.sendMessage(player, TextMode.Err, Messages.BlockClaimed, claim.getOwnerName());
@@ -1262,7 +1140,7 @@ class PlayerEventHandler implements Listener
 							Block block = centerBlock.getWorld().getBlockAt(x, y, z);
 							
 							//respect claims
-							Claim claim = this.dataStore.getClaimAt(block.getLocation(), false, cachedClaim);
+							Claim claim = this.dataStore.getClaimAt(block.getWorld(), block.getX(), block.getZ(), cachedClaim);
 							if(claim != null)
 							{
 								cachedClaim = claim;
@@ -1470,7 +1348,7 @@ class PlayerEventHandler implements Listener
 			}
 			
 			//otherwise, since not currently resizing a claim, must be starting a resize, creating a new claim, or creating a subdivision
-			Claim claim = this.dataStore.getClaimAt(clickedBlock.getLocation(), true /*ignore height*/, playerData.lastClaim);			
+			Claim claim = this.dataStore.getClaimAt(clickedBlock.getWorld(), clickedBlock.getX(), clickedBlock.getZ(), playerData.lastClaim);			
 			
 			//if within an existing claim, he's not creating a new one
 			if(claim != null)
@@ -21,6 +21,7 @@ package me.ryanhamshire.GriefPrevention;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Animals;
@@ -33,7 +34,8 @@ class RestoreNatureExecutionTask implements Runnable
 {
 	//results from processing thread
 	//will be applied to the world
-	private BlockSnapshot[][][] snapshots;
+	//x and z are relative to one block outside of the lesser corner, see RestoreNatureProcessingTask
+	private VoxelBuffer voxels;
 	
 	//boundaries for changes
 	private int miny;
@@ -43,9 +45,9 @@ class RestoreNatureExecutionTask implements Runnable
 	//player who should be notified about the result (will see a visualization when the restoration is complete)
 	private Player player;
 
-	public RestoreNatureExecutionTask(BlockSnapshot[][][] snapshots, int miny, Location lesserCorner, Location greaterCorner, Player player)
+	public RestoreNatureExecutionTask(VoxelBuffer voxels, int miny, Location lesserCorner, Location greaterCorner, Player player)
 	{
-		this.snapshots = snapshots;
+		this.voxels = voxels;
 		this.miny = miny;
 		this.lesserCorner = lesserCorner;
 		this.greaterCorner = greaterCorner;
@@ -58,26 +60,31 @@ class RestoreNatureExecutionTask implements Runnable
 		//apply changes to the world, but ONLY to unclaimed blocks
 		//note that the edge of the results is not applied (the 1-block-wide band around the outside of the chunk)
 		//those data were sent to the processing thread for referernce purposes, but aren't part of the area selected for restoration
+		long start = System.nanoTime();
 		Claim cachedClaim = null;
-		for(int x = 1; x < this.snapshots.length - 1; x++)
+		World world = this.lesserCorner.getWorld();
+		int startX = this.lesserCorner.getBlockX() - 1;
+		int startZ = this.lesserCorner.getBlockZ() - 1;
+		for(int x = 1; x < this.voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < this.snapshots[0][0].length; z++)
+			for(int z = 1; z < this.voxels.sizeZ; z++)
 			{
-				for(int y = this.miny; y < this.snapshots[0].length; y++)
+				for(int y = this.miny; y < this.voxels.height; y++)
 				{
-					BlockSnapshot blockUpdate = this.snapshots[x][y][z];
-					Block currentBlock = blockUpdate.location.getBlock();
-					if(blockUpdate.typeId != currentBlock.getTypeId() || blockUpdate.data != currentBlock.getData())
+					int typeId = this.voxels.getTypeId(x, y, z);
+					byte data = (byte)this.voxels.getData(x, y, z);
+					Block currentBlock = world.getBlockAt(startX + x, y, startZ + z);
+					if(typeId != currentBlock.getTypeId() || data != currentBlock.getData())
 					{
-						Claim claim = GriefPrevention.instance.dataStore.getClaimAt(blockUpdate.location, false, cachedClaim);
+						Claim claim = GriefPrevention.instance.dataStore.getClaimAt(world, startX + x, startZ + z, cachedClaim);
 						if(claim != null)
 						{
 							cachedClaim = claim;
 							break;
 						}
 						
-						currentBlock.setTypeId(blockUpdate.typeId);
-						currentBlock.setData(blockUpdate.data);
+						currentBlock.setTypeId(typeId);
+						currentBlock.setData(data);
 					}
 				}
 			}
@@ -101,6 +108,8 @@ class RestoreNatureExecutionTask implements Runnable
 			}
 		}
 		
+		Metrics.restoreNatureExecution.recordSince(start);
+		
 		//show visualization to player
 		if(player != null)
 		{
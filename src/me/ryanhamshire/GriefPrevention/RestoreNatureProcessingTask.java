@@ -18,8 +18,10 @@
  
 package me.ryanhamshire.GriefPrevention;
 
-import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World.Environment;
@@ -30,9 +32,14 @@ import org.bukkit.entity.Player;
 //after processing is complete, creates a main thread task to make the necessary changes to the world
 class RestoreNatureProcessingTask implements Runnable 
 {
-	//world information captured from the main thread
+	//chunk data captured from the main thread: the chunk to restore in the middle, and its neighbors around it
+	private ChunkSnapshot[][] chunkSnapshots;
+	private int maxHeight;
+	
+	//block data read from the chunk snapshots above, on this thread
+	//includes a 1 block boundary outside of the chunk all the way around
 	//will be updated and sent back to main thread to be applied to the world
-	private BlockSnapshot[][][] snapshots;
+	private VoxelBuffer voxels;
 	
 	//other information collected from the main thread.
 	//not to be updated, only to be passed back to main thread to provide some context about the operation
@@ -46,13 +53,41 @@ class RestoreNatureProcessingTask implements Runnable
 	private int seaLevel;
 	private boolean aggressiveMode;
 	
-	//two lists of materials
-	private ArrayList<Integer> notAllowedToHang;    //natural blocks which don't naturally hang in their air
-	private ArrayList<Integer> playerBlocks;		//a "complete" list of player-placed blocks.  MUST BE MAINTAINED as patches introduce more
+	//two sets of materials, by block type id
+	private BitSet notAllowedToHang;    //natural blocks which don't naturally hang in their air
+	private BitSet playerBlocks;		//a "complete" list of player-placed blocks.  MUST BE MAINTAINED as patches introduce more
+	
+	//player block sets for each combination of environment, biome, and mode seen so far
+	//only read after they're built, so tasks on different threads can share them
+	private static final ConcurrentHashMap<String, BitSet> playerBlocksCache = new ConcurrentHashMap<String, BitSet>();
+	
+	//blocks which don't count as neighbors when deciding whether stone is an outcropping
+	private static final BitSet nonSupportingBlocks = materialSet(Material.AIR, Material.LEAVES, Material.VINE);
 	
-	public RestoreNatureProcessingTask(BlockSnapshot[][][] snapshots, int miny, Environment environment, Biome biome, Location lesserBoundaryCorner, Location greaterBoundaryCorner, int seaLevel, boolean aggressiveMode, boolean creativeMode, Player player)
+	//blocks which may be left standing alone when removing walls and towers
+	private static final BitSet wallAndTowerExcludedBlocks = materialSet(
+		Material.CACTUS,
+		Material.LONG_GRASS,
+		Material.RED_MUSHROOM,
+		Material.BROWN_MUSHROOM,
+		Material.DEAD_BUSH,
+		Material.SAPLING,
+		Material.YELLOW_FLOWER,
+		Material.RED_ROSE,
+		Material.SUGAR_CANE_BLOCK,
+		Material.VINE,
+		Material.PUMPKIN,
+		Material.WATER_LILY,
+		Material.LEAVES);
+	
+	//blocks which may be filled in when fixing holes and trenches, and blocks which may not be used to fill them
+	private static final BitSet fillableBlocks = materialSet(Material.AIR, Material.STATIONARY_WATER, Material.STATIONARY_LAVA, Material.LONG_GRASS);
+	private static final BitSet notSuitableForFillBlocks = materialSet(Material.LONG_GRASS, Material.CACTUS, Material.STATIONARY_WATER, Material.STATIONARY_LAVA);
+	
+	public RestoreNatureProcessingTask(ChunkSnapshot[][] chunkSnapshots, int maxHeight, int miny, Environment environment, Biome biome, Location lesserBoundaryCorner, Location greaterBoundaryCorner, int seaLevel, boolean aggressiveMode, boolean creativeMode, Player player)
 	{
-		this.snapshots = snapshots;
+		this.chunkSnapshots = chunkSnapshots;
+		this.maxHeight = maxHeight;
 		this.miny = miny;
 		this.environment = environment;
 		this.lesserBoundaryCorner = lesserBoundaryCorner;
@@ -63,50 +98,25 @@ class RestoreNatureProcessingTask implements Runnable
 		this.player = player;
 		this.creativeMode = creativeMode;
 		
-		this.notAllowedToHang = new ArrayList<Integer>();
-		this.notAllowedToHang.add(Material.DIRT.getId());
-		this.notAllowedToHang.add(Material.LONG_GRASS.getId());
-		this.notAllowedToHang.add(Material.SNOW.getId());
-		this.notAllowedToHang.add(Material.LOG.getId());
+		this.notAllowedToHang = materialSet(Material.DIRT, Material.LONG_GRASS, Material.SNOW, Material.LOG);
 		
 		if(this.aggressiveMode)
 		{
-			this.notAllowedToHang.add(Material.GRASS.getId());			
-			this.notAllowedToHang.add(Material.STONE.getId());
-		}
-		
-		this.playerBlocks = new ArrayList<Integer>();
-		this.playerBlocks.addAll(RestoreNatureProcessingTask.getPlayerBlocks(this.environment, this.biome));
-		
-		//in aggressive or creative world mode, also treat these blocks as user placed, to be removed
-		//this is helpful in the few cases where griefers intentionally use natural blocks to grief,
-		//like a single-block tower of iron ore or a giant penis constructed with melons
-		if(this.aggressiveMode || this.creativeMode)
-		{
-			this.playerBlocks.add(Material.IRON_ORE.getId());
-			this.playerBlocks.add(Material.GOLD_ORE.getId());
-			this.playerBlocks.add(Material.DIAMOND_ORE.getId());
-			this.playerBlocks.add(Material.MELON_BLOCK.getId());
-			this.playerBlocks.add(Material.MELON_STEM.getId());
-			this.playerBlocks.add(Material.BEDROCK.getId());
-			this.playerBlocks.add(Material.COAL_ORE.getId());
-			this.playerBlocks.add(Material.PUMPKIN.getId());
-			this.playerBlocks.add(Material.PUMPKIN_STEM.getId());
-			this.playerBlocks.add(Material.MELON.getId());
+			this.notAllowedToHang.set(Material.GRASS.getId());			
+			this.notAllowedToHang.set(Material.STONE.getId());
 		}
 		
-		if(this.aggressiveMode)
-		{
-			this.playerBlocks.add(Material.LEAVES.getId());
-			this.playerBlocks.add(Material.LOG.getId());
-			this.playerBlocks.add(Material.LEAVES.getId());
-			this.playerBlocks.add(Material.VINE.getId());
-		}
+		this.playerBlocks = RestoreNatureProcessingTask.getPlayerBlocks(this.environment, this.biome, this.aggressiveMode, this.creativeMode);
 	}
 	
 	@Override
 	public void run()
 	{
+		long start = System.nanoTime();
+		
+		//read the blocks out of the chunk snapshots
+		this.voxels = this.readChunkSnapshots();
+		
 		//order is important!
 		
 		//remove sandstone which appears to be unnatural
@@ -145,27 +155,57 @@ class RestoreNatureProcessingTask implements Runnable
 		//cover surface stone and gravel with sand or grass, as the biome requires
 		this.coverSurfaceStone();
 		
+		long elapsed = System.nanoTime() - start;
+		Metrics.restoreNatureProcessing.record(elapsed);
+		if(SlowOperationLog.isSlow(elapsed))
+		{
+			SlowOperationLog.log("restoreNatureProcessing", elapsed, "chunk=" + (this.lesserBoundaryCorner.getBlockX() >> 4) + "," + (this.lesserBoundaryCorner.getBlockZ() >> 4) + " environment=" + this.environment + " biome=" + this.biome + " aggressive=" + this.aggressiveMode + " creative=" + this.creativeMode);
+		}
+		
 		//schedule main thread task to apply the result to the world
-		RestoreNatureExecutionTask task = new RestoreNatureExecutionTask(this.snapshots, this.miny, this.lesserBoundaryCorner, this.greaterBoundaryCorner, this.player);
+		RestoreNatureExecutionTask task = new RestoreNatureExecutionTask(this.voxels, this.miny, this.lesserBoundaryCorner, this.greaterBoundaryCorner, this.player);
 		GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, task);
 	}
 	
-	private void fillBigHoles()
+	//reads the chunk being restored, including 1 block boundary outside of the chunk all the way around
+	private VoxelBuffer readChunkSnapshots()
 	{
-		for(int x = 1; x < snapshots.length - 1; x++)
+		VoxelBuffer voxels = new VoxelBuffer(18, this.maxHeight, 18);
+		for(int x = 0; x < voxels.sizeX; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			//x = 0 is the last column of the neighbor chunk, x = 17 the first column of the next one
+			ChunkSnapshot[] chunkColumn = this.chunkSnapshots[(x + 15) / 16];
+			int chunkX = (x + 15) & 15;
+			for(int z = 0; z < voxels.sizeZ; z++)
 			{
-				//replace air, lava, or running water at sea level with stone
-				if(this.snapshots[x][this.seaLevel - 3][z].typeId == Material.AIR.getId() || this.snapshots[x][this.seaLevel - 3][z].typeId == Material.LAVA.getId() || (this.snapshots[x][this.seaLevel - 3][z].typeId == Material.WATER.getId() || this.snapshots[x][this.seaLevel - 3][z].data != 0))
+				ChunkSnapshot chunk = chunkColumn[(z + 15) / 16];
+				int chunkZ = (z + 15) & 15;
+				for(int y = 0; y < voxels.height; y++)
 				{
-					this.snapshots[x][this.seaLevel - 3][z].typeId = Material.STONE.getId();
+					voxels.set(x, y, z, chunk.getBlockTypeId(chunkX, y, chunkZ), chunk.getBlockData(chunkX, y, chunkZ));
 				}
-				
-				//do the same for one layer beneath that (because a future restoration step may convert surface stone to sand, which falls down)
-				if(this.snapshots[x][this.seaLevel - 4][z].typeId == Material.AIR.getId() || this.snapshots[x][this.seaLevel - 4][z].typeId == Material.LAVA.getId() || (this.snapshots[x][this.seaLevel - 4][z].typeId == Material.WATER.getId() || this.snapshots[x][this.seaLevel - 4][z].data != 0))
+			}
+		}
+		
+		return voxels;
+	}
+	
+	private void fillBigHoles()
+	{
+		VoxelBuffer voxels = this.voxels;
+		for(int x = 1; x < voxels.sizeX - 1; x++)
+		{
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
+			{
+				//replace air, lava, or running water at sea level with stone
+				//and do the same for one layer beneath that (because a future restoration step may convert surface stone to sand, which falls down)
+				for(int y = this.seaLevel - 3; y >= this.seaLevel - 4; y--)
 				{
-					this.snapshots[x][this.seaLevel - 4][z].typeId = Material.STONE.getId();
+					int typeId = voxels.getTypeId(x, y, z);
+					if(typeId == Material.AIR.getId() || typeId == Material.LAVA.getId() || (typeId == Material.WATER.getId() || voxels.getData(x, y, z) != 0))
+					{
+						voxels.setTypeId(x, y, z, Material.STONE.getId());
+					}
 				}
 			}
 		}
@@ -174,37 +214,35 @@ class RestoreNatureProcessingTask implements Runnable
 	//converts sandstone adjacent to sand to sand, and any other sandstone to air
 	private void removeSandstone()
 	{
-		for(int x = 1; x < snapshots.length - 1; x++)
+		VoxelBuffer voxels = this.voxels;
+		int sandId = Material.SAND.getId();
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = snapshots[0].length - 2; y > miny; y--)
+				for(int y = voxels.height - 2; y > miny; y--)
 				{
-					if(snapshots[x][y][z].typeId != Material.SANDSTONE.getId()) continue;
+					if(voxels.getTypeId(x, y, z) != Material.SANDSTONE.getId()) continue;
 					
-					BlockSnapshot leftBlock = this.snapshots[x + 1][y][z];
-					BlockSnapshot rightBlock = this.snapshots[x - 1][y][z];
-					BlockSnapshot upBlock = this.snapshots[x][y][z + 1];
-					BlockSnapshot downBlock = this.snapshots[x][y][z - 1];
-					BlockSnapshot underBlock = this.snapshots[x][y - 1][z];
-					BlockSnapshot aboveBlock = this.snapshots[x][y + 1][z];
+					int underTypeId = voxels.getTypeId(x, y - 1, z);
+					int aboveTypeId = voxels.getTypeId(x, y + 1, z);
 					
 					//skip blocks which may cause a cave-in
-					if(aboveBlock.typeId == Material.SAND.getId() && underBlock.typeId == Material.AIR.getId()) continue;
+					if(aboveTypeId == sandId && underTypeId == Material.AIR.getId()) continue;
 					
 					//count adjacent non-air/non-leaf blocks
-					if(	leftBlock.typeId == Material.SAND.getId() || 
-						rightBlock.typeId == Material.SAND.getId() ||
-						upBlock.typeId == Material.SAND.getId() ||
-						downBlock.typeId == Material.SAND.getId() ||
-						aboveBlock.typeId == Material.SAND.getId() ||
-						underBlock.typeId == Material.SAND.getId())
+					if(	voxels.getTypeId(x + 1, y, z) == sandId || 
+						voxels.getTypeId(x - 1, y, z) == sandId ||
+						voxels.getTypeId(x, y, z + 1) == sandId ||
+						voxels.getTypeId(x, y, z - 1) == sandId ||
+						aboveTypeId == sandId ||
+						underTypeId == sandId)
 					{
-						snapshots[x][y][z].typeId = Material.SAND.getId();
+						voxels.setTypeId(x, y, z, sandId);
 					}
 					else
 					{
-						snapshots[x][y][z].typeId = Material.AIR.getId();
+						voxels.setTypeId(x, y, z, Material.AIR.getId());
 					}					
 				}				
 			}
@@ -213,41 +251,25 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void reduceStone()
 	{
-		for(int x = 1; x < snapshots.length - 1; x++)
+		VoxelBuffer voxels = this.voxels;
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
 				int thisy = this.highestY(x, z, true);
 				
-				while(thisy > this.seaLevel - 2 && (this.snapshots[x][thisy][z].typeId == Material.STONE.getId() || this.snapshots[x][thisy][z].typeId == Material.SANDSTONE.getId()))
+				while(thisy > this.seaLevel - 2 && (voxels.getTypeId(x, thisy, z) == Material.STONE.getId() || voxels.getTypeId(x, thisy, z) == Material.SANDSTONE.getId()))
 				{
-					BlockSnapshot leftBlock = this.snapshots[x + 1][thisy][z];
-					BlockSnapshot rightBlock = this.snapshots[x - 1][thisy][z];
-					BlockSnapshot upBlock = this.snapshots[x][thisy][z + 1];
-					BlockSnapshot downBlock = this.snapshots[x][thisy][z - 1];
-					
 					//count adjacent non-air/non-leaf blocks
 					byte adjacentBlockCount = 0;
-					if(leftBlock.typeId != Material.AIR.getId() && leftBlock.typeId != Material.LEAVES.getId() && leftBlock.typeId != Material.VINE.getId())
-					{
-						adjacentBlockCount++;
-					}
-					if(rightBlock.typeId != Material.AIR.getId() && rightBlock.typeId != Material.LEAVES.getId() && rightBlock.typeId != Material.VINE.getId())
-					{
-						adjacentBlockCount++;
-					}
-					if(downBlock.typeId != Material.AIR.getId() && downBlock.typeId != Material.LEAVES.getId() && downBlock.typeId != Material.VINE.getId())
-					{
-						adjacentBlockCount++;
-					}
-					if(upBlock.typeId != Material.AIR.getId() && upBlock.typeId != Material.LEAVES.getId() && upBlock.typeId != Material.VINE.getId())
-					{
-						adjacentBlockCount++;
-					}
+					if(!nonSupportingBlocks.get(voxels.getTypeId(x + 1, thisy, z))) adjacentBlockCount++;
+					if(!nonSupportingBlocks.get(voxels.getTypeId(x - 1, thisy, z))) adjacentBlockCount++;
+					if(!nonSupportingBlocks.get(voxels.getTypeId(x, thisy, z - 1))) adjacentBlockCount++;
+					if(!nonSupportingBlocks.get(voxels.getTypeId(x, thisy, z + 1))) adjacentBlockCount++;
 					
 					if(adjacentBlockCount < 3)
 					{
-						this.snapshots[x][thisy][z].typeId = Material.AIR.getId();
+						voxels.setTypeId(x, thisy, z, Material.AIR.getId());
 					}
 
 					thisy--;
@@ -258,33 +280,27 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void reduceLogs()
 	{
+		VoxelBuffer voxels = this.voxels;
+		int logId = Material.LOG.getId();
 		boolean jungleBiome = this.biome == Biome.JUNGLE || this.biome == Biome.JUNGLE_HILLS;
 		
 		//scan all blocks above sea level
-		for(int x = 1; x < snapshots.length - 1; x++)
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = this.seaLevel - 2; y < snapshots[0].length; y++)
+				for(int y = this.seaLevel - 2; y < voxels.height; y++)
 				{
-					BlockSnapshot block = snapshots[x][y][z];
-					
 					//skip non-logs
-					if(block.typeId != Material.LOG.getId()) continue;
+					if(voxels.getTypeId(x, y, z) != logId) continue;
 					
 					//if in jungle biome, skip jungle logs
-					if(jungleBiome && block.data == 3) continue;
+					if(jungleBiome && voxels.getData(x, y, z) == 3) continue;
 				
-					//examine adjacent blocks for logs
-					BlockSnapshot leftBlock = this.snapshots[x + 1][y][z];
-					BlockSnapshot rightBlock = this.snapshots[x - 1][y][z];
-					BlockSnapshot upBlock = this.snapshots[x][y][z + 1];
-					BlockSnapshot downBlock = this.snapshots[x][y][z - 1];
-					
-					//if any, remove the log
-					if(leftBlock.typeId == Material.LOG.getId() || rightBlock.typeId == Material.LOG.getId() || upBlock.typeId == Material.LOG.getId() || downBlock.typeId == Material.LOG.getId())
+					//examine adjacent blocks for logs, and if any, remove the log
+					if(voxels.getTypeId(x + 1, y, z) == logId || voxels.getTypeId(x - 1, y, z) == logId || voxels.getTypeId(x, y, z + 1) == logId || voxels.getTypeId(x, y, z - 1) == logId)
 					{
-						this.snapshots[x][y][z].typeId = Material.AIR.getId();
+						voxels.setTypeId(x, y, z, Material.AIR.getId());
 					}
 				}				
 			}
@@ -293,20 +309,20 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void removePlayerBlocks()
 	{
+		VoxelBuffer voxels = this.voxels;
 		int miny = this.miny;
 		if(miny < 1) miny = 1;
 		
 		//remove all player blocks
-		for(int x = 1; x < snapshots.length - 1; x++)
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = miny; y < snapshots[0].length - 1; y++)
+				for(int y = miny; y < voxels.height - 1; y++)
 				{
-					BlockSnapshot block = snapshots[x][y][z];
-					if(this.playerBlocks.contains(block.typeId))
+					if(this.playerBlocks.get(voxels.getTypeId(x, y, z)))
 					{
-						block.typeId = Material.AIR.getId();
+						voxels.setTypeId(x, y, z, Material.AIR.getId());
 					}
 				}
 			}
@@ -315,23 +331,22 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void removeHanging()
 	{
+		VoxelBuffer voxels = this.voxels;
 		int miny = this.miny;
 		if(miny < 1) miny = 1;
 		
-		for(int x = 1; x < snapshots.length - 1; x++)
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = miny; y < snapshots[0].length - 1; y++)
+				for(int y = miny; y < voxels.height - 1; y++)
 				{
-					BlockSnapshot block = snapshots[x][y][z];
-					BlockSnapshot underBlock = snapshots[x][y - 1][z];
-					
-					if(underBlock.typeId == Material.AIR.getId() || underBlock.typeId == Material.STATIONARY_WATER.getId() || underBlock.typeId == Material.STATIONARY_LAVA.getId() || underBlock.typeId == Material.LEAVES.getId())
+					int underTypeId = voxels.getTypeId(x, y - 1, z);
+					if(underTypeId == Material.AIR.getId() || underTypeId == Material.STATIONARY_WATER.getId() || underTypeId == Material.STATIONARY_LAVA.getId() || underTypeId == Material.LEAVES.getId())
 					{
-						if(this.notAllowedToHang.contains(block.typeId))
+						if(this.notAllowedToHang.get(voxels.getTypeId(x, y, z)))
 						{
-							block.typeId = Material.AIR.getId();
+							voxels.setTypeId(x, y, z, Material.AIR.getId());
 						}
 					}
 				}
@@ -341,42 +356,23 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void removeWallsAndTowers()
 	{
-		int [] excludedBlocksArray = new int []
-		{
-			Material.CACTUS.getId(),
-			Material.LONG_GRASS.getId(),
-			Material.RED_MUSHROOM.getId(),
-			Material.BROWN_MUSHROOM.getId(),
-			Material.DEAD_BUSH.getId(),
-			Material.SAPLING.getId(),
-			Material.YELLOW_FLOWER.getId(),
-			Material.RED_ROSE.getId(),
-			Material.SUGAR_CANE_BLOCK.getId(),
-			Material.VINE.getId(),
-			Material.PUMPKIN.getId(),
-			Material.WATER_LILY.getId(),
-			Material.LEAVES.getId()
-		};
-		
-		ArrayList<Integer> excludedBlocks = new ArrayList<Integer>();
-		for(int i = 0; i < excludedBlocksArray.length; i++) excludedBlocks.add(excludedBlocksArray[i]);
-		
+		VoxelBuffer voxels = this.voxels;
 		boolean changed;
 		do
 		{
 			changed = false;
-			for(int x = 1; x < snapshots.length - 1; x++)
+			for(int x = 1; x < voxels.sizeX - 1; x++)
 			{
-				for(int z = 1; z < snapshots[0][0].length - 1; z++)
+				for(int z = 1; z < voxels.sizeZ - 1; z++)
 				{
 					int thisy = this.highestY(x, z, false);
-					if(excludedBlocks.contains(this.snapshots[x][thisy][z].typeId)) continue;
+					if(wallAndTowerExcludedBlocks.get(voxels.getTypeId(x, thisy, z))) continue;
 						
 					int righty = this.highestY(x + 1, z, false);
 					int lefty = this.highestY(x - 1, z, false);
 					while(lefty < thisy && righty < thisy)
 					{
-						this.snapshots[x][thisy--][z].typeId = Material.AIR.getId();
+						voxels.setTypeId(x, thisy--, z, Material.AIR.getId());
 						changed = true;
 					}
 					
@@ -384,7 +380,7 @@ class RestoreNatureProcessingTask implements Runnable
 					int downy = this.highestY(x, z - 1, false);
 					while(upy < thisy && downy < thisy)
 					{
-						this.snapshots[x][thisy--][z].typeId = Material.AIR.getId();
+						voxels.setTypeId(x, thisy--, z, Material.AIR.getId());
 						changed = true;
 					}
 				}
@@ -394,23 +390,20 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void coverSurfaceStone()
 	{
-		for(int x = 1; x < snapshots.length - 1; x++)
+		VoxelBuffer voxels = this.voxels;
+		boolean sandyBiome = this.biome == Biome.DESERT || this.biome == Biome.DESERT_HILLS || this.biome == Biome.BEACH;
+		int coverTypeId = sandyBiome ? Material.SAND.getId() : Material.GRASS.getId();
+		
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
 				int y = this.highestY(x, z, true);
-				BlockSnapshot block = snapshots[x][y][z];
+				int typeId = voxels.getTypeId(x, y, z);
 				
-				if(block.typeId == Material.STONE.getId() || block.typeId == Material.GRAVEL.getId() || block.typeId == Material.DIRT.getId() || block.typeId == Material.SANDSTONE.getId())
+				if(typeId == Material.STONE.getId() || typeId == Material.GRAVEL.getId() || typeId == Material.DIRT.getId() || typeId == Material.SANDSTONE.getId())
 				{
-					if(this.biome == Biome.DESERT || this.biome == Biome.DESERT_HILLS || this.biome == Biome.BEACH)
-					{
-						this.snapshots[x][y][z].typeId = Material.SAND.getId();
-					}
-					else
-					{
-						this.snapshots[x][y][z].typeId = Material.GRASS.getId();
-					}
+					voxels.setTypeId(x, y, z, coverTypeId);
 				}
 			}
 		}
@@ -418,51 +411,39 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void fillHolesAndTrenches()
 	{
-		ArrayList<Integer> fillableBlocks = new ArrayList<Integer>();
-		fillableBlocks.add(Material.AIR.getId());
-		fillableBlocks.add(Material.STATIONARY_WATER.getId());
-		fillableBlocks.add(Material.STATIONARY_LAVA.getId());
-		fillableBlocks.add(Material.LONG_GRASS.getId());
-		
-		ArrayList<Integer> notSuitableForFillBlocks = new ArrayList<Integer>();
-		notSuitableForFillBlocks.add(Material.LONG_GRASS.getId());
-		notSuitableForFillBlocks.add(Material.CACTUS.getId());
-		notSuitableForFillBlocks.add(Material.STATIONARY_WATER.getId());
-		notSuitableForFillBlocks.add(Material.STATIONARY_LAVA.getId());
-		
+		VoxelBuffer voxels = this.voxels;
 		boolean changed;
 		do
 		{
 			changed = false;
-			for(int x = 1; x < snapshots.length - 1; x++)
+			for(int x = 1; x < voxels.sizeX - 1; x++)
 			{
-				for(int z = 1; z < snapshots[0][0].length - 1; z++)
+				for(int z = 1; z < voxels.sizeZ - 1; z++)
 				{
-					for(int y = 0; y < snapshots[0].length - 1; y++)
+					for(int y = 0; y < voxels.height - 1; y++)
 					{
-						BlockSnapshot block = this.snapshots[x][y][z];
-						if(!fillableBlocks.contains(block.typeId)) continue;
+						if(!fillableBlocks.get(voxels.getTypeId(x, y, z))) continue;
 							
-						BlockSnapshot leftBlock = this.snapshots[x + 1][y][z];
-						BlockSnapshot rightBlock = this.snapshots[x - 1][y][z];
+						int leftTypeId = voxels.getTypeId(x + 1, y, z);
+						int rightTypeId = voxels.getTypeId(x - 1, y, z);
 						
-						if(!fillableBlocks.contains(leftBlock.typeId) && !fillableBlocks.contains(rightBlock.typeId))
+						if(!fillableBlocks.get(leftTypeId) && !fillableBlocks.get(rightTypeId))
 						{
-							if(!notSuitableForFillBlocks.contains(rightBlock.typeId))
+							if(!notSuitableForFillBlocks.get(rightTypeId))
 							{
-								block.typeId = rightBlock.typeId;
+								voxels.setTypeId(x, y, z, rightTypeId);
 								changed = true;
 							}
 						}
 					
-						BlockSnapshot upBlock = this.snapshots[x][y][z + 1];
-						BlockSnapshot downBlock = this.snapshots[x][y][z - 1];
+						int upTypeId = voxels.getTypeId(x, y, z + 1);
+						int downTypeId = voxels.getTypeId(x, y, z - 1);
 						
-						if(!fillableBlocks.contains(upBlock.typeId) && !fillableBlocks.contains(downBlock.typeId))
+						if(!fillableBlocks.get(upTypeId) && !fillableBlocks.get(downTypeId))
 						{	
-							if(!notSuitableForFillBlocks.contains(downBlock.typeId))
+							if(!notSuitableForFillBlocks.get(downTypeId))
 							{
-								block.typeId = downBlock.typeId;
+								voxels.setTypeId(x, y, z, downTypeId);
 								changed = true;
 							}
 						}
@@ -474,25 +455,27 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private void fixWater()
 	{
+		VoxelBuffer voxels = this.voxels;
+		int waterId = Material.STATIONARY_WATER.getId();
 		int miny = this.miny;
 		if(miny < 1) miny = 1;
 		
 		boolean changed;
 		
 		//remove hanging water or lava
-		for(int x = 1; x < snapshots.length - 1; x++)
+		//(in practice, this removes any which isn't a source block)
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = miny; y < snapshots[0].length - 1; y++)
+				for(int y = miny; y < voxels.height - 1; y++)
 				{
-					BlockSnapshot block = this.snapshots[x][y][z];
-					BlockSnapshot underBlock = this.snapshots[x][y][z];
-					if(block.typeId == Material.STATIONARY_WATER.getId() || block.typeId == Material.STATIONARY_LAVA.getId())
+					int typeId = voxels.getTypeId(x, y, z);
+					if(typeId == waterId || typeId == Material.STATIONARY_LAVA.getId())
 					{
-						if(underBlock.typeId == Material.AIR.getId() || (underBlock.data != 0))
+						if(voxels.getData(x, y, z) != 0)
 						{
-							block.typeId = Material.AIR.getId();
+							voxels.setTypeId(x, y, z, Material.AIR.getId());
 						}
 					}
 				}
@@ -505,48 +488,29 @@ class RestoreNatureProcessingTask implements Runnable
 			changed = false;		
 			for(int y = this.seaLevel - 10; y <= this.seaLevel; y++)			
 			{
-				for(int x = 1; x < snapshots.length - 1; x++)				
+				for(int x = 1; x < voxels.sizeX - 1; x++)				
 				{
-					for(int z = 1; z < snapshots[0][0].length - 1; z++)
+					for(int z = 1; z < voxels.sizeZ - 1; z++)
 					{
-						BlockSnapshot block = snapshots[x][y][z];
+						int typeId = voxels.getTypeId(x, y, z);
 						
 						//only consider air blocks and flowing water blocks for upgrade to water source blocks
-						if(block.typeId == Material.AIR.getId() || (block.typeId == Material.STATIONARY_WATER.getId() && block.data != 0))
+						if(typeId == Material.AIR.getId() || (typeId == waterId && voxels.getData(x, y, z) != 0))
 						{
-							BlockSnapshot leftBlock = this.snapshots[x + 1][y][z];
-							BlockSnapshot rightBlock = this.snapshots[x - 1][y][z];
-							BlockSnapshot upBlock = this.snapshots[x][y][z + 1];
-							BlockSnapshot downBlock = this.snapshots[x][y][z - 1];
-							BlockSnapshot underBlock = this.snapshots[x][y - 1][z];
-							
 							//block underneath MUST be source water
-							if(underBlock.typeId != Material.STATIONARY_WATER.getId() || underBlock.data != 0) continue;
+							if(voxels.getTypeId(x, y - 1, z) != waterId || voxels.getData(x, y - 1, z) != 0) continue;
 							
 							//count adjacent source water blocks
 							byte adjacentSourceWaterCount = 0;
-							if(leftBlock.typeId == Material.STATIONARY_WATER.getId() && leftBlock.data == 0)
-							{
-								adjacentSourceWaterCount++;
-							}
-							if(rightBlock.typeId == Material.STATIONARY_WATER.getId() && rightBlock.data == 0)
-							{
-								adjacentSourceWaterCount++;
-							}
-							if(upBlock.typeId == Material.STATIONARY_WATER.getId() && upBlock.data == 0)
-							{
-								adjacentSourceWaterCount++;
-							}
-							if(downBlock.typeId == Material.STATIONARY_WATER.getId() && downBlock.data == 0)
-							{
-								adjacentSourceWaterCount++;
-							}
+							if(voxels.getTypeId(x + 1, y, z) == waterId && voxels.getData(x + 1, y, z) == 0) adjacentSourceWaterCount++;
+							if(voxels.getTypeId(x - 1, y, z) == waterId && voxels.getData(x - 1, y, z) == 0) adjacentSourceWaterCount++;
+							if(voxels.getTypeId(x, y, z + 1) == waterId && voxels.getData(x, y, z + 1) == 0) adjacentSourceWaterCount++;
+							if(voxels.getTypeId(x, y, z - 1) == waterId && voxels.getData(x, y, z - 1) == 0) adjacentSourceWaterCount++;
 							
 							//at least two adjacent blocks must be source water
 							if(adjacentSourceWaterCount >= 2)
 							{
-								block.typeId = Material.STATIONARY_WATER.getId();
-								block.data = 0;
+								voxels.set(x, y, z, waterId, 0);
 								changed = true;
 							}
 						}
@@ -561,17 +525,18 @@ class RestoreNatureProcessingTask implements Runnable
 		//remove any surface water or lava above sea level, presumed to be placed by players
 		//sometimes, this is naturally generated.  but replacing it is very easy with a bucket, so overall this is a good plan
 		if(this.environment == Environment.NETHER) return;
-		for(int x = 1; x < snapshots.length - 1; x++)
+		VoxelBuffer voxels = this.voxels;
+		for(int x = 1; x < voxels.sizeX - 1; x++)
 		{
-			for(int z = 1; z < snapshots[0][0].length - 1; z++)
+			for(int z = 1; z < voxels.sizeZ - 1; z++)
 			{
-				for(int y = this.seaLevel - 1; y < snapshots[0].length - 1; y++)
+				for(int y = this.seaLevel - 1; y < voxels.height - 1; y++)
 				{
-					BlockSnapshot block = snapshots[x][y][z];
-					if(block.typeId == Material.STATIONARY_WATER.getId() || block.typeId == Material.STATIONARY_LAVA.getId() ||
-					   block.typeId == Material.WATER.getId() || block.typeId == Material.LAVA.getId())
+					int typeId = voxels.getTypeId(x, y, z);
+					if(typeId == Material.STATIONARY_WATER.getId() || typeId == Material.STATIONARY_LAVA.getId() ||
+					   typeId == Material.WATER.getId() || typeId == Material.LAVA.getId())
 					{
-						block.typeId = Material.AIR.getId();
+						voxels.setTypeId(x, y, z, Material.AIR.getId());
 					}
 				}
 			}
@@ -580,15 +545,16 @@ class RestoreNatureProcessingTask implements Runnable
 	
 	private int highestY(int x, int z, boolean ignoreLeaves)
 	{
+		VoxelBuffer voxels = this.voxels;
 		int y;
-		for(y = snapshots[0].length - 1; y > 0; y--)
+		for(y = voxels.height - 1; y > 0; y--)
 		{
-			BlockSnapshot block = this.snapshots[x][y][z];
-			if(block.typeId != Material.AIR.getId() &&
-			!(ignoreLeaves && block.typeId == Material.SNOW.getId()) &&
-			!(ignoreLeaves && block.typeId == Material.LEAVES.getId()) &&
-			!(block.typeId == Material.STATIONARY_WATER.getId() && block.data != 0) &&
-			!(block.typeId == Material.STATIONARY_LAVA.getId() && block.data != 0))
+			int typeId = voxels.getTypeId(x, y, z);
+			if(typeId != Material.AIR.getId() &&
+			!(ignoreLeaves && typeId == Material.SNOW.getId()) &&
+			!(ignoreLeaves && typeId == Material.LEAVES.getId()) &&
+			!(typeId == Material.STATIONARY_WATER.getId() && voxels.getData(x, y, z) != 0) &&
+			!(typeId == Material.STATIONARY_LAVA.getId() && voxels.getData(x, y, z) != 0))
 			{
 				return y;
 			}
@@ -597,112 +563,156 @@ class RestoreNatureProcessingTask implements Runnable
 		return y;
 	}
 	
-	static ArrayList<Integer> getPlayerBlocks(Environment environment, Biome biome) 
+	//builds a set of block type ids
+	private static BitSet materialSet(Material... materials)
+	{
+		BitSet set = new BitSet();
+		for(int i = 0; i < materials.length; i++)
+		{
+			set.set(materials[i].getId());
+		}
+		
+		return set;
+	}
+	
+	//the player blocks for a restoration, built once per combination of environment, biome, and mode
+	//callers must not change the returned set, since it's shared
+	static BitSet getPlayerBlocks(Environment environment, Biome biome, boolean aggressiveMode, boolean creativeMode)
+	{
+		String key = environment + ":" + biome + ":" + aggressiveMode + ":" + creativeMode;
+		BitSet playerBlocks = playerBlocksCache.get(key);
+		if(playerBlocks != null) return playerBlocks;
+		
+		playerBlocks = RestoreNatureProcessingTask.getPlayerBlocks(environment, biome);
+		
+		//in aggressive or creative world mode, also treat these blocks as user placed, to be removed
+		//this is helpful in the few cases where griefers intentionally use natural blocks to grief,
+		//like a single-block tower of iron ore or a giant penis constructed with melons
+		if(aggressiveMode || creativeMode)
+		{
+			playerBlocks.or(materialSet(
+				Material.IRON_ORE,
+				Material.GOLD_ORE,
+				Material.DIAMOND_ORE,
+				Material.MELON_BLOCK,
+				Material.MELON_STEM,
+				Material.BEDROCK,
+				Material.COAL_ORE,
+				Material.PUMPKIN,
+				Material.PUMPKIN_STEM,
+				Material.MELON));
+		}
+		
+		if(aggressiveMode)
+		{
+			playerBlocks.or(materialSet(Material.LEAVES, Material.LOG, Material.VINE));
+		}
+		
+		//if another thread built the same set in the meantime, either one will do
+		playerBlocksCache.putIfAbsent(key, playerBlocks);
+		return playerBlocks;
+	}
+	
+	static BitSet getPlayerBlocks(Environment environment, Biome biome) 
 	{
 		//NOTE on this list.  why not make a list of natural blocks?
 		//answer: better to leave a few player blocks than to remove too many natural blocks.  remember we're "restoring nature"
 		//a few extra player blocks can be manually removed, but it will be impossible to guess exactly which natural materials to use in manual repair of an overzealous block removal
-		ArrayList<Integer> playerBlocks = new ArrayList<Integer>();
-		playerBlocks.add(Material.FIRE.getId());
-		playerBlocks.add(Material.BED_BLOCK.getId());
-		playerBlocks.add(Material.WOOD.getId());
-		playerBlocks.add(Material.BOOKSHELF.getId());
-		playerBlocks.add(Material.BREWING_STAND.getId());
-		playerBlocks.add(Material.BRICK.getId());
-		playerBlocks.add(Material.COBBLESTONE.getId());
-		playerBlocks.add(Material.GLASS.getId());
-		playerBlocks.add(Material.LAPIS_BLOCK.getId());
-		playerBlocks.add(Material.DISPENSER.getId());
-		playerBlocks.add(Material.NOTE_BLOCK.getId());
-		playerBlocks.add(Material.POWERED_RAIL.getId());
-		playerBlocks.add(Material.DETECTOR_RAIL.getId());
-		playerBlocks.add(Material.PISTON_STICKY_BASE.getId());
-		playerBlocks.add(Material.PISTON_BASE.getId());
-		playerBlocks.add(Material.PISTON_EXTENSION.getId());
-		playerBlocks.add(Material.WOOL.getId());
-		playerBlocks.add(Material.PISTON_MOVING_PIECE.getId());
-		playerBlocks.add(Material.GOLD_BLOCK.getId());
-		playerBlocks.add(Material.IRON_BLOCK.getId());
-		playerBlocks.add(Material.DOUBLE_STEP.getId());
-		playerBlocks.add(Material.STEP.getId());
-		playerBlocks.add(Material.CROPS.getId());
-		playerBlocks.add(Material.TNT.getId());
-		playerBlocks.add(Material.MOSSY_COBBLESTONE.getId());
-		playerBlocks.add(Material.TORCH.getId());
-		playerBlocks.add(Material.FIRE.getId());
-		playerBlocks.add(Material.WOOD_STAIRS.getId());
-		playerBlocks.add(Material.CHEST.getId());
-		playerBlocks.add(Material.REDSTONE_WIRE.getId());
-		playerBlocks.add(Material.DIAMOND_BLOCK.getId());
-		playerBlocks.add(Material.WORKBENCH.getId());
-		playerBlocks.add(Material.SOIL.getId());
-		playerBlocks.add(Material.FURNACE.getId());
-		playerBlocks.add(Material.BURNING_FURNACE.getId());
-		playerBlocks.add(Material.WOODEN_DOOR.getId());
-		playerBlocks.add(Material.SIGN_POST.getId());
-		playerBlocks.add(Material.LADDER.getId());
-		playerBlocks.add(Material.RAILS.getId());
-		playerBlocks.add(Material.COBBLESTONE_STAIRS.getId());
-		playerBlocks.add(Material.WALL_SIGN.getId());
-		playerBlocks.add(Material.STONE_PLATE.getId());
-		playerBlocks.add(Material.LEVER.getId());
-		playerBlocks.add(Material.IRON_DOOR_BLOCK.getId());
-		playerBlocks.add(Material.WOOD_PLATE.getId());
-		playerBlocks.add(Material.REDSTONE_TORCH_ON.getId());
-		playerBlocks.add(Material.REDSTONE_TORCH_OFF.getId());
-		playerBlocks.add(Material.STONE_BUTTON.getId());
-		playerBlocks.add(Material.SNOW_BLOCK.getId());
-		playerBlocks.add(Material.JUKEBOX.getId());
-		playerBlocks.add(Material.FENCE.getId());
-		playerBlocks.add(Material.PORTAL.getId());
-		playerBlocks.add(Material.JACK_O_LANTERN.getId());
-		playerBlocks.add(Material.CAKE_BLOCK.getId());
-		playerBlocks.add(Material.DIODE_BLOCK_ON.getId());
-		playerBlocks.add(Material.DIODE_BLOCK_OFF.getId());
-		playerBlocks.add(Material.TRAP_DOOR.getId());
-		playerBlocks.add(Material.SMOOTH_BRICK.getId());
-		playerBlocks.add(Material.HUGE_MUSHROOM_1.getId());
-		playerBlocks.add(Material.HUGE_MUSHROOM_2.getId());
-		playerBlocks.add(Material.IRON_FENCE.getId());
-		playerBlocks.add(Material.THIN_GLASS.getId());
-		playerBlocks.add(Material.MELON_STEM.getId());
-		playerBlocks.add(Material.FENCE_GATE.getId());
-		playerBlocks.add(Material.BRICK_STAIRS.getId());
-		playerBlocks.add(Material.SMOOTH_STAIRS.getId());
-		playerBlocks.add(Material.ENCHANTMENT_TABLE.getId());
-		playerBlocks.add(Material.BREWING_STAND.getId());
-		playerBlocks.add(Material.CAULDRON.getId());
-		playerBlocks.add(Material.DIODE_BLOCK_ON.getId());
-		playerBlocks.add(Material.DIODE_BLOCK_ON.getId());		
-		playerBlocks.add(Material.WEB.getId());
-		playerBlocks.add(Material.SPONGE.getId());
-		playerBlocks.add(Material.GRAVEL.getId());
-		playerBlocks.add(Material.SANDSTONE.getId());
+		BitSet playerBlocks = materialSet(
+			Material.FIRE,
+			Material.BED_BLOCK,
+			Material.WOOD,
+			Material.BOOKSHELF,
+			Material.BREWING_STAND,
+			Material.BRICK,
+			Material.COBBLESTONE,
+			Material.GLASS,
+			Material.LAPIS_BLOCK,
+			Material.DISPENSER,
+			Material.NOTE_BLOCK,
+			Material.POWERED_RAIL,
+			Material.DETECTOR_RAIL,
+			Material.PISTON_STICKY_BASE,
+			Material.PISTON_BASE,
+			Material.PISTON_EXTENSION,
+			Material.WOOL,
+			Material.PISTON_MOVING_PIECE,
+			Material.GOLD_BLOCK,
+			Material.IRON_BLOCK,
+			Material.DOUBLE_STEP,
+			Material.STEP,
+			Material.CROPS,
+			Material.TNT,
+			Material.MOSSY_COBBLESTONE,
+			Material.TORCH,
+			Material.WOOD_STAIRS,
+			Material.CHEST,
+			Material.REDSTONE_WIRE,
+			Material.DIAMOND_BLOCK,
+			Material.WORKBENCH,
+			Material.SOIL,
+			Material.FURNACE,
+			Material.BURNING_FURNACE,
+			Material.WOODEN_DOOR,
+			Material.SIGN_POST,
+			Material.LADDER,
+			Material.RAILS,
+			Material.COBBLESTONE_STAIRS,
+			Material.WALL_SIGN,
+			Material.STONE_PLATE,
+			Material.LEVER,
+			Material.IRON_DOOR_BLOCK,
+			Material.WOOD_PLATE,
+			Material.REDSTONE_TORCH_ON,
+			Material.REDSTONE_TORCH_OFF,
+			Material.STONE_BUTTON,
+			Material.SNOW_BLOCK,
+			Material.JUKEBOX,
+			Material.FENCE,
+			Material.PORTAL,
+			Material.JACK_O_LANTERN,
+			Material.CAKE_BLOCK,
+			Material.DIODE_BLOCK_ON,
+			Material.DIODE_BLOCK_OFF,
+			Material.TRAP_DOOR,
+			Material.SMOOTH_BRICK,
+			Material.HUGE_MUSHROOM_1,
+			Material.HUGE_MUSHROOM_2,
+			Material.IRON_FENCE,
+			Material.THIN_GLASS,
+			Material.MELON_STEM,
+			Material.FENCE_GATE,
+			Material.BRICK_STAIRS,
+			Material.SMOOTH_STAIRS,
+			Material.ENCHANTMENT_TABLE,
+			Material.CAULDRON,
+			Material.WEB,
+			Material.SPONGE,
+			Material.GRAVEL,
+			Material.SANDSTONE);
 		
 		//these are unnatural in the standard world, but not in the nether
 		if(environment != Environment.NETHER)
 		{
-			playerBlocks.add(Material.NETHERRACK.getId());
-			playerBlocks.add(Material.SOUL_SAND.getId());
-			playerBlocks.add(Material.GLOWSTONE.getId());
-			playerBlocks.add(Material.NETHER_BRICK.getId());
-			playerBlocks.add(Material.NETHER_FENCE.getId());
-			playerBlocks.add(Material.NETHER_BRICK_STAIRS.getId());
+			playerBlocks.or(materialSet(
+				Material.NETHERRACK,
+				Material.SOUL_SAND,
+				Material.GLOWSTONE,
+				Material.NETHER_BRICK,
+				Material.NETHER_FENCE,
+				Material.NETHER_BRICK_STAIRS));
 		}
 		
 		//these are unnatural in the standard and nether worlds, but not in the end
 		if(environment != Environment.THE_END)
 		{
-			playerBlocks.add(Material.OBSIDIAN.getId());
-			playerBlocks.add(Material.ENDER_STONE.getId());
-			playerBlocks.add(Material.ENDER_PORTAL_FRAME.getId());
+			playerBlocks.or(materialSet(Material.OBSIDIAN, Material.ENDER_STONE, Material.ENDER_PORTAL_FRAME));
 		}
 		
 		//these are unnatural in sandy biomes, but not elsewhere
 		if(biome == Biome.DESERT || biome == Biome.DESERT_HILLS || biome == Biome.BEACH || environment != Environment.NORMAL)
 		{
-			playerBlocks.add(Material.LEAVES.getId());
-			playerBlocks.add(Material.LOG.getId());
+			playerBlocks.or(materialSet(Material.LEAVES, Material.LOG));
 		}
 		
 		return playerBlocks;
@@ -0,0 +1,72 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//logs individual operations which took unusually long, with enough detail to find out why
+//the timers in Metrics only show aggregates, this shows the one claim lookup or save which stalled a tick
+//disabled unless GriefPrevention.Metrics.SlowOperationMilliseconds is set, and then callers only pay for one comparison
+class SlowOperationLog
+{
+	//operations slower than this are logged.  Long.MAX_VALUE when disabled, so nothing is ever slow enough
+	private static long thresholdNanoseconds = Long.MAX_VALUE;
+	
+	//at most this many entries per minute, so a lag spike doesn't flood the log
+	private static final int MAX_ENTRIES_PER_MINUTE = 20;
+	
+	private static final AtomicLong currentMinute = new AtomicLong();
+	private static final AtomicInteger entriesThisMinute = new AtomicInteger();
+	private static final AtomicInteger suppressedEntries = new AtomicInteger();
+	
+	//called while loading the config, before any event handlers or tasks are running
+	static void setThresholdMilliseconds(int milliseconds)
+	{
+		thresholdNanoseconds = milliseconds > 0 ? milliseconds * 1000000L : Long.MAX_VALUE;
+	}
+	
+	//callers should build the details string only when this returns true
+	static boolean isSlow(long nanoseconds)
+	{
+		return nanoseconds > thresholdNanoseconds;
+	}
+	
+	//logs one slow operation, like "getClaimAt took 12.50ms: world=world x=10 z=-20 ..."
+	static void log(String operation, long nanoseconds, String details)
+	{
+		//start a new budget every minute, and mention anything which didn't fit into the last one
+		long minute = System.currentTimeMillis() / 60000;
+		long previousMinute = currentMinute.get();
+		if(minute != previousMinute && currentMinute.compareAndSet(previousMinute, minute))
+		{
+			entriesThisMinute.set(0);
+			int suppressed = suppressedEntries.getAndSet(0);
+			if(suppressed > 0) GriefPrevention.AddLogEntry("(" + suppressed + " more slow operations were not logged.)");
+		}
+		
+		if(entriesThisMinute.incrementAndGet() > MAX_ENTRIES_PER_MINUTE)
+		{
+			suppressedEntries.incrementAndGet();
+			return;
+		}
+		
+		GriefPrevention.AddLogEntry("Slow operation: " + operation + " took " + Metrics.formatNanoseconds(nanoseconds) + ": " + details);
+	}
+}
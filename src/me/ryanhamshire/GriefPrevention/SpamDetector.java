@@ -0,0 +1,204 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+//tracks chat and monitored slash command spam, one small state object per player
+//chat events arrive on async chat threads, so this class never touches the data store
+//each player's state is only ever changed while holding that player's own monitor
+class SpamDetector
+{
+	//player name -> that player's spam state
+	private final ConcurrentHashMap<String, PlayerSpamState> playerNameToSpamStateMap = new ConcurrentHashMap<String, PlayerSpamState>();
+	
+	//examines a message, updates the player's spam state, and reports what should be done about it
+	//message is expected to be lower case already
+	//the content checks were already done by the chat scanner, before any per-player state is locked
+	SpamAnalysisResult analyzeMessage(String playerName, String message, long now, ChatScanner.ChatScanResult scanResult)
+	{
+		PlayerSpamState state = this.playerNameToSpamStateMap.get(playerName);
+		if(state == null)
+		{
+			state = new PlayerSpamState();
+			PlayerSpamState existingState = this.playerNameToSpamStateMap.putIfAbsent(playerName, state);
+			if(existingState != null) state = existingState;
+		}
+		
+		return state.analyze(message, now, scanResult.blockedIpAddress != null, scanResult.looksLikeGibberish);
+	}
+	
+	//drops a player's spam state, for example when he logs out
+	void forgetPlayer(String playerName)
+	{
+		this.playerNameToSpamStateMap.remove(playerName);
+	}
+	
+	//if two strings are 75% identical, they're too close to follow each other in the chat
+	static boolean stringsAreSimilar(String message, String lastMessage)
+	{
+		//determine which is shorter
+		String shorterString, longerString;
+		if(lastMessage.length() < message.length())
+		{
+			shorterString = lastMessage;
+			longerString = message;
+		}
+		else
+		{
+			shorterString = message;
+			longerString = lastMessage;
+		}
+		
+		if(shorterString.length() <= 5) return shorterString.equals(longerString);
+		
+		//set similarity tolerance
+		int maxIdenticalCharacters = longerString.length() - longerString.length() / 4;
+		
+		//trivial check on length
+		if(shorterString.length() < maxIdenticalCharacters) return false;
+		
+		//compare forward
+		int identicalCount = 0;
+		for(int i = 0; i < shorterString.length(); i++)
+		{
+			if(shorterString.charAt(i) == longerString.charAt(i)) identicalCount++;
+			if(identicalCount > maxIdenticalCharacters) return true;
+		}
+		
+		//compare backward
+		for(int i = 0; i < shorterString.length(); i++)
+		{
+			if(shorterString.charAt(shorterString.length() - i - 1) == longerString.charAt(longerString.length() - i - 1)) identicalCount++;
+			if(identicalCount > maxIdenticalCharacters) return true;
+		}
+		
+		return false;
+	}
+	
+	//spam history for one player
+	private static class PlayerSpamState
+	{
+		private String lastMessage = "";			//the player's last chat message, or slash command complete with parameters
+		private long lastMessageTimestamp = 0;		//last time the player sent a chat message or used a monitored slash command
+		private int spamCount = 0;					//number of consecutive "spams"
+		private boolean spamWarned = false;			//whether the player recently received a warning
+		
+		synchronized SpamAnalysisResult analyze(String message, long now, boolean mentionsBlockedIpAddress, boolean looksLikeGibberish)
+		{
+			SpamAnalysisResult result = new SpamAnalysisResult();
+			
+			boolean spam = false;
+			boolean muted = false;
+			
+			long millisecondsSinceLastMessage = now - this.lastMessageTimestamp;
+			
+			//if the message came too close to the last one
+			if(millisecondsSinceLastMessage < 2000)
+			{
+				//increment the spam counter
+				this.spamCount++;
+				spam = true;
+			}
+			
+			//if it's very similar to the last message
+			if(SpamDetector.stringsAreSimilar(message, this.lastMessage))
+			{
+				this.spamCount++;
+				spam = true;
+				muted = true;
+			}
+			
+			//filter IP addresses
+			if(!muted && mentionsBlockedIpAddress)
+			{
+				result.mutedIpAddress = true;
+				this.spamCount++;
+				spam = true;
+				muted = true;
+			}
+			
+			//ansi art and random gibberish
+			if(!muted && looksLikeGibberish)
+			{
+				spam = true;
+				if(this.spamCount > 0) muted = true;
+				this.spamCount++;
+			}
+			
+			//very short messages close together are spam
+			if(!muted && message.length() < 5 && millisecondsSinceLastMessage < 5000)
+			{
+				spam = true;
+				this.spamCount++;
+			}
+			
+			//if the message was determined to be a spam, consider taking action
+			if(spam)
+			{
+				//anything above level 8 for a player which has received a warning...  kick or if enabled, ban
+				if(this.spamCount > 8 && this.spamWarned)
+				{
+					result.kick = true;
+					result.muted = true;
+					return result;
+				}
+				
+				//anything above level 2, mute and warn
+				if(this.spamCount >= 3)
+				{
+					muted = true;
+					if(!this.spamWarned)
+					{
+						result.warn = true;
+						this.spamWarned = true;
+					}
+				}
+				
+				if(muted)
+				{
+					result.muted = true;
+					return result;
+				}
+			}
+			
+			//otherwise if not a spam, reset the spam counter for this player
+			else
+			{
+				this.spamCount = 0;
+				this.spamWarned = false;
+			}
+			
+			//in any case, record the timestamp of this message and also its content for next time
+			this.lastMessageTimestamp = now;
+			this.lastMessage = message;
+			
+			return result;
+		}
+	}
+	
+	//what the spam detector decided about a message
+	static class SpamAnalysisResult
+	{
+		boolean muted = false;				//the message should not reach other players
+		boolean warn = false;				//the player should be warned about spam penalties
+		boolean kick = false;				//the player should be kicked, or banned if configured
+		boolean mutedIpAddress = false;		//the message was muted because it mentioned an IP address
+	}
+}
@@ -0,0 +1,148 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Material;
+import org.bukkit.World;
+
+//remembers which blocks visualizations can "cling" to, one chunk at a time
+//without it, placing each visualization element meant stepping up or down through the world one getRelative() call at a time
+//a chunk is read from a chunk snapshot the first time an outline needs it, and forgotten when a block in it is placed or broken
+//other terrain changes (explosions, flowing water, growing trees) are picked up when the chunk expires
+class SurfaceHeightCache
+{
+	//at most this many chunks per world, about 8KB each
+	private final static int MAX_CHUNKS_PER_WORLD = 256;
+	
+	//chunks are read again after this long
+	private final static long MILLISECONDS_CACHED = 1000L * 60 * 5;
+	
+	//blocks visualizations can see through, so they sit underneath partly transparent blocks like grass and fence
+	private final static BitSet transparentTypeIds = new BitSet();
+	static
+	{
+		Material [] materials = new Material [] { Material.AIR, Material.LONG_GRASS, Material.FENCE, Material.LEAVES, Material.RED_ROSE, Material.CHEST, Material.YELLOW_FLOWER };
+		for(int i = 0; i < materials.length; i++)
+		{
+			transparentTypeIds.set(materials[i].getId());
+		}
+	}
+	
+	//world name -> chunk key (see DataStore.getChunkKey()) -> that chunk's transparency, least recently used first
+	private final HashMap<String, LinkedHashMap<Long, ChunkSurface>> worldToChunksMap = new HashMap<String, LinkedHashMap<Long, ChunkSurface>>();
+	
+	//finds the Y coordinate of a block the player can probably see, starting from height y
+	//from a transparent block, that's the first solid block below.  from a solid block, the first solid block above with a transparent block on top
+	synchronized int getVisibleY(World world, int x, int y, int z)
+	{
+		int maxHeight = world.getMaxHeight();
+		if(y < 1 || y >= maxHeight - 1) return y;
+		
+		ChunkSurface surface = this.getChunkSurface(world, x >> 4, z >> 4);
+		
+		if(surface.isTransparent(x, y, z))
+		{
+			while(y >= 1 && surface.isTransparent(x, y, z)) y--;
+		}
+		else
+		{
+			while(y < maxHeight - 1 && !surface.isTransparent(x, y + 1, z)) y++;
+		}
+		
+		return y;
+	}
+	
+	//forgets a chunk, called when a block in it changes
+	synchronized void invalidateChunk(String worldName, int chunkX, int chunkZ)
+	{
+		LinkedHashMap<Long, ChunkSurface> chunks = this.worldToChunksMap.get(worldName);
+		if(chunks != null) chunks.remove(DataStore.getChunkKey(chunkX, chunkZ));
+	}
+	
+	private ChunkSurface getChunkSurface(World world, int chunkX, int chunkZ)
+	{
+		LinkedHashMap<Long, ChunkSurface> chunks = this.worldToChunksMap.get(world.getName());
+		if(chunks == null)
+		{
+			//access order, so the first entry is always the least recently used one
+			chunks = new LinkedHashMap<Long, ChunkSurface>(16, 0.75f, true);
+			this.worldToChunksMap.put(world.getName(), chunks);
+		}
+		
+		Long chunkKey = DataStore.getChunkKey(chunkX, chunkZ);
+		ChunkSurface surface = chunks.get(chunkKey);
+		long now = System.currentTimeMillis();
+		if(surface != null && now - surface.creationTimestamp < MILLISECONDS_CACHED) return surface;
+		
+		surface = new ChunkSurface(world.getChunkAt(chunkX, chunkZ).getChunkSnapshot(), world.getMaxHeight(), now);
+		chunks.put(chunkKey, surface);
+		
+		if(chunks.size() > MAX_CHUNKS_PER_WORLD)
+		{
+			Iterator<Long> iterator = chunks.keySet().iterator();
+			iterator.next();
+			iterator.remove();
+		}
+		
+		return surface;
+	}
+	
+	//one bit per block in a chunk, set for transparent blocks
+	private static class ChunkSurface
+	{
+		private final long [] transparentBits;
+		private final int wordsPerColumn;
+		private final long creationTimestamp;
+		
+		ChunkSurface(ChunkSnapshot snapshot, int height, long creationTimestamp)
+		{
+			this.wordsPerColumn = (height + 63) / 64;
+			this.transparentBits = new long [16 * 16 * this.wordsPerColumn];
+			this.creationTimestamp = creationTimestamp;
+			
+			for(int x = 0; x < 16; x++)
+			{
+				for(int z = 0; z < 16; z++)
+				{
+					int columnStart = ((x << 4) | z) * this.wordsPerColumn;
+					for(int y = 0; y < height; y++)
+					{
+						if(transparentTypeIds.get(snapshot.getBlockTypeId(x, y, z)))
+						{
+							this.transparentBits[columnStart + (y >> 6)] |= 1L << (y & 63);
+						}
+					}
+				}
+			}
+		}
+		
+		//x and z are world coordinates inside this chunk
+		boolean isTransparent(int x, int y, int z)
+		{
+			int columnStart = (((x & 15) << 4) | (z & 15)) * this.wordsPerColumn;
+			return (this.transparentBits[columnStart + (y >> 6)] & (1L << (y & 63))) != 0;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+//calls one @EventHandler method and records how long it took
+//used instead of PluginManager.registerEvents(), so every handler is timed without touching the handlers themselves
+class TimedEventExecutor implements EventExecutor
+{
+	private final Method method;
+	private final Class<? extends Event> eventClass;
+	private final LatencyHistogram timer;
+	
+	private TimedEventExecutor(Method method, Class<? extends Event> eventClass, LatencyHistogram timer)
+	{
+		this.method = method;
+		this.eventClass = eventClass;
+		this.timer = timer;
+	}
+	
+	@Override
+	public void execute(Listener listener, Event event) throws EventException
+	{
+		//handler lists are shared with subclasses of the event, which this handler may not accept
+		if(!this.eventClass.isInstance(event)) return;
+		
+		long start = System.nanoTime();
+		try
+		{
+			this.method.invoke(listener, event);
+		}
+		catch(InvocationTargetException e)
+		{
+			throw new EventException(e.getCause());
+		}
+		catch(Exception e)
+		{
+			throw new EventException(e);
+		}
+		finally
+		{
+			this.timer.recordSince(start);
+		}
+	}
+	
+	//registers every @EventHandler method of a listener, each with its own timer
+	@SuppressWarnings("unchecked")
+	static void registerEvents(Listener listener, Plugin plugin)
+	{
+		PluginManager pluginManager = plugin.getServer().getPluginManager();
+		String listenerName = listener.getClass().getSimpleName();
+		
+		Method [] methods = listener.getClass().getDeclaredMethods();
+		for(int i = 0; i < methods.length; i++)
+		{
+			Method method = methods[i];
+			EventHandler annotation = method.getAnnotation(EventHandler.class);
+			if(annotation == null) continue;
+			
+			Class<?> [] parameterTypes = method.getParameterTypes();
+			if(parameterTypes.length != 1 || !Event.class.isAssignableFrom(parameterTypes[0]))
+			{
+				GriefPrevention.AddLogEntry("Skipping invalid event handler " + listenerName + "." + method.getName() + ".");
+				continue;
+			}
+			
+			//most of the handlers are package private
+			method.setAccessible(true);
+			
+			Class<? extends Event> eventClass = (Class<? extends Event>)parameterTypes[0];
+			LatencyHistogram timer = Metrics.eventHandlerTimer(listenerName + "." + method.getName());
+			TimedEventExecutor executor = new TimedEventExecutor(method, eventClass, timer);
+			pluginManager.registerEvent(eventClass, listener, annotation.priority(), executor, plugin, annotation.ignoreCancelled());
+		}
+	}
+}
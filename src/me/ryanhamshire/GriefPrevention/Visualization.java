@@ -19,12 +19,13 @@
 package me.ryanhamshire.GriefPrevention;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 
 //represents a visualization sent to a player
@@ -34,24 +35,122 @@ public class Visualization
 {
 	public ArrayList<VisualizationElement> elements = new ArrayList<VisualizationElement>();
 	
+	//an identical visualization sent again within this long is ignored, so clicking the same claim over and over is cheap
+	//after that it's sent again in full, in case the client lost some of the fake blocks
+	private final static long MILLISECONDS_BETWEEN_RESENDS = 2000;
+	
+	//cached outlines are rebuilt after this long, so they follow changes to the terrain
+	private final static long MILLISECONDS_CACHED = 10000;
+	
+	//where visualization blocks can be seen, by chunk.  BlockEventHandler forgets chunks as blocks change
+	static final SurfaceHeightCache surfaceHeightCache = new SurfaceHeightCache();
+	
+	//how this visualization was built by FromClaim(), to decide whether it can be reused
+	private int height;
+	private VisualizationType visualizationType;
+	private int localityX;
+	private int localityZ;
+	private long creationTimestamp;
+	
 	//sends a visualization to a player
+	//only the blocks which differ from what the player already sees are sent or reverted
 	public static void Apply(Player player, Visualization visualization)
 	{
 		PlayerData playerData = GriefPrevention.instance.dataStore.getPlayerData(player.getName());
 		
-		//if he has any current visualization, clear it first
+		//already on the way
+		if(playerData.pendingVisualization != null && playerData.pendingVisualization.hasSameElements(visualization)) return;
+		
+		//already showing, and recently sent
+		boolean resendAll = false;
+		if(playerData.pendingVisualization == null && playerData.currentVisualization != null && playerData.currentVisualization.hasSameElements(visualization))
+		{
+			if(System.currentTimeMillis() - playerData.lastVisualizationTimestamp < MILLISECONDS_BETWEEN_RESENDS) return;
+			resendAll = true;
+		}
+		
+		//revert the current visualization's blocks which aren't part of the new one
+		//the others stay as they are until the new visualization is sent
 		if(playerData.currentVisualization != null)
 		{
-			Visualization.Revert(player);
+			HashSet<Location> newLocations = new HashSet<Location>();
+			for(int i = 0; i < visualization.elements.size(); i++)
+			{
+				newLocations.add(visualization.elements.get(i).location);
+			}
+			
+			Visualization keptVisualization = new Visualization();
+			ArrayList<VisualizationElement> currentElements = playerData.currentVisualization.elements;
+			for(int i = 0; i < currentElements.size(); i++)
+			{
+				VisualizationElement element = currentElements.get(i);
+				if(newLocations.contains(element.location))
+				{
+					keptVisualization.elements.add(element);
+				}
+				else if(player.isOnline())
+				{
+					Block block = element.location.getBlock();
+					player.sendBlockChange(element.location, block.getType(), block.getData());
+				}
+			}
+			
+			playerData.currentVisualization = keptVisualization.elements.size() > 0 ? keptVisualization : null;
 		}
 		
 		//if he's online, create a task to send him the visualization in about half a second
+		playerData.pendingVisualization = null;
 		if(player.isOnline())
 		{
-			GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, new VisualizationApplicationTask(player, playerData, visualization), 10L);
+			playerData.pendingVisualization = visualization;
+			GriefPrevention.instance.getServer().getScheduler().scheduleSyncDelayedTask(GriefPrevention.instance, new VisualizationApplicationTask(player, playerData, visualization, resendAll), 10L);
 		}
 	}
 	
+	//sends the blocks of a visualization which the player isn't already seeing.  called by VisualizationApplicationTask
+	static void sendChangedElements(Player player, Visualization visualization, Visualization currentVisualization)
+	{
+		HashMap<Location, VisualizationElement> currentElements = new HashMap<Location, VisualizationElement>();
+		if(currentVisualization != null)
+		{
+			for(int i = 0; i < currentVisualization.elements.size(); i++)
+			{
+				VisualizationElement element = currentVisualization.elements.get(i);
+				currentElements.put(element.location, element);
+			}
+		}
+		
+		//for each element (=block) of the visualization
+		for(int i = 0; i < visualization.elements.size(); i++)
+		{
+			VisualizationElement element = visualization.elements.get(i);
+			
+			//skip it if the player already sees exactly that
+			VisualizationElement currentElement = currentElements.get(element.location);
+			if(currentElement != null && currentElement.looksLike(element)) continue;
+			
+			//send the player a fake block change event
+			player.sendBlockChange(element.location, element.visualizedMaterial, element.visualizedData);
+		}
+	}
+	
+	//whether two visualizations would show a player exactly the same blocks
+	//visualizations built the same way list their elements in the same order, so this doesn't bother with other orders
+	private boolean hasSameElements(Visualization other)
+	{
+		if(this == other) return true;
+		if(this.elements.size() != other.elements.size()) return false;
+		
+		for(int i = 0; i < this.elements.size(); i++)
+		{
+			VisualizationElement element = this.elements.get(i);
+			VisualizationElement otherElement = other.elements.get(i);
+			if(!element.location.equals(otherElement.location) || !element.looksLike(otherElement)) return false;
+		}
+		
+		return true;
+	}
+	
 	//reverts a visualization by sending another block change list, this time with the real world block values
 	public static void Revert(Player player)
 	{
@@ -73,6 +172,9 @@ public class Visualization
 			
 			playerData.currentVisualization = null;
 		}
+		
+		//and don't show a visualization which was about to be sent
+		playerData.pendingVisualization = null;
 	}
 	
 	//convenience method to build a visualization from a claim
@@ -85,7 +187,25 @@ public class Visualization
 			return FromClaim(claim.parent, height, visualizationType, locality);
 		}
 		
+		//reuse the last outline built for this claim, if it was built the same way not long ago
+		long now = System.currentTimeMillis();
+		Visualization cachedVisualization = claim.cachedVisualization;
+		if(	cachedVisualization != null &&
+			cachedVisualization.height == height &&
+			cachedVisualization.visualizationType == visualizationType &&
+			cachedVisualization.localityX == locality.getBlockX() &&
+			cachedVisualization.localityZ == locality.getBlockZ() &&
+			now - cachedVisualization.creationTimestamp < MILLISECONDS_CACHED)
+		{
+			return cachedVisualization;
+		}
+		
 		Visualization visualization = new Visualization();
+		visualization.height = height;
+		visualization.visualizationType = visualizationType;
+		visualization.localityX = locality.getBlockX();
+		visualization.localityZ = locality.getBlockZ();
+		visualization.creationTimestamp = now;
 		
 		//add subdivisions first
 		for(int i = 0; i < claim.children.size(); i++)
@@ -96,6 +216,8 @@ public class Visualization
 		//add top level last so that it takes precedence (it shows on top when the child claim boundaries overlap with its boundaries)
 		visualization.addClaimElements(claim, height, visualizationType, locality);
 		
+		claim.cachedVisualization = visualization;
+		
 		return visualization;
 	}
 	
@@ -198,28 +320,6 @@ public class Visualization
 	//finds a block the player can probably see.  this is how visualizations "cling" to the ground or ceiling
 	private static Location getVisibleLocation(World world, int x, int y, int z)
 	{
-		Block block = world.getBlockAt(x,  y, z);
-		BlockFace direction = (isTransparent(block)) ? BlockFace.DOWN : BlockFace.UP;
-				
-		while(	block.getY() >= 1 && 
-				block.getY() < world.getMaxHeight() - 1 &&
-				(!isTransparent(block.getRelative(BlockFace.UP)) || isTransparent(block)))
-		{
-			block = block.getRelative(direction);
-		}
-		
-		return block.getLocation();
-	}
-	
-	//helper method for above.  allows visualization blocks to sit underneath partly transparent blocks like grass and fence
-	private static boolean isTransparent(Block block)
-	{
-		return (	block.getType() == Material.AIR ||
-					block.getType() == Material.LONG_GRASS ||
-					block.getType() == Material.FENCE ||
-					block.getType() == Material.LEAVES ||
-					block.getType() == Material.RED_ROSE ||
-					block.getType() == Material.CHEST ||
-					block.getType() == Material.YELLOW_FLOWER );
+		return new Location(world, x, surfaceHeightCache.getVisibleY(world, x, y, z), z);
 	}
 }
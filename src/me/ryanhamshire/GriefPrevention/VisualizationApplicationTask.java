@@ -26,27 +26,38 @@ class VisualizationApplicationTask implements Runnable
 	private Visualization visualization;
 	private Player player;
 	private PlayerData playerData;
+	private boolean resendAll;		//whether to send every block, even those the player should already see
 
-	public VisualizationApplicationTask(Player player, PlayerData playerData, Visualization visualization)
+	public VisualizationApplicationTask(Player player, PlayerData playerData, Visualization visualization, boolean resendAll)
 	{
 		this.visualization = visualization;
 		this.playerData = playerData;
 		this.player = player;
+		this.resendAll = resendAll;
 	}
 	
 	@Override
 	public void run()
 	{
-		//for each element (=block) of the visualization
-		for(int i = 0; i < visualization.elements.size(); i++)
-		{
-			VisualizationElement element = visualization.elements.get(i);
-			
-			//send the player a fake block change event
-			player.sendBlockChange(element.location, element.visualizedMaterial, element.visualizedData);
-		}
+		//if another visualization was applied (or this one reverted) in the meantime, this one is obsolete
+		if(playerData.pendingVisualization != visualization) return;
+		playerData.pendingVisualization = null;
+		
+		if(!player.isOnline()) return;
+		
+		long start = System.nanoTime();
+		
+		//send only the blocks the player isn't already seeing
+		Visualization.sendChangedElements(player, visualization, this.resendAll ? null : playerData.currentVisualization);
 		
 		//remember the visualization applied to this player for later (so it can be inexpensively reverted)
 		playerData.currentVisualization = visualization;
+		playerData.lastVisualizationTimestamp = System.currentTimeMillis();
+		
+		long elapsed = System.nanoTime() - start;
+		if(SlowOperationLog.isSlow(elapsed))
+		{
+			SlowOperationLog.log("applyVisualization", elapsed, "player=" + player.getName() + " blocks=" + visualization.elements.size());
+		}
 	}
 }
@@ -33,4 +33,10 @@ public class VisualizationElement
 		this.visualizedMaterial= visualizedMaterial;
 		this.visualizedData = visualizedData;
 	}
+	
+	//whether this element shows the same block as another one (the location isn't compared)
+	boolean looksLike(VisualizationElement other)
+	{
+		return this.visualizedMaterial == other.visualizedMaterial && this.visualizedData == other.visualizedData;
+	}
 }
@@ -0,0 +1,67 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+//block types and data values for a box of the world, packed into one flat array
+//used by the RestoreNature code in place of one object per block
+//each voxel is a short: the block type id in the high 12 bits, the data value in the low 4 bits
+//y varies fastest, so walking up and down a column stays within a small stretch of the array
+class VoxelBuffer
+{
+	final int sizeX;
+	final int height;
+	final int sizeZ;
+	
+	private final short [] voxels;
+	
+	VoxelBuffer(int sizeX, int height, int sizeZ)
+	{
+		this.sizeX = sizeX;
+		this.height = height;
+		this.sizeZ = sizeZ;
+		this.voxels = new short [sizeX * height * sizeZ];
+	}
+	
+	private int index(int x, int y, int z)
+	{
+		return (x * this.sizeZ + z) * this.height + y;
+	}
+	
+	int getTypeId(int x, int y, int z)
+	{
+		return (this.voxels[this.index(x, y, z)] & 0xFFFF) >>> 4;
+	}
+	
+	int getData(int x, int y, int z)
+	{
+		return this.voxels[this.index(x, y, z)] & 0xF;
+	}
+	
+	//changes the block type, leaving the data value alone
+	void setTypeId(int x, int y, int z, int typeId)
+	{
+		int index = this.index(x, y, z);
+		this.voxels[index] = (short)((typeId << 4) | (this.voxels[index] & 0xF));
+	}
+	
+	void set(int x, int y, int z, int typeId, int data)
+	{
+		this.voxels[this.index(x, y, z)] = (short)((typeId << 4) | (data & 0xF));
+	}
+}
@@ -0,0 +1,404 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2012 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package me.ryanhamshire.GriefPrevention;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+//queues claim and player data writes, so that secondary storage is accessed by a dedicated thread instead of the server's main thread
+//a copy of the data is taken when a write is queued, so callers may keep changing the original right away
+//repeated writes for the same claim ID or player name are coalesced, only the most recent version is written
+//the same goes for the next claim ID, which is written before any claims in the same batch
+class WriteBehindQueue implements Runnable
+{
+	//the data store which does the actual writing
+	private DataStore dataStore;
+	
+	//pending claim writes and deletions by claim ID, in the order they were first queued
+	//an entry stays here until it's written, so that newer changes can replace it
+	private LinkedHashMap<Long, PendingClaimWrite> pendingClaimWrites = new LinkedHashMap<Long, PendingClaimWrite>();
+	
+	//pending player data writes by player name
+	private LinkedHashMap<String, PlayerData> pendingPlayerDataWrites = new LinkedHashMap<String, PlayerData>();
+	
+	//the latest next claim ID waiting to be written, or null if it's already been written
+	private Long pendingNextClaimID = null;
+	
+	//the writer thread, null until start() is called
+	private Thread writerThread = null;
+	
+	//whether the writer is busy writing a batch it already took from the maps above
+	private boolean writing = false;
+	
+	//set by close() to tell the writer thread to finish up
+	private boolean closing = false;
+	
+	WriteBehindQueue(DataStore dataStore)
+	{
+		this.dataStore = dataStore;
+	}
+	
+	//starts the writer thread.  anything queued before this point is written once it starts
+	synchronized void start()
+	{
+		if(this.writerThread != null) return;
+		
+		this.closing = false;
+		this.writerThread = new Thread(this, "GriefPrevention Data Writer");
+		this.writerThread.start();
+	}
+	
+	//queues a top level claim (and its subdivisions) to be written
+	synchronized void queueClaimWrite(Claim claim)
+	{
+		this.queueClaimOperation(claim.id, new PendingClaimWrite(copyClaim(claim), false));
+	}
+	
+	//queues a top level claim to be removed from storage
+	synchronized void queueClaimDelete(Claim claim)
+	{
+		this.queueClaimOperation(claim.id, new PendingClaimWrite(claim, true));
+	}
+	
+	private void queueClaimOperation(Long claimID, PendingClaimWrite operation)
+	{
+		//remove first so the claim moves to the back of the line, behind anything queued since its last change
+		this.pendingClaimWrites.remove(claimID);
+		this.pendingClaimWrites.put(claimID, operation);
+		this.notifyAll();
+	}
+	
+	//queues player data to be written
+	synchronized void queuePlayerDataWrite(String playerName, PlayerData playerData)
+	{
+		this.pendingPlayerDataWrites.remove(playerName);
+		this.pendingPlayerDataWrites.put(playerName, copyPlayerData(playerName, playerData));
+		this.notifyAll();
+	}
+	
+	//queues a new next claim ID to be written, replacing any older value which hasn't been written yet
+	synchronized void queueNextClaimIDWrite(long nextClaimID)
+	{
+		this.pendingNextClaimID = nextClaimID;
+		this.notifyAll();
+	}
+	
+	//whether anything is waiting to be taken by the writer
+	private boolean hasPendingWrites()
+	{
+		return this.pendingNextClaimID != null || !this.pendingClaimWrites.isEmpty() || !this.pendingPlayerDataWrites.isEmpty();
+	}
+	
+	//returns the not-yet-written copy of a player's data, or null if nothing is waiting to be written for that player
+	//used when loading player data, so that a player who's reloaded right after a save doesn't get stale data from storage
+	synchronized PlayerData getPendingPlayerData(String playerName)
+	{
+		return this.pendingPlayerDataWrites.get(playerName);
+	}
+	
+	//blocks until everything queued so far has been written
+	void flush()
+	{
+		synchronized(this)
+		{
+			//with a writer thread running, just wait for it to catch up
+			if(this.writerThread != null)
+			{
+				while(this.writing || this.hasPendingWrites())
+				{
+					try
+					{
+						this.wait();
+					}
+					catch(InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				
+				return;
+			}
+		}
+		
+		//otherwise do the work on this thread
+		PendingBatch batch;
+		while((batch = this.takeBatch()) != null)
+		{
+			this.writeBatch(batch);
+			this.finishBatch(batch);
+		}
+	}
+	
+	//writes everything that's left and stops the writer thread
+	void close()
+	{
+		Thread thread;
+		synchronized(this)
+		{
+			thread = this.writerThread;
+			this.closing = true;
+			this.notifyAll();
+		}
+		
+		if(thread != null)
+		{
+			try
+			{
+				thread.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		synchronized(this)
+		{
+			this.writerThread = null;
+		}
+		
+		//anything queued while shutting down, or while the thread was never started
+		this.flush();
+	}
+	
+	@Override
+	public void run()
+	{
+		while(true)
+		{
+			PendingBatch batch;
+			synchronized(this)
+			{
+				//wait for something to do
+				while(!this.closing && !this.hasPendingWrites())
+				{
+					try
+					{
+						this.wait();
+					}
+					catch(InterruptedException e)
+					{
+						this.closing = true;
+					}
+				}
+				
+				//when closing, keep going until the queue is empty
+				batch = this.takeBatch();
+				if(batch == null) return;
+			}
+			
+			//the queue isn't locked while writing, so other threads can keep queueing
+			this.writeBatch(batch);
+			this.finishBatch(batch);
+		}
+	}
+	
+	//collects everything currently queued, or returns null if there's nothing to write
+	private synchronized PendingBatch takeBatch()
+	{
+		if(!this.hasPendingWrites()) return null;
+		
+		PendingBatch batch = new PendingBatch();
+		batch.nextClaimID = this.pendingNextClaimID;
+		
+		for(Map.Entry<Long, PendingClaimWrite> entry : this.pendingClaimWrites.entrySet())
+		{
+			batch.claimIDs.add(entry.getKey());
+			batch.claimWrites.add(entry.getValue());
+		}
+		
+		for(Map.Entry<String, PlayerData> entry : this.pendingPlayerDataWrites.entrySet())
+		{
+			batch.playerNames.add(entry.getKey());
+			batch.playerDataWrites.add(entry.getValue());
+		}
+		
+		this.writing = true;
+		return batch;
+	}
+	
+	//does the actual writing, without holding the queue's lock
+	private void writeBatch(PendingBatch batch)
+	{
+		//the ID goes first, so a claim is never saved under an ID which could be handed out again after a restart
+		if(batch.nextClaimID != null)
+		{
+			try
+			{
+				this.dataStore.writeNextClaimIDToStorage(batch.nextClaimID);
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.AddLogEntry("Unexpected exception saving next claim ID " + batch.nextClaimID + ": " + e.getMessage());
+			}
+		}
+		
+		for(int i = 0; i < batch.claimWrites.size(); i++)
+		{
+			PendingClaimWrite claimWrite = batch.claimWrites.get(i);
+			try
+			{
+				if(claimWrite.delete)
+				{
+					this.dataStore.deleteClaimFromSecondaryStorage(claimWrite.claim);
+				}
+				else
+				{
+					long start = System.nanoTime();
+					this.dataStore.writeClaimToStorage(claimWrite.claim);
+					long elapsed = System.nanoTime() - start;
+					Metrics.writeClaimToStorage.record(elapsed);
+					if(SlowOperationLog.isSlow(elapsed))
+					{
+						SlowOperationLog.log("writeClaimToStorage", elapsed, "claim=" + claimWrite.claim.id + " owner=" + claimWrite.claim.getOwnerName() + " subdivisions=" + claimWrite.claim.children.size() + " batch=" + batch.claimWrites.size());
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.AddLogEntry("Unexpected exception saving data for claim \"" + claimWrite.claim.id + "\": " + e.getMessage());
+			}
+		}
+		
+		for(int i = 0; i < batch.playerNames.size(); i++)
+		{
+			try
+			{
+				long start = System.nanoTime();
+				this.dataStore.writePlayerDataToStorage(batch.playerNames.get(i), batch.playerDataWrites.get(i));
+				long elapsed = System.nanoTime() - start;
+				Metrics.writePlayerDataToStorage.record(elapsed);
+				if(SlowOperationLog.isSlow(elapsed))
+				{
+					SlowOperationLog.log("writePlayerDataToStorage", elapsed, "player=" + batch.playerNames.get(i) + " batch=" + batch.playerNames.size());
+				}
+			}
+			catch(Exception e)
+			{
+				GriefPrevention.AddLogEntry("Unexpected exception saving data for player \"" + batch.playerNames.get(i) + "\": " + e.getMessage());
+			}
+		}
+	}
+	
+	//drops entries which were written, unless they were replaced by newer versions in the meantime
+	private synchronized void finishBatch(PendingBatch batch)
+	{
+		if(batch.nextClaimID != null && batch.nextClaimID.equals(this.pendingNextClaimID))
+		{
+			this.pendingNextClaimID = null;
+		}
+		
+		for(int i = 0; i < batch.claimIDs.size(); i++)
+		{
+			if(this.pendingClaimWrites.get(batch.claimIDs.get(i)) == batch.claimWrites.get(i))
+			{
+				this.pendingClaimWrites.remove(batch.claimIDs.get(i));
+			}
+		}
+		
+		for(int i = 0; i < batch.playerNames.size(); i++)
+		{
+			if(this.pendingPlayerDataWrites.get(batch.playerNames.get(i)) == batch.playerDataWrites.get(i))
+			{
+				this.pendingPlayerDataWrites.remove(batch.playerNames.get(i));
+			}
+		}
+		
+		this.writing = false;
+		this.notifyAll();
+	}
+	
+	//makes a copy of a top level claim and its subdivisions, with everything the storage layer writes
+	private static Claim copyClaim(Claim claim)
+	{
+		Claim copy = copyClaimData(claim);
+		
+		for(int i = 0; i < claim.children.size(); i++)
+		{
+			Claim subdivisionCopy = copyClaimData(claim.children.get(i));
+			subdivisionCopy.parent = copy;
+			copy.children.add(subdivisionCopy);
+		}
+		
+		return copy;
+	}
+	
+	private static Claim copyClaimData(Claim claim)
+	{
+		ArrayList<String> builders = new ArrayList<String>();
+		ArrayList<String> containers = new ArrayList<String>();
+		ArrayList<String> accessors = new ArrayList<String>();
+		ArrayList<String> managers = new ArrayList<String>();
+		claim.getPermissions(builders, containers, accessors, managers);
+		
+		Claim copy = new Claim(
+			claim.getLesserBoundaryCorner(),
+			claim.getGreaterBoundaryCorner(),
+			claim.ownerName,
+			builders.toArray(new String [builders.size()]),
+			containers.toArray(new String [containers.size()]),
+			accessors.toArray(new String [accessors.size()]),
+			managers.toArray(new String [managers.size()]),
+			claim.id);
+		
+		copy.modifiedDate = claim.modifiedDate;
+		
+		return copy;
+	}
+	
+	//makes a copy of the parts of player data which are saved to storage
+	private static PlayerData copyPlayerData(String playerName, PlayerData playerData)
+	{
+		PlayerData copy = new PlayerData();
+		copy.playerName = playerName;
+		copy.lastLogin = playerData.lastLogin;
+		copy.accruedClaimBlocks = playerData.accruedClaimBlocks;
+		copy.bonusClaimBlocks = playerData.bonusClaimBlocks;
+		copy.groupBonusClaimBlocks = playerData.groupBonusClaimBlocks;
+		copy.claims = new Vector<Claim>(playerData.claims);
+		
+		return copy;
+	}
+	
+	//everything taken from the queue for one round of writing
+	private static class PendingBatch
+	{
+		Long nextClaimID = null;
+		ArrayList<Long> claimIDs = new ArrayList<Long>();
+		ArrayList<PendingClaimWrite> claimWrites = new ArrayList<PendingClaimWrite>();
+		ArrayList<String> playerNames = new ArrayList<String>();
+		ArrayList<PlayerData> playerDataWrites = new ArrayList<PlayerData>();
+	}
+	
+	//a queued write or deletion for one top level claim
+	private static class PendingClaimWrite
+	{
+		Claim claim;
+		boolean delete;
+		
+		PendingClaimWrite(Claim claim, boolean delete)
+		{
+			this.claim = claim;
+			this.delete = delete;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+    GriefPrevention Server Plugin for Minecraft
+    Copyright (C) 2011 Ryan Hamshire
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+ 
+package me.ryanhamshire.GriefPrevention;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+//checks ChatScanner finds exactly what the separate regex, contains() and counting checks it replaced used to find
+public class ChatScannerTest
+{
+	private static final String allowedIpAddresses = "1.2.3.4; 5.6.7.8";
+	private static final String [] trappedKeywords = new String [] { "trapped", "stuck", "help me" };
+	
+	//things players actually say, plus the edge cases of each check
+	private static final String [] corpus = new String []
+	{
+		"",
+		"hi",
+		"hello everyone!",
+		"how do i claim land?",
+		"How do I claim?",
+		"HOW DO I PROTECT MY HOUSE",
+		"how can i lock my chest",
+		"how claim",
+		"how  claim",
+		"how claims work?",
+		"does anyone know how to claim",
+		"somehow i claimed it",
+		"show me how: claim",
+		"how_ claim",
+		"how\tclaim",
+		"claim how",
+		"how do i unclaim",
+		"how? claim! protect? lock.",
+		"i'm trapped in a hole",
+		"I'm TRAPPED",
+		"stuck in the nether, help me",
+		"is it stuck?",
+		"unstuckable",
+		"join my server at 123.45.67.89",
+		"join 123.45.67.89:25565 now",
+		"my ip is 1.2.3.4",
+		"my ip is 5.6.7.8 and 9.10.11.12",
+		"10 . 0 . 0 . 1",
+		"12345.6.7.8",
+		"1.2.3.4.5.6.7.8.9",
+		"call 555-123-4567-8901",
+		"version 1.4.7 is out",
+		"abc1a2b3c4d",
+		"1...2...3...4",
+		"1....2....3....4",
+		"99999999",
+		"!!!!!!!!!!",
+		"?????? what",
+		"asdfghjklqwertyuiopzxcvbnm",
+		"lol",
+		"ok ok ok ok ok ok ok ok",
+		"caf\u00e9 au lait, \u00fcber gut",
+		"h\u00f6w do i cl\u00e4im",
+		"how do i claim caf\u00e9 land",
+		"_how_ do i claim",
+		"who knows how to lock doors",
+	};
+	
+	@Test
+	public void testCorpusMatchesOldChecks()
+	{
+		ChatScanner scanner = new ChatScanner(ChatScanner.defaultHowToClaimRegex, trappedKeywords, allowedIpAddresses);
+		OldChatChecks oldChecks = new OldChatChecks(ChatScanner.defaultHowToClaimRegex, trappedKeywords, allowedIpAddresses);
+		
+		for(int i = 0; i < corpus.length; i++)
+		{
+			assertSameResults(scanner, oldChecks, corpus[i]);
+		}
+	}
+	
+	@Test
+	public void testRandomMessagesMatchOldChecks()
+	{
+		ChatScanner scanner = new ChatScanner(ChatScanner.defaultHowToClaimRegex, trappedKeywords, allowedIpAddresses);
+		OldChatChecks oldChecks = new OldChatChecks(ChatScanner.defaultHowToClaimRegex, trappedKeywords, allowedIpAddresses);
+		
+		//pieces which exercise every check: question words, keywords, digit groups of every length, and assorted separators
+		String [] words = new String [] { "how", "HOW", "How", "claim", "Claim", "protect", "lock", "locks", "i", "do", "trapped", "Stuck", "help", "me", "show", "claimed", "_", "x" };
+		String [] separators = new String [] { " ", " ", " ", ".", ":", "-", ", ", "..", "...", "?", "!", "_", "\u00e9", "\t", "   ", "" };
+		
+		Random random = new Random(1234);
+		for(int i = 0; i < 50000; i++)
+		{
+			StringBuilder message = new StringBuilder();
+			int pieces = random.nextInt(14);
+			for(int j = 0; j < pieces; j++)
+			{
+				if(random.nextInt(3) == 0)
+				{
+					int digits = 1 + random.nextInt(6);
+					for(int k = 0; k < digits; k++) message.append((char)('0' + random.nextInt(10)));
+				}
+				else
+				{
+					message.append(words[random.nextInt(words.length)]);
+				}
+				
+				message.append(separators[random.nextInt(separators.length)]);
+			}
+			
+			assertSameResults(scanner, oldChecks, message.toString());
+		}
+	}
+	
+	@Test
+	public void testCustomHowToClaimRegex()
+	{
+		String customRegex = ".*\\bwhere\\b.*\\b(land|plot)\\b.*";
+		ChatScanner scanner = new ChatScanner(customRegex, trappedKeywords, allowedIpAddresses);
+		OldChatChecks oldChecks = new OldChatChecks(customRegex, trappedKeywords, allowedIpAddresses);
+		
+		assertTrue(scanner.scan("Where can I get a plot?").asksHowToClaim);
+		assertFalse(scanner.scan("how do i claim").asksHowToClaim);
+		for(int i = 0; i < corpus.length; i++)
+		{
+			assertSameResults(scanner, oldChecks, corpus[i]);
+		}
+	}
+	
+	//the old check matched every message when TrappedChatKeyword was blank
+	@Test
+	public void testEmptyKeywordMatchesNothing()
+	{
+		ChatScanner scanner = new ChatScanner(ChatScanner.defaultHowToClaimRegex, new String [] { "trapped", "stuck", "" }, allowedIpAddresses);
+		
+		assertFalse(scanner.scan("hello everyone").mentionsTrapped);
+		assertTrue(scanner.scan("i'm stuck").mentionsTrapped);
+	}
+	
+	private static void assertSameResults(ChatScanner scanner, OldChatChecks oldChecks, String message)
+	{
+		ChatScanner.ChatScanResult result = scanner.scan(message);
+		
+		assertEquals("asksHowToClaim for \"" + message + "\"", oldChecks.asksHowToClaim(message), result.asksHowToClaim);
+		assertEquals("mentionsTrapped for \"" + message + "\"", oldChecks.mentionsTrapped(message), result.mentionsTrapped);
+		assertEquals("looksLikeGibberish for \"" + message + "\"", oldChecks.looksLikeGibberish(message), result.looksLikeGibberish);
+		assertEquals("blockedIpAddress for \"" + message + "\"", oldChecks.findBlockedIpAddress(message), result.blockedIpAddress);
+	}
+	
+	//the checks chat went through before ChatScanner, from the old PlayerEventHandler and SpamDetector
+	//the only intended difference: keywords used to be case sensitive, and now aren't
+	private static class OldChatChecks
+	{
+		private final Pattern howToClaimPattern;
+		private final Pattern ipAddressPattern = Pattern.compile("\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}\\D{1,3}\\d{1,4}");
+		private final String [] trappedKeywords;
+		private final String allowedIpAddresses;
+		
+		OldChatChecks(String howToClaimRegex, String [] trappedKeywords, String allowedIpAddresses)
+		{
+			this.howToClaimPattern = Pattern.compile(howToClaimRegex, Pattern.CASE_INSENSITIVE);
+			this.trappedKeywords = trappedKeywords;
+			this.allowedIpAddresses = allowedIpAddresses;
+		}
+		
+		boolean asksHowToClaim(String message)
+		{
+			return this.howToClaimPattern.matcher(message).matches();
+		}
+		
+		boolean mentionsTrapped(String message)
+		{
+			String lowerCaseMessage = message.toLowerCase();
+			for(int i = 0; i < this.trappedKeywords.length; i++)
+			{
+				if(lowerCaseMessage.contains(this.trappedKeywords[i].toLowerCase())) return true;
+			}
+			
+			return false;
+		}
+		
+		//the spam checks ran on the lower case message
+		String findBlockedIpAddress(String message)
+		{
+			Matcher matcher = this.ipAddressPattern.matcher(message.toLowerCase());
+			while(matcher.find())
+			{
+				String address = matcher.group();
+				if(!this.allowedIpAddresses.contains(address)) return address;
+			}
+			
+			return null;
+		}
+		
+		boolean looksLikeGibberish(String message)
+		{
+			message = message.toLowerCase();
+			if(message.length() <= 5) return false;
+			
+			int symbolsCount = 0;
+			int whitespaceCount = 0;
+			for(int i = 0; i < message.length(); i++)
+			{
+				char character = message.charAt(i);
+				if(!(Character.isLetterOrDigit(character)))
+				{
+					symbolsCount++;
+				}
+				
+				if(Character.isWhitespace(character))
+				{
+					whitespaceCount++;
+				}
+			}
+			
+			return symbolsCount > message.length() / 2 || (message.length() > 15 && whitespaceCount < message.length() / 10);
+		}
+	}
+}